@@ -30,7 +30,8 @@ public class FollowController {
     }
 
     @GetMapping("common/{id}")
-    public Result commonFollow(@PathVariable("id") Long targetUserId) {
-        return followService.commonFollow(targetUserId);
+    public Result commonFollow(@PathVariable("id") Long targetUserId,
+                               @RequestParam(value = "lastId", required = false) Long lastId) {
+        return followService.commonFollow(targetUserId, lastId);
     }
 }
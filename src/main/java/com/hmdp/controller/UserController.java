@@ -2,7 +2,6 @@ package com.hmdp.controller;
 
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -46,6 +45,9 @@ public class UserController {
     @Resource
     RedisUtil redisUtil;
 
+    @Resource
+    JwtAuthenticator jwtAuthenticator;
+
     /**
      * 发送手机验证码
      */
@@ -95,15 +97,13 @@ public class UserController {
                 userService.save(one);
             }
 
-            // 记录已登录用户
-            String tokenId = UUID.fastUUID().toString();
-            String RedisUserKey = RedisConstants.LOGIN_USER_KEY + tokenId;
-            redisUtil.setObject(RedisUserKey, one, RedisConstants.LOGIN_USER_TTL, RedisConstants.LOGIN_USER_TTL_TIMEUNIT);
+            // 记录已登录用户，按 hmdp.auth.mode 签发会话令牌或无状态令牌
+            String token = jwtAuthenticator.issue(BeanUtil.copyProperties(one, UserDTO.class));
 
             // 验证成功，删除验证码
             redisUtil.delete(RedisCodeKey);
 
-            return Result.ok(JwtUtil.createJWT(tokenId));
+            return Result.ok(token);
         }
 
         if (loginForm.getPassword() != null) {
@@ -122,16 +122,10 @@ public class UserController {
     public Result logout(HttpServletRequest request){
         // TODO 实现登出功能
         //session.removeAttribute(CommonFields.LOGIN_USER);
-        String tokenID = null;
-        try {
-            tokenID = JwtUtil.getSubject(request.getHeader(JwtUtil.JWT_HEADER_FIELD));
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
-        if (tokenID == null) return Result.fail("用户未登录");
-        String RedisUserKey = RedisConstants.LOGIN_USER_KEY + tokenID;
-        if (!redisUtil.delete(RedisUserKey)) {
-            throw new RuntimeException("用户未登录或已登出");
+        String jwt = request.getHeader(JwtUtil.JWT_HEADER_FIELD);
+        // 令牌无效、已过期或已注销时 revoke 返回 false，校验结果由 JwtAuthenticator 在本地缓存，不再单独解析一次
+        if (!jwtAuthenticator.revoke(jwt)) {
+            return Result.fail("用户未登录或已登出");
         }
         logger.info("user_id: {} successfully logout.", UserHolder.getUser().getId());
         return Result.ok();
@@ -147,8 +141,8 @@ public class UserController {
 
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
-        // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        // 查询详情，粉丝数、关注数来自 redis 中的计数
+        UserInfo info = userInfoService.cachedGetUserInfoById(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
@@ -162,11 +156,10 @@ public class UserController {
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
         // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        UserDTO userDTO = userService.cachedGetUserDTOById(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
@@ -0,0 +1,40 @@
+package com.hmdp.endpoint;
+
+import com.hmdp.utils.EntityBloomFilters;
+import jakarta.annotation.Resource;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 布隆过滤器管理端点
+ * <p>
+ * GET  /actuator/bloomfilter         查看各个过滤器的版本、容量、误判率和元素数
+ * POST /actuator/bloomfilter/{entity} 从数据库重建指定过滤器（shop、blog、user）
+ * </p>
+ */
+@Component
+@Endpoint(id = "bloomfilter")
+public class BloomFilterEndpoint {
+
+    @Resource
+    private EntityBloomFilters entityBloomFilters;
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return entityBloomFilters.status();
+    }
+
+    @WriteOperation
+    public Map<String, Object> rebuild(@Selector String entity) {
+        long added = entityBloomFilters.rebuild(entity);
+        if (added < 0) {
+            return Map.of("entity", entity, "result", "其他节点正在重建");
+        }
+        return Map.of("entity", entity, "result", "重建完成", "added", added);
+    }
+}
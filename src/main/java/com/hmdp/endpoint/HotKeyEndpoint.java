@@ -0,0 +1,36 @@
+package com.hmdp.endpoint;
+
+import com.hmdp.utils.HotKeyDetector;
+import jakarta.annotation.Resource;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 热点 key 查看端点
+ * <p>
+ * GET /actuator/hotkeys 返回本节点估计值最大的候选 key、本节点判定的热点 key 以及集群汇总后的热点 key
+ * </p>
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+
+    // 返回的候选 key 数
+    private static final int TOP = 100;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @ReadOperation
+    public Map<String, Object> hotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("top", hotKeyDetector.topCandidates(TOP));
+        result.put("local", hotKeyDetector.getLocalHotKeys());
+        result.put("cluster", hotKeyDetector.getClusterHotKeys());
+        return result;
+    }
+}
@@ -1,11 +1,8 @@
 package com.hmdp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.utils.JwtUtil;
-import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.JwtAuthenticator;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,8 +11,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
-import java.util.concurrent.TimeUnit;
-
 /**
  * @author fzy
  * @version 1.0
@@ -27,28 +22,15 @@ import java.util.concurrent.TimeUnit;
 public class JWTInterceptor implements HandlerInterceptor {
 
     @Resource
-    RedisUtil redisUtil;
+    JwtAuthenticator jwtAuthenticator;
 
     // 拦截所有请求，获取请求中的token，解析token，获取用户信息，将用户信息存储到ThreadLocal中，方便后续使用
+    // 已校验的令牌缓存在本地，会话令牌通常命中本地会话缓存，无状态令牌不访问 redis
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
-        String jwt = request.getHeader(JwtUtil.JWT_HEADER_FIELD);
-        if (!JwtUtil.isValid(jwt)) return true;
-        String tokenId = null;
-        try {
-            tokenId = JwtUtil.getSubject(jwt);
-        } catch (Exception e) {
-            log.error(e.getMessage());
-        }
-        User user = null;
-        try {
-            user = redisUtil.getObject(RedisConstants.LOGIN_USER_KEY + tokenId, User.class);
-        } catch (Exception e) {
-            log.error(e.getMessage());
-        }
+        UserDTO user = jwtAuthenticator.authenticate(request.getHeader(JwtUtil.JWT_HEADER_FIELD));
         if (user != null) {
-            UserHolder.saveUser(BeanUtil.copyProperties(user, UserDTO.class));
-            redisUtil.expire(RedisConstants.LOGIN_USER_KEY + tokenId, 7, TimeUnit.DAYS);
+            UserHolder.saveUser(user);
         }
         return true;
     }
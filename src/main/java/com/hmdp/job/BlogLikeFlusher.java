@@ -0,0 +1,180 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.RedisConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 博文点赞数落库任务
+ * <p>
+ * 点赞、取消点赞只修改 redis（见 toggleBlogLike.lua），点赞数保存在 hash blog:like:count 中，
+ * 点赞数有变化的博文 id 记录在集合 blog:like:dirty 中。本任务定期把这些博文的点赞数分批写入 tb_blog.liked：
+ * UPDATE tb_blog SET liked = CASE id WHEN ? THEN ? ... END WHERE id IN (...)，
+ * 热门博文被频繁点赞时，数据库每个周期只更新一次该行，不再因为每次点赞都 UPDATE 同一行而产生行锁等待。
+ * <P></P>
+ * 崩溃安全：每轮开始时把待落库集合整体改名为 blog:like:flushing，全部写入后才删除；
+ * 进程在写入过程中崩溃时，下一轮（任意节点）会继续处理 blog:like:flushing。写入的是点赞数的绝对值，重复写入不影响结果。
+ * 同一时间只有一个节点执行。写入后同时更新这些博文在热门排行中的分数。
+ * <P></P>
+ * 失败隔离：某一批写入失败（SQL 错误、数据异常）时，这一批博文 id 移入 blog:like:parked，其他批次照常写入，
+ * blog:like:flushing 照常删除，单个异常批次不会让落库停止。停放的博文按 parked-retry-interval-millis 逐条重试，
+ * 写入成功后移出。写入的点赞数不小于 0。
+ * </p>
+ */
+@Component
+@Slf4j
+public class BlogLikeFlusher {
+
+    private static final DefaultRedisScript<List<String>> CLAIM_DIRTY_SCRIPT;
+
+    static {
+        @SuppressWarnings("unchecked")
+        Class<List<String>> listType = (Class<List<String>>) (Class<?>) List.class;
+        CLAIM_DIRTY_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_DIRTY_SCRIPT.setLocation(new ClassPathResource("lua/claimDirty.lua"));
+        CLAIM_DIRTY_SCRIPT.setResultType(listType);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private BlogHotRanking blogHotRanking;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 每条 UPDATE 语句更新的博文数
+    @Value("${hmdp.blog.like.flush-batch-size:500}")
+    private int batchSize;
+
+    private Counter flushedCounter;
+
+    // 写入失败而停放的博文数
+    private Counter failedCounter;
+
+    @PostConstruct
+    private void init() {
+        flushedCounter = Counter.builder("blog.like.flushed").register(meterRegistry);
+        failedCounter = Counter.builder("blog.like.flush.failed").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like.flush-interval-millis:1000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            List<String> blogIds = stringRedisTemplate.execute(CLAIM_DIRTY_SCRIPT,
+                    List.of(RedisConstants.BLOG_LIKE_DIRTY_KEY, RedisConstants.BLOG_LIKE_FLUSHING_KEY));
+            if (blogIds == null || blogIds.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < blogIds.size(); i += batchSize) {
+                List<String> batch = blogIds.subList(i, Math.min(i + batchSize, blogIds.size()));
+                try {
+                    write(batch);
+                } catch (Exception e) {
+                    // 停放失败的批次，继续写入其他批次
+                    stringRedisTemplate.opsForSet().add(RedisConstants.BLOG_LIKE_PARKED_KEY, batch.toArray(new String[0]));
+                    failedCounter.increment(batch.size());
+                    log.error("点赞数落库失败，{} 篇博文移入 {}，错误信息: {}",
+                            batch.size(), RedisConstants.BLOG_LIKE_PARKED_KEY, e.getMessage());
+                }
+            }
+            stringRedisTemplate.delete(RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+        } catch (Exception e) {
+            log.error("点赞数落库失败，下一轮重试，错误信息: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 逐条重试停放的博文，写入成功的移出停放集合，仍然失败的继续停放
+     */
+    @Scheduled(initialDelayString = "${hmdp.blog.like.parked-retry-interval-millis:60000}",
+            fixedDelayString = "${hmdp.blog.like.parked-retry-interval-millis:60000}")
+    public void retryParked() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Set<String> blogIds = stringRedisTemplate.opsForSet().members(RedisConstants.BLOG_LIKE_PARKED_KEY);
+            if (blogIds == null || blogIds.isEmpty()) {
+                return;
+            }
+            int failed = 0;
+            for (String blogId : blogIds) {
+                try {
+                    write(List.of(blogId));
+                    stringRedisTemplate.opsForSet().remove(RedisConstants.BLOG_LIKE_PARKED_KEY, blogId);
+                } catch (Exception e) {
+                    failed++;
+                    log.warn("停放的博文点赞数重试失败，博文: {}，错误信息: {}", blogId, e.getMessage());
+                }
+            }
+            log.info("停放的博文点赞数重试完成，共 {} 篇，仍失败 {} 篇", blogIds.size(), failed);
+        } catch (Exception e) {
+            log.error("停放的博文点赞数重试失败，错误信息: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一条 UPDATE ... CASE 语句写入一批博文的点赞数
+     */
+    private void write(List<String> blogIds) {
+        List<Object> counts = stringRedisTemplate.opsForHash()
+                .multiGet(RedisConstants.BLOG_LIKE_COUNT_KEY, new ArrayList<>(blogIds));
+        StringBuilder sql = new StringBuilder("liked = CASE id");
+        List<Long> ids = new ArrayList<>(blogIds.size());
+        List<Blog> blogs = new ArrayList<>(blogIds.size());
+        for (int i = 0; i < blogIds.size(); i++) {
+            if (counts.get(i) == null) {
+                continue;
+            }
+            // id 与点赞数都按数字解析后再拼接
+            long id = Long.parseLong(blogIds.get(i));
+            long count = Long.parseLong(counts.get(i).toString());
+            sql.append(" WHEN ").append(id).append(" THEN GREATEST(").append(count).append(", 0)");
+            ids.add(id);
+            blogs.add(new Blog().setId(id).setLiked((int) Math.max(count, 0)));
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        sql.append(" ELSE liked END");
+        blogService.lambdaUpdate().setSql(sql.toString()).in(Blog::getId, ids).update();
+        blogHotRanking.update(blogs);
+        flushedCounter.increment(ids.size());
+    }
+}
@@ -0,0 +1,445 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.FeedTimeline;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.VirtualThreads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 博文推送到粉丝收件箱（feed:{userId}）的异步任务
+ * <p>
+ * 发布博文时只向 stream.feed.fanout 发送一条消息（博文 id、作者 id、发布时间），发布接口的耗时与粉丝数无关。
+ * 消费者按 user_id 以 keyset 分页读取作者的粉丝（WHERE follow_user_id = ? AND user_id > ? ORDER BY user_id LIMIT n），
+ * 每批粉丝在一个管道中 ZADD，并只保留收件箱中最近的博文，完成后 XACK 并删除消息。
+ * 粉丝数达到 hmdp.feed.big-author-followers 的作者（大 V）不推送，只写入自己的发件箱，由粉丝读取时拉取（见 {@link FeedTimeline}）。
+ * <P></P>
+ * 断点续推：每批推送完成后，把该批最后一个粉丝的 id 记录在 hash feed:fanout:checkpoint 中（field 为消息 id），
+ * 消费者崩溃后，消息留在 pending list 中，由重启后的消费者或其他节点（空闲超时后 XAUTOCLAIM）从断点继续推送。
+ * ZADD 是幂等的，断点之后重复推送的一批不影响结果。推送大 V 的博文耗时较长，消费者每批推送后都会重置消息的空闲时间，
+ * 避免仍在处理的消息被其他节点接管。接管的消息交给本节点的消费者线程池推送，不占用定时任务线程。
+ * 投递次数达到 hmdp.feed.fanout.max-deliveries 仍未完成的消息转入死信队列 stream.feed.fanout.dlq，
+ * 附带失败原因与断点，不再反复接管。
+ * 监控指标：feed.fanout.lag（最早一条未完成消息的等待时间，毫秒）、feed.fanout.backlog（未完成的消息数）、
+ * feed.fanout.deliveries（写入收件箱的次数）、feed.fanout.duration（从发布到推送完成的耗时）、
+ * feed.fanout.dead.letter（转入死信队列的消息数）。
+ * </p>
+ */
+@Component
+@Slf4j
+public class FeedFanoutWorker {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private IFollowService followService;
+
+    @Resource
+    private FeedTimeline feedTimeline;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 每个节点上的消费者数量
+    @Value("${hmdp.feed.fanout.consumers:2}")
+    private int consumerCount;
+
+    // 每批读取并推送的粉丝数
+    @Value("${hmdp.feed.fanout.batch-size:2000}")
+    private int batchSize;
+
+    // XREADGROUP 的阻塞等待时间
+    @Value("${hmdp.feed.fanout.block-millis:2000}")
+    private long blockMillis;
+
+    // 消息空闲超过该时间，认为其消费者已经失联
+    @Value("${hmdp.feed.fanout.reclaim-idle-millis:60000}")
+    private long idleMillis;
+
+    // 最大投递次数，超过后转入死信队列
+    @Value("${hmdp.feed.fanout.max-deliveries:5}")
+    private int maxDeliveries;
+
+    // 是否使用虚拟线程运行消费者，Java 21 以下忽略
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // 消费者线程，以及一个推送接管消息的线程
+    private ExecutorService executor;
+
+    private String nodeName;
+
+    private volatile boolean running = true;
+
+    // 是否有接管的消息正在推送，推送完成前不再接管新的消息
+    private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong backlog = new AtomicLong();
+    private Counter deliveries;
+    private Counter deadLetters;
+    private Timer duration;
+
+    @PostConstruct
+    private void init() {
+        createConsumerGroupIfAbsent();
+        Gauge.builder("feed.fanout.lag", lagMillis, AtomicLong::get)
+                .description("最早一条未完成的推送消息的等待时间，毫秒")
+                .register(meterRegistry);
+        Gauge.builder("feed.fanout.backlog", backlog, AtomicLong::get)
+                .description("stream.feed.fanout 中未完成的推送消息数")
+                .register(meterRegistry);
+        deliveries = Counter.builder("feed.fanout.deliveries")
+                .description("写入粉丝收件箱的次数")
+                .register(meterRegistry);
+        duration = Timer.builder("feed.fanout.duration")
+                .description("从发布博文到推送完成的耗时")
+                .register(meterRegistry);
+        deadLetters = Counter.builder("feed.fanout.dead.letter")
+                .description("转入死信队列的推送消息数")
+                .register(meterRegistry);
+        nodeName = ManagementFactory.getRuntimeMXBean().getName();
+        executor = Executors.newFixedThreadPool(consumerCount + 1, VirtualThreads.threadFactory("feed-fanout-", virtualThreads));
+        for (int i = 0; i < consumerCount; i++) {
+            String consumerName = nodeName + "-" + i;
+            executor.submit(() -> consume(consumerName));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        executor.shutdownNow();
+    }
+
+    private void createConsumerGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    RedisConstants.FEED_FANOUT_STREAM.getBytes(StandardCharsets.UTF_8),
+                    RedisConstants.FEED_FANOUT_GROUP,
+                    ReadOffset.from("0"),
+                    true));
+        } catch (Exception e) {
+            // BUSYGROUP：消费者组已存在
+            log.debug("推送消费者组已存在: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 提交推送任务
+     * @param time 发布时间，作为收件箱中的分数
+     */
+    public void publish(Long blogId, Long authorId, long time) {
+        stringRedisTemplate.opsForStream().add(RedisConstants.FEED_FANOUT_STREAM, Map.of(
+                "blogId", blogId.toString(),
+                "authorId", authorId.toString(),
+                "time", String.valueOf(time)
+        ));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consume(String consumerName) {
+        // 启动时先处理上次退出时遗留在自己 pending list 中的消息
+        handlePendingList(consumerName);
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.FEED_FANOUT_GROUP, consumerName),
+                        StreamReadOptions.empty().count(1).block(Duration.ofMillis(blockMillis)),
+                        StreamOffset.create(RedisConstants.FEED_FANOUT_STREAM, ReadOffset.lastConsumed()));
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                for (MapRecord<String, Object, Object> record : records) {
+                    handle(record, consumerName);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.error("推送博文失败: {}", e.getMessage());
+                handlePendingList(consumerName);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * 遍历一遍自己的 pending list，每条消息每轮只尝试一次，失败的留在 pending list 中，空闲超时后由回收任务接管
+     */
+    @SuppressWarnings("unchecked")
+    private void handlePendingList(String consumerName) {
+        String lastId = "0";
+        while (running) {
+            List<MapRecord<String, Object, Object>> records;
+            try {
+                records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.FEED_FANOUT_GROUP, consumerName),
+                        StreamReadOptions.empty().count(10),
+                        StreamOffset.create(RedisConstants.FEED_FANOUT_STREAM, ReadOffset.from(lastId)));
+            } catch (Exception e) {
+                log.error("读取推送消息的 pending list 失败: {}", e.getMessage());
+                return;
+            }
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                try {
+                    handle(record, consumerName);
+                } catch (Exception e) {
+                    log.error("推送 pending 消息 {} 失败: {}", record.getId(), e.getMessage());
+                }
+            }
+            lastId = records.get(records.size() - 1).getId().getValue();
+        }
+    }
+
+    /**
+     * 推送一条消息，失败时记录原因，转入死信队列时一并保存
+     */
+    private void handle(MapRecord<String, Object, Object> record, String consumerName) {
+        try {
+            fanout(record, consumerName);
+        } catch (Exception e) {
+            stringRedisTemplate.opsForHash().put(RedisConstants.FEED_FANOUT_FAILURE_KEY, record.getId().getValue(),
+                    e.getClass().getSimpleName() + ": " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * 从断点开始，按批读取粉丝并推送
+     */
+    public void fanout(MapRecord<String, Object, Object> record, String consumerName) {
+        String messageId = record.getId().getValue();
+        long blogId = Long.parseLong(record.getValue().get("blogId").toString());
+        long authorId = Long.parseLong(record.getValue().get("authorId").toString());
+        long time = Long.parseLong(record.getValue().get("time").toString());
+        byte[] member = String.valueOf(blogId).getBytes(StandardCharsets.UTF_8);
+
+        Object checkpoint = stringRedisTemplate.opsForHash().get(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, messageId);
+        long lastFollowerId = checkpoint == null ? 0 : Long.parseLong(checkpoint.toString());
+        if (checkpoint != null) {
+            log.info("从断点继续推送博文 {}，上次推送到粉丝 {}", blogId, lastFollowerId);
+        } else if (isBigAuthor(authorId)) {
+            // 大 V 只写发件箱，由粉丝读取时拉取
+            byte[] outbox = (RedisConstants.FEED_OUTBOX_KEY + authorId).getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.zSetCommands().zAdd(outbox, time, member);
+                connection.zSetCommands().zRemRange(outbox, 0, -(feedTimeline.getOutboxMaxSize() + 1));
+                return null;
+            });
+            deliveries.increment();
+            acknowledge(record.getId());
+            duration.record(Math.max(0, System.currentTimeMillis() - time), TimeUnit.MILLISECONDS);
+            return;
+        }
+        while (running) {
+            // 按 user_id 的 keyset 分页，不使用 OFFSET
+            List<Long> followers = followService.lambdaQuery()
+                    .select(Follow::getUserId)
+                    .eq(Follow::getFollowUserId, authorId)
+                    .gt(Follow::getUserId, lastFollowerId)
+                    .orderByAsc(Follow::getUserId)
+                    .last("LIMIT " + batchSize)
+                    .list()
+                    .stream()
+                    .map(Follow::getUserId)
+                    .toList();
+            if (followers.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long followerId : followers) {
+                    byte[] inbox = (RedisConstants.FEED_KEY + followerId).getBytes(StandardCharsets.UTF_8);
+                    connection.zSetCommands().zAdd(inbox, time, member);
+                    connection.zSetCommands().zRemRange(inbox, 0, -(feedTimeline.getInboxMaxSize() + 1));
+                }
+                return null;
+            });
+            deliveries.increment(followers.size());
+            lastFollowerId = followers.get(followers.size() - 1);
+            stringRedisTemplate.opsForHash().put(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, messageId, String.valueOf(lastFollowerId));
+            // 重置空闲时间，表明消息仍在处理中
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.streamCommands().xClaimJustId(
+                    RedisConstants.FEED_FANOUT_STREAM.getBytes(StandardCharsets.UTF_8), RedisConstants.FEED_FANOUT_GROUP,
+                    consumerName, RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(record.getId())));
+            if (followers.size() < batchSize) {
+                break;
+            }
+        }
+        if (!running) {
+            return;
+        }
+        acknowledge(record.getId());
+        duration.record(Math.max(0, System.currentTimeMillis() - time), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 作者的粉丝数是否达到大 V 的阈值。成为大 V 后不再降级，否则粉丝减少后其发件箱中的博文不会再被粉丝拉取
+     */
+    private boolean isBigAuthor(long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(authorId)))) {
+            return true;
+        }
+        // 只判断第 threshold 个粉丝是否存在，不统计全部粉丝
+        boolean big = !followService.lambdaQuery()
+                .select(Follow::getId)
+                .eq(Follow::getFollowUserId, authorId)
+                .last("LIMIT " + (feedTimeline.getBigAuthorFollowers() - 1) + ", 1")
+                .list()
+                .isEmpty();
+        if (big) {
+            stringRedisTemplate.opsForSet().add(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(authorId));
+            log.info("作者 {} 的粉丝数达到 {}，博文改为写入发件箱", authorId, feedTimeline.getBigAuthorFollowers());
+        }
+        return big;
+    }
+
+    /**
+     * 确认并删除消息，清除断点与失败原因
+     */
+    private void acknowledge(RecordId id) {
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP, id);
+        stringRedisTemplate.opsForStream().delete(RedisConstants.FEED_FANOUT_STREAM, id);
+        stringRedisTemplate.opsForHash().delete(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, id.getValue());
+        stringRedisTemplate.opsForHash().delete(RedisConstants.FEED_FANOUT_FAILURE_KEY, id.getValue());
+    }
+
+    /**
+     * 投递次数超过上限的消息转入死信队列，其余空闲超时（消费者已失联）的消息交给消费者线程池从断点继续推送，
+     * 同时更新监控指标
+     */
+    @Scheduled(fixedDelayString = "${hmdp.feed.fanout.reclaim-interval-millis:5000}")
+    public void reclaim() {
+        try {
+            RStream<String, String> stream = redissonClient.getStream(RedisConstants.FEED_FANOUT_STREAM, StringCodec.INSTANCE);
+            if (!stream.isExists()) {
+                lagMillis.set(0);
+                backlog.set(0);
+                return;
+            }
+            deadLetter(stream);
+            claimIdle(stream);
+            // 已完成的消息会被删除，stream 中剩下的都是未完成的
+            backlog.set(stream.size());
+            Map<StreamMessageId, Map<String, String>> oldest = stream.range(1, StreamMessageId.MIN, StreamMessageId.MAX);
+            lagMillis.set(oldest.isEmpty() ? 0 : System.currentTimeMillis() - oldest.keySet().iterator().next().getId0());
+        } catch (Exception e) {
+            log.error("回收推送消息失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 投递次数超过上限的空闲消息转入死信队列，并从 stream 中确认、删除
+     */
+    private void deadLetter(RStream<String, String> stream) {
+        List<PendingEntry> entries = stream.listPending(RedisConstants.FEED_FANOUT_GROUP,
+                StreamMessageId.MIN, StreamMessageId.MAX, idleMillis, TimeUnit.MILLISECONDS, 100);
+        for (PendingEntry entry : entries) {
+            // PendingEntry#getLastTimeDelivered 返回的是投递次数
+            if (entry.getLastTimeDelivered() < maxDeliveries) {
+                continue;
+            }
+            String id = entry.getId().toString();
+            Map<StreamMessageId, Map<String, String>> origin = stream.range(1, entry.getId(), entry.getId());
+            Object reason = stringRedisTemplate.opsForHash().get(RedisConstants.FEED_FANOUT_FAILURE_KEY, id);
+            Object checkpoint = stringRedisTemplate.opsForHash().get(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, id);
+
+            Map<String, String> deadLetter = new HashMap<>(origin.getOrDefault(entry.getId(), Map.of()));
+            deadLetter.put("originId", id);
+            deadLetter.put("consumer", entry.getConsumerName());
+            deadLetter.put("deliveries", String.valueOf(entry.getLastTimeDelivered()));
+            deadLetter.put("reason", reason == null ? "unknown" : reason.toString());
+            deadLetter.put("checkpoint", checkpoint == null ? "0" : checkpoint.toString());
+            stringRedisTemplate.opsForStream().add(RedisConstants.FEED_FANOUT_DLQ_STREAM, deadLetter);
+
+            acknowledge(RecordId.of(id));
+            deadLetters.increment();
+            log.error("推送消息 {} 投递 {} 次仍未完成，转入死信队列: {}", id, entry.getLastTimeDelivered(), deadLetter);
+        }
+    }
+
+    /**
+     * 通过 XAUTOCLAIM 接管一条空闲超时的消息，交给消费者线程池推送。上一条接管的消息推送完成前不再接管，
+     * 否则排队等待的消息空闲时间继续增长，会被其他节点再次接管
+     */
+    private void claimIdle(RStream<String, String> stream) {
+        if (!reclaiming.compareAndSet(false, true)) {
+            return;
+        }
+        boolean submitted = false;
+        try {
+            String consumerName = nodeName + "-reclaimer";
+            AutoClaimResult<String, String> result = stream.autoClaim(RedisConstants.FEED_FANOUT_GROUP,
+                    consumerName, idleMillis, TimeUnit.MILLISECONDS, StreamMessageId.MIN, 1);
+            Map<StreamMessageId, Map<String, String>> messages = result.getMessages();
+            if (messages == null || messages.isEmpty()) {
+                return;
+            }
+            Map.Entry<StreamMessageId, Map<String, String>> message = messages.entrySet().iterator().next();
+            log.warn("接管空闲超时的推送消息 {}", message.getKey());
+            MapRecord<String, Object, Object> record = StreamRecords.newRecord()
+                    .in(RedisConstants.FEED_FANOUT_STREAM)
+                    .withId(RecordId.of(message.getKey().toString()))
+                    .ofMap(new HashMap<Object, Object>(message.getValue()));
+            executor.execute(() -> {
+                try {
+                    handle(record, consumerName);
+                } catch (Exception e) {
+                    // 留在本节点回收消费者的 pending list 中，投递次数达到上限后转入死信队列
+                    log.error("推送接管的消息 {} 失败: {}", record.getId(), e.getMessage());
+                } finally {
+                    reclaiming.set(false);
+                }
+            });
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                reclaiming.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.UserInfo;
+import com.hmdp.mapper.UserInfoMapper;
+import com.hmdp.utils.RedisConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 粉丝数、关注数落库任务
+ * <p>
+ * 关注、取关只修改 redis 中的计数（见 FollowCounters），计数有变化的用户 id 记录在集合 user:count:dirty 中。
+ * 本任务定期把这些用户的计数分批写入 tb_user_info：一条 INSERT ... ON DUPLICATE KEY UPDATE 写入一批用户，
+ * 大 V 被频繁关注时，数据库每个周期只更新一次该行。
+ * <P></P>
+ * 崩溃安全与 BlogLikeFlusher 相同：待落库集合整体改名为 user:count:flushing，全部写入后才删除，写入的是计数的绝对值。
+ * 同一时间只有一个节点执行。失败隔离也与 BlogLikeFlusher 相同：写入失败的批次移入 user:count:parked，
+ * user:count:flushing 照常删除，停放的用户按 parked-retry-interval-millis 逐条重试。写入的计数不小于 0。
+ * </p>
+ */
+@Component
+@Slf4j
+public class FollowCountFlusher {
+
+    private static final DefaultRedisScript<List<String>> CLAIM_DIRTY_SCRIPT;
+
+    static {
+        @SuppressWarnings("unchecked")
+        Class<List<String>> listType = (Class<List<String>>) (Class<?>) List.class;
+        CLAIM_DIRTY_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_DIRTY_SCRIPT.setLocation(new ClassPathResource("lua/claimDirty.lua"));
+        CLAIM_DIRTY_SCRIPT.setResultType(listType);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 每条 INSERT 语句写入的用户数
+    @Value("${hmdp.follow.count.flush-batch-size:500}")
+    private int batchSize;
+
+    private Counter flushedCounter;
+
+    // 写入失败而停放的用户数
+    private Counter failedCounter;
+
+    @PostConstruct
+    private void init() {
+        flushedCounter = Counter.builder("follow.count.flushed").register(meterRegistry);
+        failedCounter = Counter.builder("follow.count.flush.failed").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.follow.count.flush-interval-millis:1000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.USER_COUNT_FLUSHING_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            List<String> userIds = stringRedisTemplate.execute(CLAIM_DIRTY_SCRIPT,
+                    List.of(RedisConstants.USER_COUNT_DIRTY_KEY, RedisConstants.USER_COUNT_FLUSHING_KEY));
+            if (userIds == null || userIds.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < userIds.size(); i += batchSize) {
+                List<String> batch = userIds.subList(i, Math.min(i + batchSize, userIds.size()));
+                try {
+                    write(batch);
+                } catch (Exception e) {
+                    // 停放失败的批次，继续写入其他批次
+                    stringRedisTemplate.opsForSet().add(RedisConstants.USER_COUNT_PARKED_KEY, batch.toArray(new String[0]));
+                    failedCounter.increment(batch.size());
+                    log.error("粉丝数、关注数落库失败，{} 个用户移入 {}，错误信息: {}",
+                            batch.size(), RedisConstants.USER_COUNT_PARKED_KEY, e.getMessage());
+                }
+            }
+            stringRedisTemplate.delete(RedisConstants.USER_COUNT_FLUSHING_KEY);
+        } catch (Exception e) {
+            log.error("粉丝数、关注数落库失败，下一轮重试，错误信息: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 逐条重试停放的用户，写入成功的移出停放集合，仍然失败的继续停放
+     */
+    @Scheduled(initialDelayString = "${hmdp.follow.count.parked-retry-interval-millis:60000}",
+            fixedDelayString = "${hmdp.follow.count.parked-retry-interval-millis:60000}")
+    public void retryParked() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.USER_COUNT_FLUSHING_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Set<String> userIds = stringRedisTemplate.opsForSet().members(RedisConstants.USER_COUNT_PARKED_KEY);
+            if (userIds == null || userIds.isEmpty()) {
+                return;
+            }
+            int failed = 0;
+            for (String userId : userIds) {
+                try {
+                    write(List.of(userId));
+                    stringRedisTemplate.opsForSet().remove(RedisConstants.USER_COUNT_PARKED_KEY, userId);
+                } catch (Exception e) {
+                    failed++;
+                    log.warn("停放的用户计数重试失败，用户: {}，错误信息: {}", userId, e.getMessage());
+                }
+            }
+            log.info("停放的用户计数重试完成，共 {} 个，仍失败 {} 个", userIds.size(), failed);
+        } catch (Exception e) {
+            log.error("停放的用户计数重试失败，错误信息: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一条 INSERT ... ON DUPLICATE KEY UPDATE 语句写入一批用户的计数
+     */
+    private void write(List<String> userIds) {
+        List<Object> fields = new ArrayList<>(userIds);
+        List<Object> fans = stringRedisTemplate.opsForHash().multiGet(RedisConstants.USER_FANS_COUNT_KEY, fields);
+        List<Object> followees = stringRedisTemplate.opsForHash().multiGet(RedisConstants.USER_FOLLOWEE_COUNT_KEY, fields);
+        List<UserInfo> infos = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            if (fans.get(i) == null || followees.get(i) == null) {
+                continue;
+            }
+            infos.add(new UserInfo()
+                    .setUserId(Long.valueOf(userIds.get(i)))
+                    .setFans(Integer.valueOf(fans.get(i).toString()))
+                    .setFollowee(Integer.valueOf(followees.get(i).toString())));
+        }
+        if (infos.isEmpty()) {
+            return;
+        }
+        userInfoMapper.upsertFollowCounts(infos);
+        flushedCounter.increment(infos.size());
+    }
+}
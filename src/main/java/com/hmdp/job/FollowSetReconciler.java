@@ -0,0 +1,112 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.FollowCounters;
+import com.hmdp.utils.FollowSetCache;
+import com.hmdp.utils.RedisConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 关注集合对账任务
+ * <p>
+ * 定期用 SCAN 遍历所有 follow:{userId}，每批 load-batch-size 个用户与数据库比较并修复（见 FollowSetCache#reconcile），
+ * 修复加载与关注、取关并发，或写数据库成功后写 redis 失败造成的不一致。集合不一致时计数也没有随之加减，
+ * 修复涉及的用户（集合的所有者与补上、删除的成员）按 tb_follow 重新统计粉丝数、关注数并标记待落库（见 FollowCounters#recount）。
+ * 同一时间只有一个节点执行。
+ * </p>
+ */
+@Component
+@Slf4j
+public class FollowSetReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private FollowSetCache followSetCache;
+
+    @Resource
+    private FollowCounters followCounters;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Counter repairedCounter;
+
+    // 重新统计计数的用户数
+    private Counter recountedCounter;
+
+    @PostConstruct
+    private void init() {
+        repairedCounter = Counter.builder("follow.set.repaired").register(meterRegistry);
+        recountedCounter = Counter.builder("follow.count.recounted").register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.follow.reconcile-interval-millis:600000}",
+            fixedDelayString = "${hmdp.follow.reconcile-interval-millis:600000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.FOLLOW_USER_KEY + "reconcile");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            int batchSize = followSetCache.getLoadBatchSize();
+            List<Long> userIds = new ArrayList<>(batchSize);
+            long repaired = 0;
+            ScanOptions options = ScanOptions.scanOptions()
+                    .match(RedisConstants.FOLLOW_USER_KEY + "*").count(batchSize).build();
+            try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(connection -> connection.scan(options))) {
+                while (cursor.hasNext()) {
+                    String suffix = new String(cursor.next(), StandardCharsets.UTF_8)
+                            .substring(RedisConstants.FOLLOW_USER_KEY.length());
+                    if (suffix.isEmpty() || !suffix.chars().allMatch(Character::isDigit)) {
+                        continue;
+                    }
+                    userIds.add(Long.valueOf(suffix));
+                    if (userIds.size() == batchSize) {
+                        repaired += reconcile(userIds);
+                        userIds.clear();
+                    }
+                }
+            }
+            if (!userIds.isEmpty()) {
+                repaired += reconcile(userIds);
+            }
+            repairedCounter.increment(repaired);
+        } catch (Exception e) {
+            log.error("关注集合对账失败，下一轮重试，错误信息: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 修复一批用户的关注集合，并重新统计修复涉及的用户的计数
+     * @return 修复的成员数
+     */
+    private long reconcile(List<Long> userIds) {
+        FollowSetCache.Repair repair = followSetCache.reconcile(userIds);
+        if (!repair.users().isEmpty()) {
+            followCounters.recount(repair.users());
+            recountedCounter.increment(repair.users().size());
+        }
+        return repair.members();
+    }
+}
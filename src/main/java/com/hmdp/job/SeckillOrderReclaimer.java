@@ -0,0 +1,168 @@
+package com.hmdp.job;
+
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.utils.RedisConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀订单消息的回收任务
+ * <p>
+ * 消费者宕机或者消息处理一直失败时，消息会停留在消费者组的 pending list 中，没有人再去处理。
+ * 本任务定期扫描 pending list：
+ * 1. 投递次数超过上限的消息转入死信队列 stream.orders.dlq，并附带失败原因；
+ * 2. 空闲时间超过阈值的消息通过 XAUTOCLAIM 转给本节点的回收消费者重新处理。
+ * 同时暴露 pending list 长度、回收数量、死信队列长度等监控指标。
+ * </p>
+ */
+@Component
+@Slf4j
+public class SeckillOrderReclaimer {
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderServiceImpl voucherOrderService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 消息空闲超过该时间，认为其消费者已经失联
+    @Value("${hmdp.seckill.order.reclaim-idle-millis:60000}")
+    private long idleMillis;
+
+    // 最大投递次数，超过后转入死信队列
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private int maxDeliveries;
+
+    // 每轮最多处理的消息数
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    private String consumerName;
+
+    private final AtomicLong pendingSize = new AtomicLong();
+    private final AtomicLong deadLetterSize = new AtomicLong();
+    private Counter reclaimedCounter;
+    private Counter deadLetterCounter;
+
+    @PostConstruct
+    private void init() {
+        consumerName = ManagementFactory.getRuntimeMXBean().getName() + "-reclaimer";
+        Gauge.builder("seckill.order.pending", pendingSize, AtomicLong::get)
+                .description("stream.orders 消费者组 pending list 中的消息数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.order.dlq.size", deadLetterSize, AtomicLong::get)
+                .description("秒杀订单死信队列长度")
+                .register(meterRegistry);
+        reclaimedCounter = Counter.builder("seckill.order.reclaimed")
+                .description("被回收并重新处理的消息数")
+                .register(meterRegistry);
+        deadLetterCounter = Counter.builder("seckill.order.dead.letter")
+                .description("转入死信队列的消息数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.order.reclaim-interval-millis:5000}")
+    public void reclaim() {
+        try {
+            RStream<String, String> stream = redissonClient.getStream(RedisConstants.SECKILL_ORDER_STREAM, StringCodec.INSTANCE);
+            if (!stream.isExists()) {
+                return;
+            }
+            deadLetter(stream);
+            claimIdle(stream);
+            pendingSize.set(stream.getPendingInfo(RedisConstants.SECKILL_ORDER_GROUP).getTotal());
+            Long dlqSize = stringRedisTemplate.opsForStream().size(RedisConstants.SECKILL_ORDER_DLQ_STREAM);
+            deadLetterSize.set(dlqSize == null ? 0 : dlqSize);
+        } catch (Exception e) {
+            log.error("回收秒杀订单消息失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 投递次数超过上限的消息转入死信队列，并从原消费者组中确认掉
+     */
+    private void deadLetter(RStream<String, String> stream) {
+        List<PendingEntry> entries = stream.listPending(RedisConstants.SECKILL_ORDER_GROUP,
+                StreamMessageId.MIN, StreamMessageId.MAX, idleMillis, TimeUnit.MILLISECONDS, batchSize);
+        for (PendingEntry entry : entries) {
+            // PendingEntry#getLastTimeDelivered 返回的是投递次数
+            if (entry.getLastTimeDelivered() < maxDeliveries) {
+                continue;
+            }
+            String id = entry.getId().toString();
+            Map<StreamMessageId, Map<String, String>> origin = stream.range(1, entry.getId(), entry.getId());
+            Object reason = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_ORDER_FAILURE_KEY, id);
+
+            Map<String, String> deadLetter = new HashMap<>(origin.getOrDefault(entry.getId(), Map.of()));
+            deadLetter.put("originId", id);
+            deadLetter.put("consumer", entry.getConsumerName());
+            deadLetter.put("deliveries", String.valueOf(entry.getLastTimeDelivered()));
+            deadLetter.put("reason", reason == null ? "unknown" : reason.toString());
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_DLQ_STREAM, deadLetter);
+
+            stream.ack(RedisConstants.SECKILL_ORDER_GROUP, entry.getId());
+            stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ORDER_FAILURE_KEY, id);
+            deadLetterCounter.increment();
+            log.error("秒杀订单消息 {} 投递 {} 次仍处理失败，转入死信队列: {}", id, entry.getLastTimeDelivered(), deadLetter);
+        }
+    }
+
+    /**
+     * 通过 XAUTOCLAIM 接管空闲超时的消息，并交给订单服务重新处理
+     */
+    private void claimIdle(RStream<String, String> stream) {
+        StreamMessageId start = StreamMessageId.MIN;
+        do {
+            AutoClaimResult<String, String> result = stream.autoClaim(RedisConstants.SECKILL_ORDER_GROUP,
+                    consumerName, idleMillis, TimeUnit.MILLISECONDS, start, batchSize);
+            Map<StreamMessageId, Map<String, String>> messages = result.getMessages();
+            if (messages != null && !messages.isEmpty()) {
+                List<MapRecord<String, String, String>> records = new ArrayList<>(messages.size());
+                messages.forEach((id, value) -> records.add(StreamRecords.newRecord()
+                        .in(RedisConstants.SECKILL_ORDER_STREAM)
+                        .withId(RecordId.of(id.toString()))
+                        .ofMap(value)));
+                reclaimedCounter.increment(records.size());
+                log.warn("回收空闲超时的秒杀订单消息 {} 条", records.size());
+                try {
+                    voucherOrderService.handleOrderRecords(records);
+                } catch (Exception e) {
+                    // 失败的消息留在本消费者的 pending list 中，投递次数达到上限后转入死信队列
+                    log.error("重新处理秒杀订单消息失败: {}", e.getMessage());
+                }
+            }
+            start = result.getNextId();
+        } while (start != null && !"0-0".equals(start.toString()));
+    }
+}
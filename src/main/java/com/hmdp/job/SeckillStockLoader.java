@@ -0,0 +1,353 @@
+package com.hmdp.job;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherStateCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀库存预热与对账任务
+ * <p>
+ * 秒杀下单完全依赖 redis 中的库存与已购用户集合（分段模式下为各个分段的 key，见 SeckillStockSegments），而这些 key 只在新增秒杀券时写入一次。
+ * redis 被清空或主从切换丢数据后，所有秒杀请求都会失败。本任务负责：
+ * 1. 启动时以及定期把所有未结束的秒杀活动的库存、已购用户集合从数据库批量（管道）加载到 redis，已存在的 key 不会被覆盖；
+ * 2. 定期对账：比较 redis 库存、数据库库存以及尚未落库的订单数（消息队列积压），把偏差作为监控指标上报。
+ * 加载在分布式锁 lock:seckill:stock:{voucherId} 内进行，下单请求触发的加载在本节点内合并（见 loadVoucher）。
+ * </p>
+ */
+@Component
+@Slf4j
+public class SeckillStockLoader implements ApplicationRunner {
+
+    // 每次从数据库读取、写入 redis 的用户数
+    private static final int BUYER_BATCH_SIZE = 5000;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    private SeckillVoucherStateCache seckillVoucherStateCache;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 下单请求等待其他请求（或其他节点）加载库存的最长时间
+    @Value("${hmdp.seckill.stock.load-wait-millis:3000}")
+    private long loadWaitMillis;
+
+    // 本节点上正在加载的秒杀券
+    private final Map<Long, CompletableFuture<Boolean>> loadingVouchers = new ConcurrentHashMap<>();
+
+    // 每个秒杀券的库存偏差：redis 库存 - (数据库库存 - 未落库订单数)
+    private final Map<Long, AtomicLong> stockDrift = new ConcurrentHashMap<>();
+
+    // 所有秒杀券尚未落库的订单总数
+    private final AtomicLong orderBacklog = new AtomicLong();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Gauge.builder("seckill.order.backlog", orderBacklog, AtomicLong::get)
+                .description("已在 redis 中扣减库存、但尚未落库的秒杀订单数")
+                .register(meterRegistry);
+        loadActiveVouchers();
+    }
+
+    /**
+     * 加载所有未结束的秒杀活动
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.stock.load-interval-millis:60000}",
+            fixedDelayString = "${hmdp.seckill.stock.load-interval-millis:60000}")
+    public void loadActiveVouchers() {
+        try {
+            List<SeckillVoucher> vouchers = queryActiveVouchers();
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            // 管道批量检查各个分段的库存 key 是否存在，只加载缺失的秒杀券
+            int segments = seckillStockSegments.getSegments();
+            List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (SeckillVoucher voucher : vouchers) {
+                    for (int i = 0; i < segments; i++) {
+                        connection.keyCommands().exists(bytes(seckillStockSegments.stockKey(voucher.getVoucherId(), i)));
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < vouchers.size(); i++) {
+                if (exists.subList(i * segments, (i + 1) * segments).stream().anyMatch(e -> !Boolean.TRUE.equals(e))) {
+                    // 下单请求可能正在加载同一秒杀券，不等待锁，下一轮再检查
+                    loadWithLock(vouchers.get(i), 0);
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载秒杀库存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 加载单个秒杀券，库存已存在时不做任何事。在下单请求中库存缺失时调用：
+     * 同一节点上并发的请求共用一次加载（本地的进行中 future），不同节点之间通过分布式锁互斥，
+     * 拿到锁后先检查库存是否已由其他节点加载，redis 被清空时不会每个请求都重新分页读取全部订单
+     * @param voucherId 秒杀券 id
+     * @return 秒杀券不存在或已结束时返回 false；等待超过 load-wait-millis 或加载失败时返回 true，
+     *         调用方重试时库存仍未加载，按服务器繁忙处理
+     */
+    public boolean loadVoucher(Long voucherId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        CompletableFuture<Boolean> loading = loadingVouchers.putIfAbsent(voucherId, future);
+        if (loading != null) {
+            return await(loading);
+        }
+        try {
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            boolean active = voucher != null && !voucher.getEndTime().isBefore(LocalDateTime.now());
+            if (active) {
+                loadWithLock(voucher, loadWaitMillis);
+            }
+            future.complete(active);
+        } catch (Exception e) {
+            log.error("加载秒杀券 {} 的库存失败: {}", voucherId, e.getMessage());
+            future.complete(true);
+        } finally {
+            loadingVouchers.remove(voucherId, future);
+        }
+        return future.join();
+    }
+
+    private boolean await(CompletableFuture<Boolean> loading) {
+        try {
+            return loading.get(loadWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 在分布式锁内加载秒杀券，拿到锁后库存已存在（其他节点刚加载完）则跳过
+     * @param waitMillis 等待锁的时间，超时则放弃本次加载
+     */
+    private void loadWithLock(SeckillVoucher voucher, long waitMillis) throws InterruptedException {
+        Long voucherId = voucher.getVoucherId();
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.SECKILL_STOCK_KEY + voucherId);
+        if (!lock.tryLock(waitMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("秒杀券 {} 正在由其他节点加载，等待超时", voucherId);
+            return;
+        }
+        try {
+            if (!isLoaded(voucherId)) {
+                load(voucher);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 各个分段的库存 key 是否都存在
+     */
+    private boolean isLoaded(Long voucherId) {
+        int segments = seckillStockSegments.getSegments();
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < segments; i++) {
+                connection.keyCommands().exists(bytes(seckillStockSegments.stockKey(voucherId, i)));
+            }
+            return null;
+        });
+        return exists.stream().allMatch(Boolean.TRUE::equals);
+    }
+
+    /**
+     * 先写已购用户集合，最后再写库存。
+     * 库存 key 不存在时 lua 脚本会拒绝下单，因此在用户集合写完之前不会出现重复下单。
+     * 分段模式下每个用户写入其所属分段的集合。
+     */
+    private void load(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        long lastId = 0;
+        int buyers = 0;
+        while (true) {
+            // 按主键分页，避免一次性加载全部订单
+            List<VoucherOrder> orders = voucherOrderService.lambdaQuery()
+                    .select(VoucherOrder::getId, VoucherOrder::getUserId)
+                    .eq(VoucherOrder::getVoucherId, voucherId)
+                    .gt(VoucherOrder::getId, lastId)
+                    .orderByAsc(VoucherOrder::getId)
+                    .last("LIMIT " + BUYER_BATCH_SIZE)
+                    .list();
+            if (orders.isEmpty()) {
+                break;
+            }
+            Map<Integer, List<byte[]>> userIds = orders.stream().collect(Collectors.groupingBy(
+                    order -> seckillStockSegments.homeSegment(order.getUserId()),
+                    Collectors.mapping(order -> bytes(order.getUserId().toString()), Collectors.toList())));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                userIds.forEach((segment, ids) -> connection.setCommands().sAdd(
+                        bytes(seckillStockSegments.orderKey(voucherId, segment)), ids.toArray(new byte[0][])));
+                return null;
+            });
+            buyers += orders.size();
+            lastId = orders.get(orders.size() - 1).getId();
+        }
+        seckillStockSegments.setStock(voucherId, voucher.getStock(), true);
+        meterRegistry.counter("seckill.stock.loaded").increment();
+        // 库存重新加载后，清除各个节点上的售罄状态
+        seckillVoucherStateCache.invalidate(voucherId);
+        log.info("秒杀券 {} 库存已加载到 redis，库存: {}，分段数: {}，已购用户: {}",
+                voucherId, voucher.getStock(), seckillStockSegments.getSegments(), buyers);
+    }
+
+    /**
+     * 对账：redis 库存应当等于数据库库存减去尚未落库的订单数。
+     * 尚未落库的订单数 = redis 已购用户数 - 数据库订单数。
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.stock.reconcile-interval-millis:60000}",
+            fixedDelayString = "${hmdp.seckill.stock.reconcile-interval-millis:60000}")
+    public void reconcile() {
+        try {
+            List<SeckillVoucher> vouchers = queryActiveVouchers();
+            removeDriftGauges(vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toSet()));
+            if (vouchers.isEmpty()) {
+                orderBacklog.set(0);
+                return;
+            }
+            // 分段模式下库存与已购用户数为各个分段之和
+            int segments = seckillStockSegments.getSegments();
+            List<Object> redisValues = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (SeckillVoucher voucher : vouchers) {
+                    for (int i = 0; i < segments; i++) {
+                        connection.stringCommands().get(bytes(seckillStockSegments.stockKey(voucher.getVoucherId(), i)));
+                        connection.setCommands().sCard(bytes(seckillStockSegments.orderKey(voucher.getVoucherId(), i)));
+                    }
+                }
+                return null;
+            });
+            Map<Long, Long> dbOrders = countOrders(vouchers.stream().map(SeckillVoucher::getVoucherId).toList());
+
+            long backlog = 0;
+            for (int i = 0; i < vouchers.size(); i++) {
+                SeckillVoucher voucher = vouchers.get(i);
+                long redisStock = 0;
+                long buyers = 0;
+                boolean loaded = true;
+                for (int j = 0; j < segments; j++) {
+                    int offset = 2 * (i * segments + j);
+                    Object stock = redisValues.get(offset);
+                    if (stock == null) {
+                        loaded = false;
+                        break;
+                    }
+                    redisStock += Long.parseLong(stock.toString());
+                    buyers += (Long) redisValues.get(offset + 1);
+                }
+                if (!loaded) {
+                    // 尚未加载，交给加载任务处理
+                    continue;
+                }
+                long inflight = Math.max(0, buyers - dbOrders.getOrDefault(voucher.getVoucherId(), 0L));
+                long drift = redisStock - (voucher.getStock() - inflight);
+                backlog += inflight;
+                driftGauge(voucher.getVoucherId()).set(drift);
+                if (drift != 0) {
+                    log.warn("秒杀券 {} 库存不一致，redis: {}，数据库: {}，未落库订单: {}，偏差: {}",
+                            voucher.getVoucherId(), redisStock, voucher.getStock(), inflight, drift);
+                }
+            }
+            orderBacklog.set(backlog);
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败: {}", e.getMessage());
+        }
+    }
+
+    private List<SeckillVoucher> queryActiveVouchers() {
+        return seckillVoucherService.lambdaQuery()
+                .gt(SeckillVoucher::getEndTime, LocalDateTime.now())
+                .list();
+    }
+
+    /**
+     * 一次 group by 查询出每个秒杀券的订单数
+     */
+    private Map<Long, Long> countOrders(List<Long> voucherIds) {
+        Map<Long, Long> counts = new HashMap<>();
+        voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                        .select("voucher_id AS voucherId", "COUNT(*) AS cnt")
+                        .in("voucher_id", voucherIds)
+                        .groupBy("voucher_id"))
+                .forEach(row -> counts.put(((Number) row.get("voucherId")).longValue(), ((Number) row.get("cnt")).longValue()));
+        return counts;
+    }
+
+    private AtomicLong driftGauge(Long voucherId) {
+        return stockDrift.computeIfAbsent(voucherId, id -> {
+            AtomicLong drift = new AtomicLong();
+            Gauge.builder("seckill.stock.drift", drift, AtomicLong::get)
+                    .description("redis 秒杀库存与数据库库存（扣除未落库订单）的偏差")
+                    .tag("voucherId", id.toString())
+                    .register(meterRegistry);
+            return drift;
+        });
+    }
+
+    /**
+     * 删除已结束的秒杀券的偏差指标，否则每个结束的秒杀券都会留下一个时间序列
+     */
+    private void removeDriftGauges(Set<Long> activeVoucherIds) {
+        stockDrift.keySet().removeIf(voucherId -> {
+            if (activeVoucherIds.contains(voucherId)) {
+                return false;
+            }
+            Gauge gauge = meterRegistry.find("seckill.stock.drift").tag("voucherId", voucherId.toString()).gauge();
+            if (gauge != null) {
+                meterRegistry.remove(gauge);
+            }
+            return true;
+        });
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
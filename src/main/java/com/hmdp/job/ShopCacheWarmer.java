@@ -0,0 +1,153 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisValueCodec;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 启动时预热商铺相关缓存
+ * <p>
+ * 发布新版本或 redis 主从切换后，商铺缓存为空，所有商铺详情请求都要走冷启动加载。本任务在启动时：
+ * 1. 按主键分页读取 tb_shop，并行序列化为逻辑过期的缓存数据，通过管道批量 SET 到 cache:redisData:cache:shop:{id}；
+ * 2. 同一批商铺按类型管道批量 GEOADD 到 shop:geo:{typeId}；
+ * 3. 加载商铺类型列表 cache:shopTypes。
+ * <P></P>
+ * 预热在 ApplicationRunner 中同步执行，开始时发布 REFUSING_TRAFFIC，Spring Boot 在所有 ApplicationRunner 执行完成后
+ * 才会发布 ACCEPTING_TRAFFIC，因此 /actuator/health/readiness 在预热完成后才会就绪。预热失败只记录日志，不影响启动。
+ * 监控指标：cache.warmup.progress{cache}（0~1）、cache.warmup.entries{cache}、cache.warmup.duration{cache}。
+ * </p>
+ */
+@Component
+@Slf4j
+public class ShopCacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private RedisCacheClient redisCacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisValueCodec redisValueCodec;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${hmdp.cache.warmup.enabled:true}")
+    private boolean enabled;
+
+    // 每批读取、写入的商铺数
+    @Value("${hmdp.cache.warmup.batch-size:1000}")
+    private int batchSize;
+
+    // 已预热的商铺数，以及商铺总数
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        AvailabilityChangeEvent.publish(applicationEventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        Gauge.builder("cache.warmup.progress", this, w -> w.total.get() == 0 ? 1.0 : (double) w.warmed.get() / w.total.get())
+                .tag("cache", "shop")
+                .register(meterRegistry);
+        Gauge.builder("cache.warmup.entries", warmed, AtomicLong::get)
+                .tag("cache", "shop")
+                .register(meterRegistry);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            warmShops();
+            shopTypeService.cacheList();
+        } catch (Exception e) {
+            log.error("商铺缓存预热失败，已预热 {}/{}，错误信息: {}", warmed.get(), total.get(), e.getMessage());
+        } finally {
+            long nanos = sample.stop(Timer.builder("cache.warmup.duration").tag("cache", "shop").register(meterRegistry));
+            log.info("商铺缓存预热结束，共 {}/{} 个商铺，耗时 {}ms", warmed.get(), total.get(), TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    private void warmShops() {
+        warmed.set(0);
+        total.set(shopService.count());
+        long lastId = 0;
+        while (true) {
+            // 按主键分页，避免一次性加载全部商铺
+            List<Shop> shops = shopService.lambdaQuery()
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            write(shops);
+            warmed.addAndGet(shops.size());
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 并行序列化一批商铺，然后在一个管道中写入详情缓存与 geo 集合
+     */
+    private void write(List<Shop> shops) {
+        Map<byte[], byte[]> values = shops.parallelStream().collect(Collectors.toMap(
+                shop -> bytes(RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY + shop.getId()),
+                shop -> redisValueCodec.encode(redisCacheClient.logicalExpireData(shop,
+                        RedisConstants.CACHE_SHOP_TTL, RedisConstants.CACHE_SHOP_TTL_TIMEUNIT))));
+        Map<Long, Map<byte[], Point>> locations = new HashMap<>();
+        for (Shop shop : shops) {
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                locations.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(bytes(shop.getId().toString()), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().set(key, value));
+            locations.forEach((typeId, members) ->
+                    connection.geoCommands().geoAdd(bytes(RedisConstants.SHOP_GEO_KEY + typeId), members));
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
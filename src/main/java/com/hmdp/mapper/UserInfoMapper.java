@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 多行 INSERT ... ON DUPLICATE KEY UPDATE 批量写入粉丝数、关注数，没有详情的用户插入一行，写入的计数不小于 0
+     * @param infos 用户 id 与计数，不能为空
+     * @return 影响的行数
+     */
+    int upsertFollowCounts(@Param("infos") List<UserInfo> infos);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -25,4 +27,14 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 热门博文，按排行分页
+     */
+    List<Blog> queryHotBlogs(Integer current);
+
+    /**
+     * 批量填充博文的作者信息与当前用户是否点赞，所有返回博文的接口都应调用
+     */
+    void enrichBlogs(List<Blog> blogs);
 }
@@ -18,5 +18,5 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
-    Result commonFollow(Long targetUserId);
+    Result commonFollow(Long targetUserId, Long lastId);
 }
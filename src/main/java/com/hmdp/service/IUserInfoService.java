@@ -13,4 +13,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+     * 查询用户详情，带 redis 缓存，粉丝数、关注数为 redis 中的实时计数
+     * @return 用户没有详情且没有计数时返回 null
+     */
+    UserInfo cachedGetUserInfoById(Long userId);
 }
@@ -2,8 +2,12 @@ package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -14,6 +18,18 @@ import com.hmdp.entity.User;
  */
 public interface IUserService extends IService<User> {
 
+    /**
+     * 查询用户公开信息，带 redis 缓存
+     * @return 用户不存在时返回 null
+     */
+    UserDTO cachedGetUserDTOById(Long id);
+
+    /**
+     * 批量查询用户公开信息，一次 MGET，未命中的用户通过一次数据库查询加载
+     * @return id -> 用户，不存在的用户不在结果中
+     */
+    Map<Long, UserDTO> cachedGetUserDTOsByIds(Collection<Long> ids);
+
     Result sign();
 
     Result signCount();
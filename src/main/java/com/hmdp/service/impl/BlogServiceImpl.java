@@ -2,28 +2,42 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
+import com.hmdp.job.FeedFanoutWorker;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.EntityBloomFilters;
+import com.hmdp.utils.FeedTimeline;
+import com.hmdp.utils.RedisCacheClient;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -43,57 +57,141 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     IUserService userService;
 
     @Resource
-    IFollowService followService;
+    RedisCacheClient redisCacheClient;
+
+    @Resource
+    RedisUtil redisUtil;
+
+    @Resource
+    EntityBloomFilters entityBloomFilters;
+
+    @Resource
+    BlogHotRanking blogHotRanking;
+
+    @Resource
+    FeedFanoutWorker feedFanoutWorker;
+
+    @Resource
+    FeedTimeline feedTimeline;
+
+    private static final DefaultRedisScript<Long> TOGGLE_LIKE_SCRIPT;
+
+    static {
+        TOGGLE_LIKE_SCRIPT = new DefaultRedisScript<>();
+        TOGGLE_LIKE_SCRIPT.setLocation(new ClassPathResource("lua/toggleBlogLike.lua"));
+        TOGGLE_LIKE_SCRIPT.setResultType(Long.class);
+    }
 
     @Override
     public Result queryBlogById(Long blogId) {
+        if (!entityBloomFilters.mightContain(EntityBloomFilters.BLOG, blogId)) {
+            return Result.fail("博文不存在");
+        }
         // 根据id查询
-        Blog one = lambdaQuery().eq(Blog::getId, blogId).one();
-        if (one == null) {
+        Blog cached = redisCacheClient.getByIdWithMutex(RedisConstants.CACHE_BLOG_KEY, blogId, Blog.class,
+                this::getById, RedisConstants.CACHE_BLOG_TTL, RedisConstants.CACHE_BLOG_TTL_TIMEUNIT);
+        if (cached == null) {
             return Result.fail("博文不存在");
         }
-        // 在查询到的博文中设置当前用户是否点赞过
-        queryBlogUser(one);
-        isBlogLiked(one);
+        // 同时等待同一次加载的请求拿到的是同一个对象，复制后再设置当前用户是否点赞过，避免互相覆盖
+        Blog one = BeanUtil.copyProperties(cached, Blog.class);
+        enrichBlogs(List.of(one));
         return Result.ok(one);
     }
 
+    /**
+     * 点赞或取消点赞。点赞用户与点赞数在 redis 中通过 lua 脚本原子地修改，点赞数由 BlogLikeFlusher 定期批量写入数据库
+     */
     @Override
     public Result likeBlog(Long blogId) {
         Long userId = UserHolder.getUser().getId();
-        String blogLikeRedisKey = RedisConstants.BLOG_LIKED_KEY + blogId;
-        Double isMember = stringRedisTemplate.opsForZSet().score(blogLikeRedisKey, userId.toString());
-        if (isMember != null) {
-            // 已经点赞，取消点赞
-            stringRedisTemplate.opsForZSet().remove(blogLikeRedisKey, userId.toString());
-            // 减少点赞数量
-            lambdaUpdate().setSql("liked = liked - 1").eq(Blog::getId, blogId).update();
-            return Result.ok("取消点赞成功");
-        } else {
-            // 未点赞，进行点赞
-            // 增加点赞数量
-            boolean success = lambdaUpdate().setSql("liked = liked + 1").eq(Blog::getId, blogId).update();
-            if (success) {
-                // 改为通过 sortedSet 存储点赞信息。 zadd key value score
-                stringRedisTemplate.opsForZSet().add(blogLikeRedisKey, userId.toString(), System.currentTimeMillis());
-                return Result.ok("点赞成功");
+        Long r = toggleLike(blogId, userId);
+        if (r == -1) {
+            // 点赞数尚未加载到 redis，从数据库加载后重试
+            Blog blog = getById(blogId);
+            if (blog == null) {
+                return Result.fail("博文不存在");
             }
-            return Result.fail("点赞失败");
+            stringRedisTemplate.opsForHash().putIfAbsent(RedisConstants.BLOG_LIKE_COUNT_KEY, blogId.toString(),
+                    String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+            r = toggleLike(blogId, userId);
         }
+        return r == 1 ? Result.ok("点赞成功") : Result.ok("取消点赞成功");
+    }
+
+    private Long toggleLike(Long blogId, Long userId) {
+        return stringRedisTemplate.execute(TOGGLE_LIKE_SCRIPT,
+                List.of(RedisConstants.BLOG_LIKED_KEY + blogId, RedisConstants.BLOG_LIKE_COUNT_KEY, RedisConstants.BLOG_LIKE_DIRTY_KEY),
+                blogId.toString(), userId.toString(), String.valueOf(System.currentTimeMillis()));
     }
 
     /**
-     * 判断当前用户是否点赞了该博文
-     * @param blog 博文
+     * 热门博文：从排行中取出一页博文 id，再通过博文缓存批量查询（一次 MGET，未命中的一次数据库查询）。
+     * 排行不存在或页码超出排行保留的范围时，按 liked 排序查询数据库，不查询总数
      */
-    public void isBlogLiked(Blog blog) {
-        UserDTO user = UserHolder.getUser();
-        if (user == null) {
+    @Override
+    public List<Blog> queryHotBlogs(Integer current) {
+        List<Long> ids = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+        List<Blog> blogs;
+        if (ids == null) {
+            blogs = query().orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false))
+                    .getRecords();
+        } else {
+            Map<Long, Blog> cached = redisCacheClient.queryAllWithPassThrough(RedisConstants.CACHE_BLOG_KEY, ids, Blog.class,
+                    misses -> listByIds(misses).stream().collect(Collectors.toMap(Blog::getId, blog -> blog)),
+                    RedisConstants.CACHE_BLOG_TTL, RedisConstants.CACHE_BLOG_TTL_TIMEUNIT);
+            blogs = ids.stream().map(cached::get).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+        // 批量查询作者与点赞状态
+        enrichBlogs(blogs);
+        return blogs;
+    }
+
+    /**
+     * 批量填充作者信息与当前用户是否点赞：
+     * 作者通过一次 MGET（未命中时一次数据库查询）获取，点赞数（HMGET）与点赞状态（每篇博文一次 ZSCORE）在一个管道中查询，
+     * 一页博文共两次 redis 往返，而不是每篇博文各查询一次用户与点赞状态。
+     * @param blogs 博文
+     */
+    @Override
+    public void enrichBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
             return;
         }
-        String key = RedisConstants.BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, user.getId().toString());
-        blog.setIsLike(score != null);
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.cachedGetUserDTOsByIds(userIds);
+        for (Blog blog : blogs) {
+            UserDTO author = users.get(blog.getUserId());
+            if (author != null) {
+                blog.setIcon(author.getIcon());
+                blog.setName(author.getNickName());
+            }
+        }
+
+        // 点赞数以 redis 为准，数据库中的值由 BlogLikeFlusher 定期更新
+        UserDTO user = UserHolder.getUser();
+        byte[] member = user == null ? null : user.getId().toString().getBytes(StandardCharsets.UTF_8);
+        byte[][] blogIds = blogs.stream().map(blog -> blog.getId().toString().getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMGet(RedisConstants.BLOG_LIKE_COUNT_KEY.getBytes(StandardCharsets.UTF_8), blogIds);
+            if (member != null) {
+                for (Blog blog : blogs) {
+                    byte[] key = (RedisConstants.BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8);
+                    connection.zSetCommands().zScore(key, member);
+                }
+            }
+            return null;
+        });
+        List<?> counts = (List<?>) results.get(0);
+        for (int i = 0; i < blogs.size(); i++) {
+            if (counts.get(i) != null) {
+                blogs.get(i).setLiked(Integer.valueOf(counts.get(i).toString()));
+            }
+            if (member != null) {
+                blogs.get(i).setIsLike(results.get(i + 1) != null);
+            }
+        }
     }
 
     /**
@@ -122,9 +220,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(userDTOS);
     }
 
+    @Override
+    public boolean save(Blog blog) {
+        boolean success = super.save(blog);
+        if (success) {
+            entityBloomFilters.add(EntityBloomFilters.BLOG, blog.getId());
+            blogHotRanking.update(List.of(new Blog().setId(blog.getId()).setLiked(0)
+                    .setCreateTime(blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime())));
+        }
+        return success;
+    }
+
     /**
-     * 存储博文，并同时将博文推送给用户的粉丝。
-     * 后者通过 redis 的 zset 实现 feed 流。
+     * 存储博文，并将博文推送给用户的粉丝。
+     * 后者通过 redis 的 zset 实现 feed 流，推送由 FeedFanoutWorker 异步分批完成，发布接口的耗时与粉丝数无关。
      * @param blog
      * @return
      */
@@ -139,17 +248,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return Result.fail("博文保存失败");
         }
 
-        // 查询
-        followService.lambdaQuery().eq(Follow::getFollowUserId, user.getId())
-                .list()
-                .forEach(follow -> {
-                    // 获取粉丝的id
-                    Long followerId = follow.getUserId();
-                    // 将博文推送给粉丝
-                    String feedKey = RedisConstants.FEED_KEY + followerId;
-                    // 使用 zset 存储，score 为当前时间戳
-                    stringRedisTemplate.opsForZSet().add(feedKey, blog.getId().toString(), System.currentTimeMillis());
-                });
+        // 提交推送任务，score 为当前时间戳
+        feedFanoutWorker.publish(blog.getId(), user.getId(), System.currentTimeMillis());
 
         return Result.ok(blog.getId());
     }
@@ -163,11 +263,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Override
     public Result queryBlogOfFollow(Long max, Integer offset) {
         Long userId = UserHolder.getUser().getId();
-        String feedKey = RedisConstants.FEED_KEY + userId;
-        // 获取当前用户的关注列表 ZREVRANGEBYSCORE key max min [WITHSCORES] [LIMIT offset count]
-        // WITHSCORES 表示同时返回成员和分数
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(feedKey, 0, max, offset, 2);
+        // 收件箱与关注的大 V 的发件箱归并，相当于对合并后的 feed 执行 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT offset 2
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedTimeline.read(userId, max, offset, 2);
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
@@ -196,12 +293,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
 
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 5.1.批量查询blog有关的用户与是否被点赞
+        enrichBlogs(blogs);
 
         // 6.封装并返回
         ScrollResult r = new ScrollResult();
@@ -212,18 +305,4 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
-    private void queryBlogUser(Blog blog) {
-        // 根据blog中的userId查询用户信息
-        Long userId = blog.getUserId();
-        if (userId != null) {
-            // 查询用户信息
-            User user = userService.getById(userId);
-            if (user != null) {
-                // 设置用户相关信息到blog对象中
-                blog.setIcon(user.getIcon());
-                blog.setName(user.getNickName());
-            }
-        }
-    }
-
 }
@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
@@ -8,15 +7,20 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowCounters;
+import com.hmdp.utils.FollowSetCache;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * <p>
@@ -35,8 +39,19 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Resource
     IUserService userService;
 
+    @Resource
+    FollowSetCache followSetCache;
+
+    @Resource
+    FollowCounters followCounters;
+
+    // 共同关注每页的用户数
+    @Value("${hmdp.follow.common-page-size:20}")
+    private int commonPageSize;
+
     /**
      * 关注或取关目标用户
+     * 先写数据库，再通过 lua 脚本原子地修改关注集合与双方的关注数、粉丝数（见 FollowCounters）
      * @param followUserId
      * @param isFollow
      * @return
@@ -44,17 +59,21 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         Long userId = UserHolder.getUser().getId();
-        String followRedisKey = RedisConstants.FOLLOW_USER_KEY + userId;
+        followCounters.prepare(userId, followUserId);
         if (isFollow) {
             // 关注
             Follow follow = new Follow();
             follow.setFollowUserId(followUserId);
             follow.setUserId(userId);
-            boolean success = save(follow);
+            boolean success;
+            try {
+                success = save(follow);
+            } catch (DuplicateKeyException e) {
+                // 唯一索引 uk_user_follow 拒绝了重复关注（例如重复提交），视为已关注
+                success = true;
+            }
             if (!success) {
                 return Result.fail("关注失败");
-            } else {
-                stringRedisTemplate.opsForSet().add(followRedisKey, followUserId.toString());
             }
         } else {
             // 取关
@@ -65,45 +84,43 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
                     .getWrapper());
             if (!success) {
                 return Result.fail("取关失败");
-            } else {
-                stringRedisTemplate.opsForSet().remove(followRedisKey, followUserId.toString());
             }
         }
+        followCounters.toggle(userId, followUserId, isFollow);
         return Result.ok("操作成功");
     }
 
     /**
      * 判断是否已关注某个用户
+     * 关注集合未加载时先从数据库加载（见 FollowSetCache），之后 SISMEMBER 的结果即为是否关注
      * @param followUserId
      * @return
      */
     @Override
     public Result isFollow(Long followUserId) {
-        Long count = lambdaQuery().eq(Follow::getUserId, UserHolder.getUser().getId())
-                .eq(Follow::getFollowUserId, followUserId)
-                .count();
-        return Result.ok(count > 0);
+        Long userId = UserHolder.getUser().getId();
+        followSetCache.ensureLoaded(userId);
+        Boolean member = stringRedisTemplate.opsForSet()
+                .isMember(RedisConstants.FOLLOW_USER_KEY + userId, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(member));
     }
 
     /**
-     * 获取当前用户和目标用户的共同关注用户
+     * 获取当前用户和目标用户的共同关注用户，按用户 id 升序分页
+     * 两个用户的关注集合在一次管道检查中确认已加载，用户信息通过一次 MGET 批量查询
      * @param targetUserId
+     * @param lastId 上一页最后一个用户的 id，查询第一页时为空
      * @return
      */
     @Override
-    public Result commonFollow(Long targetUserId) {
+    public Result commonFollow(Long targetUserId, Long lastId) {
         Long curUserId = UserHolder.getUser().getId();
-        String key1 = RedisConstants.FOLLOW_USER_KEY + curUserId;
-        String key2 = RedisConstants.FOLLOW_USER_KEY + targetUserId;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
-        if (intersect == null || intersect.isEmpty()) {
+        followSetCache.ensureLoaded(List.of(curUserId, targetUserId));
+        List<Long> ids = followSetCache.commonPage(curUserId, targetUserId, lastId == null ? 0 : lastId, commonPageSize);
+        if (ids.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
-        List<Long> ids = intersect.stream().map(Long::valueOf).toList();
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .toList();
-        return Result.ok(users);
+        Map<Long, UserDTO> users = userService.cachedGetUserDTOsByIds(ids);
+        return Result.ok(ids.stream().map(users::get).filter(Objects::nonNull).toList());
     }
 }
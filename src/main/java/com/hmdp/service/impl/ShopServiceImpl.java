@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -8,13 +7,19 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.EntityBloomFilters;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.NearCache;
+import com.hmdp.utils.RedisCacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
 import com.hmdp.utils.RedisUtil;
 import com.hmdp.utils.SystemConstants;
 import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -23,15 +28,14 @@ import org.springframework.data.redis.core.RedisCommand;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoLocation;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -55,9 +59,39 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    MeterRegistry meterRegistry;
+
+    @Resource
+    RedisCacheClient redisCacheClient;
+
+    @Resource
+    EntityBloomFilters entityBloomFilters;
+
+    @Resource
+    HotKeyDetector hotKeyDetector;
+
+    // 本地缓存的最大商铺数
+    @Value("${hmdp.cache.shop.local-maximum-size:10000}")
+    private long localMaximumSize;
 
-    private final Map<Long, ReentrantLock> locks = new ConcurrentHashMap<>();
+    // 本地缓存的过期时间，商铺更新后会通过发布订阅立即清除
+    @Value("${hmdp.cache.shop.local-ttl-seconds:5}")
+    private long localTtlSeconds;
+
+    // 商铺详情的本地缓存（L1），redis 为 L2
+    private NearCache<Shop> shopNearCache;
+
+    @PostConstruct
+    private void init() {
+        shopNearCache = new NearCache<>("shop", localMaximumSize, Duration.ofSeconds(localTtlSeconds),
+                stringRedisTemplate, redisMessageListenerContainer, meterRegistry);
+        // 商铺详情已经由 shopNearCache 缓存在本地，redis 读取不再经过热点 key 的本地缓存
+        hotKeyDetector.bypassLocal(RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY);
+    }
 
     /**
      * 通过互斥锁解决缓存击穿的问题
@@ -66,20 +100,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Shop cachedGetById(Long id) {
+        if (!entityBloomFilters.mightContain(EntityBloomFilters.SHOP, id)) {
+            return null;
+        }
         //return queryWithMutex(id);
-        return queryWithLogicDelete(id);
-    }
-
-
-    private boolean tryLock(String key) {
-        Boolean b = stringRedisTemplate.opsForValue().setIfAbsent(key, "1",
-                RedisConstants.LOCK_SHOP_TTL,
-                RedisConstants.LOCK_SHOP_TTL_TIMEUNIT);
-        return Boolean.TRUE.equals(b);
-    }
-
-    private void unlock(String key) {
-        redisUtil.delete(key);
+        return shopNearCache.get(id.toString(), key -> queryWithLogicDelete(id));
     }
 
     /**
@@ -88,115 +113,62 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return
      */
     public Shop queryWithMutex(Long id) {
-        String shopRedisKey = RedisConstants.CACHE_SHOP_KEY + id;
-
-        // 缓存命中
-        if (redisUtil.hasKey(shopRedisKey)) {
-            return redisUtil.getObject(shopRedisKey, Shop.class);
-        }
-
-        // 缓存未命中，尝试获取锁
-        String redisLockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        try {
-            if (tryLock(redisLockKey)) {
-                Shop shop = shopMapper.selectById(id);
-                if (shop == null) {
-                    // 如果数据库中没有该商铺，则设置空值缓存，防止缓存穿透
-                    redisUtil.setObject(shopRedisKey,
-                            shop,
-                            RedisConstants.CACHE_NULL_TTL,
-                            RedisConstants.CACHE_NULL_TTL_TIMEUNIT);
-                } else {
-                    redisUtil.setObject(shopRedisKey,
-                            shop,
-                            (long)(RedisConstants.CACHE_SHOP_TTL * RandomUtil.randomDouble(0.6, 1)),
-                            RedisConstants.CACHE_SHOP_TTL_TIMEUNIT);
-                }
-                return shop;
-            } else {
-                Thread.sleep(50);
-                return queryWithMutex(id); // 递归调用，直到获取到锁d
-            }
-        } catch (Exception e) {
-            log.error("获取商铺缓存失败，id: {}, 错误信息: {}", id, e.getMessage());
-            return null;
-        } finally {
-            unlock(redisLockKey);
-        }
+        return redisCacheClient.getByIdWithMutex(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, shopMapper::selectById,
+                RedisConstants.CACHE_SHOP_TTL, RedisConstants.CACHE_SHOP_TTL_TIMEUNIT);
     }
 
 
     /**
-     * 通过逻辑删除解决缓存击穿的问题
+     * 通过逻辑过期解决缓存击穿的问题，过期后返回旧数据并异步重建，缓存中没有数据时同步加载
      * @param id
-     * @return
+     * @return 商铺不存在时返回 null
      */
     public Shop queryWithLogicDelete(Long id) {
-        String redisDataKey = RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY + id;
-        RedisData targetShop = null;
-
-        // 缓存命中
-        if (redisUtil.hasKey(redisDataKey)) {
-            try {
-                targetShop = redisUtil.getObject(redisDataKey, RedisData.class);
-            } catch (Exception e) {
-                log.error("获取商铺缓存失败，id: {}, 错误信息: {}", id, e.getMessage());
-                return null;
-            }
-        }
+        return redisCacheClient.queryWithLogicalExpire(RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY,
+                id, Shop.class, shopMapper::selectById, RedisConstants.CACHE_SHOP_TTL, RedisConstants.CACHE_SHOP_TTL_TIMEUNIT);
+    }
 
-        // 检查过期时间
-        if (targetShop == null || targetShop.getExpireTime().isBefore(LocalDateTime.now())) {
-            String redisLockKey = RedisConstants.LOCK_SHOP_KEY + id;
-            if (tryLock(redisLockKey)) {
-                try {
-                    CACHE_REBUILD_EXECUTOR.submit(() -> {
-                        Shop shop = shopMapper.selectById(id);
-                        if (shop == null) {
-                            // 如果数据库中没有该商铺，则设置空值缓存，防止缓存穿透
-                            redisUtil.setObject(redisDataKey,
-                                    shop,
-                                    RedisConstants.CACHE_NULL_TTL,
-                                    RedisConstants.CACHE_NULL_TTL_TIMEUNIT);
-                        } else {
-                            RedisData redisData = new RedisData();
-                            redisData.setData(shop);
-                            redisData.setExpireTime(LocalDateTime.now().plus(RedisConstants.CACHE_SHOP_TTL,
-                                    RedisConstants.CACHE_SHOP_TTL_TIMEUNIT.toChronoUnit()));
-                            redisUtil.setObject(redisDataKey, redisData);
-                        }
-                    });
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(redisLockKey);
-                }
 
-            }
-        }
 
-        return targetShop == null ? null : (Shop) targetShop.getData();
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success) {
+            entityBloomFilters.add(EntityBloomFilters.SHOP, shop.getId());
+        }
+        return success;
     }
 
-
-
     @Override
     @Transactional
     public void cachedUpdateById(Shop shop) {
         if (shop.getId() == null) {
             return;
         }
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + shop.getId();
-        Shop cachedShop = redisUtil.getObject(shopKey, Shop.class);
-        try {
-            shopMapper.updateById(shop);
-            redisUtil.delete(shopKey);
-        } catch (Exception e) {
-            if (cachedShop != null) redisUtil.setObject(shopKey, cachedShop);
-            throw new RuntimeException(e);
+        shopMapper.updateById(shop);
+        // 事务提交后再删除缓存，避免提交前被其他请求用旧数据重建
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictShopCache(shop.getId());
+                }
+            });
+        } else {
+            evictShopCache(shop.getId());
         }
     }
 
+    /**
+     * 删除商铺在 redis 中的缓存（查询使用的是逻辑过期的 key），并通知所有节点清除本地缓存
+     */
+    private void evictShopCache(Long id) {
+        redisUtil.delete(List.of(
+                RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY + id,
+                RedisConstants.CACHE_SHOP_KEY + id));
+        shopNearCache.invalidate(id.toString());
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 判断是否需要根据坐标来查询
@@ -2,11 +2,13 @@ package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RedisCacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisUtil;
 import jakarta.annotation.Resource;
 import org.springframework.stereotype.Service;
 
@@ -28,7 +30,10 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     ShopTypeMapper shopTypeMapper;
 
     @Resource
-    RedisUtil redisUtil;
+    RedisCacheClient redisCacheClient;
+
+    @Resource
+    ObjectMapper objectMapper;
 
 
     /**
@@ -37,17 +42,9 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
      */
     @Override
     public List<ShopType> cacheList() {
-        List<ShopType> res = null;
-        if (redisUtil.hasKey(RedisConstants.CACHE_SHOP_TYPE_KEY)) {
-            res = redisUtil.getList(RedisConstants.CACHE_SHOP_TYPE_KEY, ShopType.class);
-        } else {
-            res = shopTypeMapper.selectList(Wrappers.<ShopType>lambdaQuery().orderByAsc(ShopType::getSort));
-            // cache
-            if (!res.isEmpty()) {
-                redisUtil.setObject(RedisConstants.CACHE_SHOP_TYPE_KEY, res, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-            }
-        }
-
-        return res;
+        JavaType type = objectMapper.getTypeFactory().constructCollectionType(List.class, ShopType.class);
+        return redisCacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_TYPE_KEY, type,
+                () -> shopTypeMapper.selectList(Wrappers.<ShopType>lambdaQuery().orderByAsc(ShopType::getSort)),
+                RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
     }
 }
@@ -4,6 +4,10 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.FollowCounters;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisConstants;
+import jakarta.annotation.Resource;
 import org.springframework.stereotype.Service;
 
 /**
@@ -17,4 +21,28 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private RedisCacheClient redisCacheClient;
+
+    @Resource
+    private FollowCounters followCounters;
+
+    /**
+     * 详情缓存中的粉丝数、关注数是缓存时 tb_user_info 中的值，读取时用 redis 中的计数覆盖，
+     * 计数尚未加载时 tb_user_info 中的值就是最新值
+     */
+    @Override
+    public UserInfo cachedGetUserInfoById(Long userId) {
+        UserInfo info = redisCacheClient.getByIdWithMutex(RedisConstants.CACHE_USER_INFO_KEY, userId, UserInfo.class,
+                this::getById, RedisConstants.CACHE_USER_INFO_TTL, RedisConstants.CACHE_USER_INFO_TTL_TIMEUNIT);
+        int[] counts = followCounters.get(userId);
+        if (counts == null) {
+            return info;
+        }
+        if (info == null) {
+            // 计数尚未落库，详情还没有创建
+            info = new UserInfo().setUserId(userId);
+        }
+        return info.setFans(counts[0]).setFollowee(counts[1]);
+    }
 }
@@ -1,11 +1,16 @@
 package com.hmdp.service.impl;
 
 import ch.qos.logback.classic.spi.EventArgUtil;
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.EntityBloomFilters;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
@@ -14,7 +19,10 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
 
@@ -32,6 +40,48 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    RedisCacheClient redisCacheClient;
+
+    @Resource
+    EntityBloomFilters entityBloomFilters;
+
+    @Override
+    public boolean save(User user) {
+        boolean success = super.save(user);
+        if (success) {
+            entityBloomFilters.add(EntityBloomFilters.USER, user.getId());
+        }
+        return success;
+    }
+
+    /**
+     * 查询用户公开信息，只缓存 UserDTO，不把手机号、密码等字段写入 redis
+     */
+    @Override
+    public UserDTO cachedGetUserDTOById(Long id) {
+        if (!entityBloomFilters.mightContain(EntityBloomFilters.USER, id)) {
+            return null;
+        }
+        return redisCacheClient.getByIdWithMutex(RedisConstants.CACHE_USER_KEY, id, UserDTO.class,
+                userId -> {
+                    User user = getById(userId);
+                    return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+                },
+                RedisConstants.CACHE_USER_TTL, RedisConstants.CACHE_USER_TTL_TIMEUNIT);
+    }
+
+    /**
+     * 批量查询的 id 来自数据库中的关联字段而不是请求参数，不经过布隆过滤器（每个 id 一次 redis 往返），由空值缓存兜底
+     */
+    @Override
+    public Map<Long, UserDTO> cachedGetUserDTOsByIds(Collection<Long> ids) {
+        return redisCacheClient.queryAllWithPassThrough(RedisConstants.CACHE_USER_KEY, ids, UserDTO.class,
+                misses -> listByIds(misses).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                RedisConstants.CACHE_USER_TTL, RedisConstants.CACHE_USER_TTL_TIMEUNIT);
+    }
+
     /**
      * 用户签到
      * @return
@@ -5,34 +5,44 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.job.SeckillStockLoader;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherStateCache;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VirtualThreads;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * <p>
@@ -64,6 +74,16 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     RedissonClient redissonClient;
 
+    @Resource
+    @Lazy
+    SeckillStockLoader seckillStockLoader;
+
+    @Resource
+    SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    SeckillVoucherStateCache seckillVoucherStateCache;
+
     // 秒杀订单 Lua 脚本
     // 脚本检查了库存、一人一单，如有资格则还会在 redis 中对相应的用户和订单进行标记，
     private static final DefaultRedisScript<Long> SECKILL_VOUCHER_ORDER_SCRIPT;
@@ -76,38 +96,81 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 确认能够下单后，会将订单信息放入阻塞队列中，后续会有单独的线程来处理这些订单
     private ArrayBlockingQueue<VoucherOrder> voucherOrderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
+    // 每个节点上的消费者数量，每个消费者独占一个线程
+    @Value("${hmdp.seckill.order.consumers:4}")
+    private int consumerCount;
+
+    // 每次 XREADGROUP 最多拉取的订单数，也是一次批量落库的订单数上限
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    // XREADGROUP 的阻塞等待时间
+    @Value("${hmdp.seckill.order.block-millis:2000}")
+    private long blockMillis;
+
+    // 是否使用虚拟线程运行消费者，Java 21 以下忽略
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
     // 处理下单任务的线程池
-    private static ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
+
+    // 一人一单的本地锁，按用户 id 分段。使用 ReentrantLock 而不是 synchronized，虚拟线程在锁内阻塞时不会占住载体线程
+    private static final int USER_LOCK_STRIPES = 256;
+    private final ReentrantLock[] userLocks = Stream.generate(ReentrantLock::new)
+            .limit(USER_LOCK_STRIPES)
+            .toArray(ReentrantLock[]::new);
+
+    private volatile boolean running = true;
+
     @PostConstruct
     private void init() {
-        // 启动处理订单的线程
-        SECKILL_ORDER_EXECUTOR.submit(new SeckillOrderHandler());
+        createConsumerGroupIfAbsent();
+        // 启动处理订单的线程，消费者名称形如 pid@host-0，保证集群内唯一
+        String nodeName = ManagementFactory.getRuntimeMXBean().getName();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount,
+                VirtualThreads.threadFactory("seckill-order-", virtualThreads));
+        for (int i = 0; i < consumerCount; i++) {
+            seckillOrderExecutor.submit(new SeckillOrderHandler(nodeName + "-" + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdownNow();
+    }
+
+    /**
+     * 创建订单消费者组，stream 不存在时一并创建（MKSTREAM）
+     */
+    private void createConsumerGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8),
+                    RedisConstants.SECKILL_ORDER_GROUP,
+                    ReadOffset.from("0"),
+                    true));
+        } catch (Exception e) {
+            // BUSYGROUP：消费者组已存在
+            log.debug("订单消费者组已存在: {}", e.getMessage());
+        }
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1.查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        if (voucher == null) {
-            return Result.fail("优惠卷不存在");
-        }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀尚未开始！");
-        }
-        // 3.判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀已经结束！");
-        }
-        // 4.判断库存是否充足
-        if (voucher.getStock() < 1) {
-            // 库存不足
-            return Result.fail("库存不足！");
+        // 1.判断秒杀券是否存在、秒杀是否开始或结束、是否已售罄，活动时间缓存在本地，不必每次查询数据库
+        String reason = seckillVoucherStateCache.check(voucherId);
+        if (reason != null) {
+            return Result.fail(reason);
         }
 
-        return createVoucherWithRedissonLock(voucherId);
+        // 2.库存是否充足由扣减库存的 sql 判断
+        Result result = createVoucherWithRedissonLock(voucherId);
+        if (!result.getSuccess() && "库存不足！".equals(result.getErrorMsg())) {
+            seckillVoucherStateCache.markSoldOut(voucherId);
+        }
+        return result;
     }
 
     /**
@@ -117,22 +180,30 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucherAsync(Long voucherId) {
+        // 1.已售罄或不在活动时间内的请求直接在本地拒绝
+        String reason = seckillVoucherStateCache.check(voucherId);
+        if (reason != null) {
+            return Result.fail(reason);
+        }
+
         Long userId = UserHolder.getUser().getId();
         long orderId = redisIdWorker.nextId("order");
 
-        // 这个脚本实现了判断库存和一人一单的逻辑
-        // 判断成功后还会减扣库存，记录用户和订单的关系
-        // 最后还会将订单信息放入阻塞队列中，等待后续处理
-        Long result = stringRedisTemplate.execute(
-                SECKILL_VOUCHER_ORDER_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
-        int r = result.intValue();
+        int r = reserve(voucherId, userId, orderId);
+        if (r == 3) {
+            // 库存尚未加载到 redis，同步加载后重试一次
+            if (!seckillStockLoader.loadVoucher(voucherId)) {
+                return Result.fail("秒杀券不存在或活动已结束");
+            }
+            r = reserve(voucherId, userId, orderId);
+        }
         // 2.判断结果是否为0
         if (r != 0) {
             // 2.1.不为0 ，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            if (r == 1) {
+                seckillVoucherStateCache.markSoldOut(voucherId);
+            }
+            return Result.fail(r == 1 ? "库存不足" : r == 2 ? "不能重复下单" : "服务器繁忙，请稍后再试");
         }
 
         // TODO 将订单任务提交到任务队列
@@ -163,6 +234,41 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
     }
 
+    /**
+     * 在 redis 中判断库存和一人一单，成功后扣减库存、记录用户的购买资格，并把订单发送到 stream.orders
+     * @return 0 成功，1 库存不足，2 重复下单，3 库存尚未加载到 redis
+     */
+    private int reserve(Long voucherId, Long userId, long orderId) {
+        if (!seckillStockSegments.isSegmented()) {
+            // 这个脚本实现了判断库存和一人一单的逻辑
+            // 判断成功后还会减扣库存，记录用户和订单的关系
+            // 最后还会将订单信息放入消息队列中，等待后续处理
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_VOUCHER_ORDER_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            return result.intValue();
+        }
+        // 分段模式下库存分布在不同的 slot 上，无法在同一个脚本中发送消息，扣减成功后再单独发送
+        SeckillStockSegments.Reservation reservation = seckillStockSegments.reserve(voucherId, userId);
+        if (reservation.result() != SeckillStockSegments.SUCCESS) {
+            return reservation.result();
+        }
+        try {
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_STREAM, Map.of(
+                    "userId", userId.toString(),
+                    "voucherId", voucherId.toString(),
+                    "id", String.valueOf(orderId)
+            ));
+        } catch (RuntimeException e) {
+            // 消息发送失败，归还库存和购买资格
+            seckillStockSegments.release(voucherId, userId, reservation);
+            throw e;
+        }
+        return SeckillStockSegments.SUCCESS;
+    }
+
     /**
      * 为当前用户创建订单，且保证一人一单，能够原子性地扣减库存，防止超卖
      * 使用本地锁
@@ -172,8 +278,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private Result creatVoucherWithLock(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
         // 锁住用户 ID，防止多线程下同一用户重复购买
-        synchronized (userId.toString().intern()) {
+        ReentrantLock lock = userLocks[Math.floorMod(userId.hashCode(), USER_LOCK_STRIPES)];
+        lock.lock();
+        try {
             return voucherOrderServiceImpl.createVoucherOrder(voucherId);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -294,100 +404,225 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         log.info("成功处理订单: {}", voucherOrder);
     }
 
+    /**
+     * 批量创建订单(事务方法）
+     * <p>一人一单校验合并为一次查询，库存按优惠券聚合为一条 stock = stock - k，订单通过多行 INSERT 一次写入。</p>
+     * @param voucherOrders 从消息队列中读取的一批订单
+     * @return 实际写入的订单数
+     */
+    @Transactional
+    public int createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 批次内去重：同一用户对同一优惠券只保留第一条（消息被重复投递时会出现）
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            unique.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+        }
+        if (unique.isEmpty()) {
+            return 0;
+        }
+
+        // 一人一单：一次查询出本批次中已经落库的 (用户, 优惠券)
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        unique.values().forEach(order -> {
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
+        });
+        lambdaQuery()
+                .select(VoucherOrder::getUserId, VoucherOrder::getVoucherId)
+                .in(VoucherOrder::getUserId, userIds)
+                .in(VoucherOrder::getVoucherId, voucherIds)
+                .list()
+                .forEach(existed -> {
+                    VoucherOrder removed = unique.remove(existed.getUserId() + ":" + existed.getVoucherId());
+                    if (removed != null) {
+                        log.error("用户尝试 {} 重复下单，优惠券信息: {}", removed.getUserId(), removed);
+                    }
+                });
+
+        // 扣减库存：每个优惠券只执行一次 update
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            int k = orders.size();
+            boolean success = seckillVoucherService.lambdaUpdate()
+                    .setSql("stock = stock - " + k)
+                    .eq(SeckillVoucher::getVoucherId, voucherId)
+                    .ge(SeckillVoucher::getStock, k)      // 防止超卖
+                    .update();
+            if (success) {
+                toSave.addAll(orders);
+                return;
+            }
+            // 库存不足以满足整批时，退化为逐条扣减，能扣多少扣多少
+            for (VoucherOrder order : orders) {
+                boolean one = seckillVoucherService.lambdaUpdate()
+                        .setSql("stock = stock -1")
+                        .eq(SeckillVoucher::getVoucherId, voucherId)
+                        .gt(SeckillVoucher::getStock, 0)
+                        .update();
+                if (!one) {
+                    log.error("库存不足，无法处理订单: {}", order);
+                    continue;
+                }
+                toSave.add(order);
+            }
+        });
+
+        // 创建订单
+        if (toSave.isEmpty()) {
+            return 0;
+        }
+        int rows = getBaseMapper().insertBatch(toSave);
+        log.info("成功批量处理订单 {} 条", rows);
+        return rows;
+    }
+
+    /**
+     * 批量落库一批订单消息并批量 XACK。
+     * 整批落库失败时（例如与其他消费者并发处理了同一条消息），退化为逐条处理，只确认处理成功的消息；
+     * 处理失败的消息留在 pending list 中，并记录失败原因，由 {@link com.hmdp.job.SeckillOrderReclaimer} 负责重新投递或转入死信队列。
+     * @param records 订单消息
+     * @throws Exception 存在处理失败的消息时，抛出最后一个异常
+     */
+    public void handleOrderRecords(List<? extends MapRecord<String, ?, ?>> records) throws Exception {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        try {
+            voucherOrderServiceImpl.createVoucherOrderBatch(orders);
+            acknowledge(records);
+            return;
+        } catch (Exception e) {
+            log.error("批量处理订单失败，改为逐条处理: {}", e.getMessage());
+        }
+
+        List<MapRecord<String, ?, ?>> done = new ArrayList<>(records.size());
+        Exception lastError = null;
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                processVoucherOrder(orders.get(i));
+                done.add(records.get(i));
+            } catch (Exception e) {
+                lastError = e;
+                // 记录失败原因，转入死信队列时一并带上
+                stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_ORDER_FAILURE_KEY,
+                        records.get(i).getId().getValue(), String.valueOf(e.getMessage()));
+            }
+        }
+        acknowledge(done);
+        if (lastError != null) {
+            throw lastError;
+        }
+    }
+
+    private void acknowledge(List<? extends MapRecord<String, ?, ?>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, ids);
+        stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ORDER_FAILURE_KEY,
+                records.stream().map(record -> record.getId().getValue()).toArray());
+    }
+
+    private void processVoucherOrder(VoucherOrder voucherOrder) throws Exception {
+        // 获取用户ID
+        Long userId = voucherOrder.getUserId();
+        // 获取锁对象
+        RLock lock = redissonClient.getLock("lock:" + RedisConstants.SECKILL_ORDER_KEY + userId);
+        // 尝试获取锁
+        boolean isLock = lock.tryLock();
+        // 判断锁是否获取成功
+        if (!isLock) {
+            log.error("用户尝试重复下单");
+            throw new Exception("请勿重复下单");
+        }
+        try {
+            voucherOrderServiceImpl.createVoucherOrder(voucherOrder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private class SeckillOrderHandler implements Runnable {
 
+        // 消费者名称，在消费者组内唯一
+        private final String consumerName;
+
+        SeckillOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
-            //while (true) {
-            //    try {
-            //        // 从阻塞队列中获取订单
-            //        VoucherOrder voucherOrder = voucherOrderTasks.take();
-            //        // 处理订单
-            //        processVoucherOrder(voucherOrder);
-            //    } catch (InterruptedException e) {
-            //        Thread.currentThread().interrupt(); // 恢复中断状态
-            //        break; // 退出循环
-            //    } catch (Exception e) {
-            //        e.printStackTrace(); // 处理异常
-            //    }
-            //}
-
-            // TODO 监听 redis 消息队列
-            while (true) {
+            // 启动时先处理上次退出时遗留在自己 pending list 中的订单
+            handlePendingList();
+            while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    // 获取订单
+                    // 批量获取订单
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
+                            Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed())
                     );
                     if (list == null || list.isEmpty()) {
                         // 没有订单，继续等待
                         continue;
                     }
-                    // 解析数据
-                    MapRecord<String, Object, Object> entries = list.get(0);
-                    Map<Object, Object> value = entries.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 处理订单
-                    processVoucherOrder(voucherOrder);
-                    // 确认订单处理情况
-                    stringRedisTemplate.opsForStream().acknowledge("stream.orders", "g1", entries.getId());
+                    // 处理订单并确认
+                    handleOrderRecords(list);
                 } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
                     log.error("处理订单失败: {}", e.getMessage());
                     handlePendingList();
+                    backoff();
                 }
             }
         }
 
+        /**
+         * 遍历一遍自己的 pending list。
+         * 每条消息每轮只尝试一次，处理失败的消息留给回收任务按投递次数重试或转入死信队列，不会在这里原地死循环。
+         */
         private void handlePendingList() {
-            while (true) {
+            String lastId = "0";
+            while (running) {
+                List<MapRecord<String, Object, Object>> pendingList;
                 try {
-                    // 获取 pending list 中的订单
-                    List<MapRecord<String, Object, Object>> pendingList = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
+                    // 获取 pending list 中 lastId 之后的订单
+                    pendingList = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.from(lastId))
                     );
-                    if (pendingList == null || pendingList.isEmpty()) {
-                        // 没有待处理的订单，退出循环
-                        break;
-                    }
-                    // 处理每个订单
-                    for (MapRecord<String, Object, Object> record : pendingList) {
-                        Map<Object, Object> value = record.getValue();
-                        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                        processVoucherOrder(voucherOrder);
-                        // 确认订单处理情况
-                        stringRedisTemplate.opsForStream().acknowledge("stream.orders", "g1", record.getId());
-                    }
+                } catch (Exception e) {
+                    log.error("读取 pending list 失败: {}", e.getMessage());
+                    return;
+                }
+                if (pendingList == null || pendingList.isEmpty()) {
+                    // 没有待处理的订单，退出循环
+                    return;
+                }
+                try {
+                    handleOrderRecords(pendingList);
                 } catch (Exception e) {
                     log.error("处理 pending list 失败: {}", e.getMessage());
-                    try {
-                        Thread.sleep(20);
-                    } catch (Exception ex) {
-                        log.error("线程休眠异常: {}", ex.getMessage());
-                    }
                 }
+                lastId = pendingList.get(pendingList.size() - 1).getId().getValue();
             }
         }
 
-        private void processVoucherOrder(VoucherOrder voucherOrder) throws Exception {
-            // 获取用户ID
-            Long userId = voucherOrder.getUserId();
-            // 获取锁对象
-            RLock lock = redissonClient.getLock("lock:" + RedisConstants.SECKILL_ORDER_KEY + userId);
-            // 尝试获取锁
-            boolean isLock = lock.tryLock();
-            // 判断锁是否获取成功
-            if (!isLock) {
-                log.error("用户尝试重复下单");
-                throw new Exception("请勿重复下单");
-            }
+        private void backoff() {
             try {
-                voucherOrderServiceImpl.createVoucherOrder(voucherOrder);
-            } finally {
-                lock.unlock();
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
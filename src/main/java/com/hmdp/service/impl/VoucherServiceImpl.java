@@ -8,9 +8,10 @@ import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherStateCache;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
 import org.springframework.stereotype.Service;
@@ -36,6 +37,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private RedisUtil redisUtil;
 
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    private SeckillVoucherStateCache seckillVoucherStateCache;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -57,8 +64,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 将秒杀券库存存入 Redis
-        redisUtil.set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 将秒杀券库存存入 Redis，分段模式下会拆分到各个分段
+        seckillStockSegments.setStock(voucher.getId(), voucher.getStock(), false);
+        // 秒杀券 id 是连续的，新建之前可能已有请求探测过该 id，清除各个节点上缓存的"不存在"
+        seckillVoucherStateCache.invalidate(voucher.getId());
     }
 
 
@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 热门博文排行
+ * <p>
+ * 排行保存在 zset blog:hot 中，member 为博文 id，只保留分数最高的 max-size 篇，/blog/hot 直接按排名分页，
+ * 不再对 tb_blog 执行 ORDER BY liked（liked 上没有索引，每页都要全表排序）与 COUNT(*)。
+ * 分数由点赞数落库任务在点赞数变化时更新，新博文保存时加入排行；启动时排行不存在则从数据库重建。
+ * 运行中排行丢失（如被删除、redis 重启）时，分页查询或更新分数发现排行不存在会在后台重建（同一时间只有一个节点执行），
+ * 重建完成前从数据库查询。更新分数在 lua 脚本中先检查排行是否存在再写入，不会生成只含少数博文的排行。
+ * <P></P>
+ * 分数有两种算法，由 hmdp.blog.hot.mode 决定：
+ * likes：分数为点赞数；
+ * decay：点赞数随时间指数衰减，每过 half-life-hours 小时减半，即 (liked + 1) * 2^(-age / halfLife)。
+ * 取对数后分数为 log2(liked + 1) + createTime / halfLife，排序结果相同，且与当前时间无关，
+ * 只需在点赞数变化时更新该博文的分数，不需要定期重算全部博文。
+ * </p>
+ */
+@Component
+@Slf4j
+public class BlogHotRanking implements ApplicationRunner {
+
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT;
+
+    static {
+        UPDATE_SCRIPT = new DefaultRedisScript<>();
+        UPDATE_SCRIPT.setLocation(new ClassPathResource("lua/updateBlogHot.lua"));
+        UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    // 后台重建排行的线程
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "blog-hot-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 本节点是否已提交后台重建，避免排行不存在期间每个请求都提交一次
+    private final AtomicBoolean rebuildSubmitted = new AtomicBoolean();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 分数算法：likes 或 decay
+    @Value("${hmdp.blog.hot.mode:likes}")
+    private String mode;
+
+    // decay 算法的半衰期
+    @Value("${hmdp.blog.hot.half-life-hours:24}")
+    private double halfLifeHours;
+
+    // 排行保留的博文数，更靠后的页从数据库查询
+    @Value("${hmdp.blog.hot.max-size:10000}")
+    private int maxSize;
+
+    // 重建时每批读取的博文数
+    @Value("${hmdp.blog.hot.rebuild-batch-size:5000}")
+    private int rebuildBatchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY))) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("热门博文排行重建失败，热门博文从数据库查询，错误信息: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdown();
+    }
+
+    /**
+     * 计算博文的分数
+     */
+    public double score(long liked, LocalDateTime createTime) {
+        if (!isDecay()) {
+            return liked;
+        }
+        long seconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+        return Math.log(liked + 1) / Math.log(2) + seconds / (halfLifeHours * 3600);
+    }
+
+    /**
+     * 按排名分页查询博文 id
+     * @param current 页码，从 1 开始
+     * @return 排行不存在或页码超出保留的范围时返回 null，应从数据库查询
+     */
+    public List<Long> page(int current, int size) {
+        long start = (long) (current - 1) * size;
+        if (start + size > maxSize) {
+            return null;
+        }
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.BLOG_HOT_KEY, start, start + size - 1);
+        if (ids == null || ids.isEmpty()) {
+            // 区分排行不存在与已到最后一页
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY))) {
+                return List.of();
+            }
+            rebuildAsync();
+            return null;
+        }
+        return ids.stream().map(Long::valueOf).toList();
+    }
+
+    /**
+     * 更新博文的分数，排行不存在时不写入，在后台重建（重建时读取最新的点赞数）
+     * @param blogs 博文，需要 id 与 liked，decay 算法还需要 createTime，为空时从数据库查询
+     */
+    public void update(Collection<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Collection<Blog> scored = withCreateTime(blogs);
+        List<String> args = new ArrayList<>(scored.size() * 2 + 1);
+        args.add(String.valueOf(maxSize));
+        for (Blog blog : scored) {
+            long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+            args.add(String.valueOf(score(liked, blog.getCreateTime())));
+            args.add(blog.getId().toString());
+        }
+        Long updated = stringRedisTemplate.execute(UPDATE_SCRIPT, List.of(RedisConstants.BLOG_HOT_KEY), args.toArray());
+        if (updated != null && updated == 0) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * 在后台重建排行，本节点已提交时忽略，其他节点正在重建时 rebuild 直接返回
+     */
+    public void rebuildAsync() {
+        if (!rebuildSubmitted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    log.error("热门博文排行重建失败，热门博文从数据库查询，错误信息: {}", e.getMessage());
+                } finally {
+                    rebuildSubmitted.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中
+            rebuildSubmitted.set(false);
+        }
+    }
+
+    /**
+     * 从数据库重建排行：按主键分页读取博文，写入临时 key 并只保留前 max-size 篇，完成后替换排行。
+     * 点赞数以 redis 中尚未落库的值为准
+     */
+    public void rebuild() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            String tempKey = RedisConstants.BLOG_HOT_KEY + ":rebuilding";
+            stringRedisTemplate.delete(tempKey);
+            long lastId = 0;
+            long total = 0;
+            while (true) {
+                List<Blog> blogs = blogMapper.selectList(Wrappers.<Blog>lambdaQuery()
+                        .select(Blog::getId, Blog::getLiked, Blog::getCreateTime)
+                        .gt(Blog::getId, lastId)
+                        .orderByAsc(Blog::getId)
+                        .last("LIMIT " + rebuildBatchSize));
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                List<Object> counts = stringRedisTemplate.opsForHash().multiGet(RedisConstants.BLOG_LIKE_COUNT_KEY,
+                        blogs.stream().map(blog -> (Object) blog.getId().toString()).toList());
+                for (int i = 0; i < blogs.size(); i++) {
+                    if (counts.get(i) != null) {
+                        blogs.get(i).setLiked(Integer.valueOf(counts.get(i).toString()));
+                    }
+                }
+                add(tempKey, blogs);
+                total += blogs.size();
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            if (total == 0) {
+                // redis 中不存在空的 zset，没有博文时排行不存在，从数据库查询
+                return;
+            }
+            stringRedisTemplate.rename(tempKey, RedisConstants.BLOG_HOT_KEY);
+            log.info("热门博文排行重建完成，共 {} 篇博文，耗时 {}ms", total, System.currentTimeMillis() - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在一个管道中写入分数，并删除排在 max-size 之后的博文
+     */
+    private void add(String key, Collection<Blog> blogs) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                connection.zSetCommands().zAdd(rawKey, score(liked, blog.getCreateTime()),
+                        blog.getId().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            connection.zSetCommands().zRemRange(rawKey, 0, -(maxSize + 1L));
+            return null;
+        });
+    }
+
+    /**
+     * decay 算法需要创建时间，缺少时从数据库批量查询
+     */
+    private Collection<Blog> withCreateTime(Collection<Blog> blogs) {
+        if (!isDecay()) {
+            return blogs;
+        }
+        List<Long> missing = blogs.stream().filter(blog -> blog.getCreateTime() == null).map(Blog::getId).toList();
+        if (missing.isEmpty()) {
+            return blogs;
+        }
+        Map<Long, LocalDateTime> createTimes = blogMapper.selectList(Wrappers.<Blog>lambdaQuery()
+                        .select(Blog::getId, Blog::getCreateTime)
+                        .in(Blog::getId, missing))
+                .stream()
+                .collect(Collectors.toMap(Blog::getId, Blog::getCreateTime));
+        List<Blog> result = new ArrayList<>(blogs.size());
+        for (Blog blog : blogs) {
+            LocalDateTime createTime = blog.getCreateTime() != null ? blog.getCreateTime() : createTimes.get(blog.getId());
+            if (createTime != null) {
+                result.add(new Blog().setId(blog.getId()).setLiked(blog.getLiked()).setCreateTime(createTime));
+            }
+        }
+        return result;
+    }
+
+    private boolean isDecay() {
+        return "decay".equalsIgnoreCase(mode);
+    }
+}
@@ -0,0 +1,260 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商铺、博文、用户 id 的布隆过滤器，用于防止缓存穿透
+ * <p>
+ * 随机或恶意的 id 每次都会穿透到数据库，并在 redis 中留下一个空值缓存。查询前先判断布隆过滤器，
+ * 一定不存在的 id 直接返回，不再读写缓存、不再查询数据库。
+ * <P></P>
+ * 过滤器使用 Redisson RBloomFilter，所有节点共用。启动时如果过滤器不存在，则从数据库分页读取全部 id 构建；
+ * 新增数据时通过 {@link #add(String, Long)} 写入。过滤器不支持删除，需要时通过 actuator 端点 bloomfilter 重建：
+ * 新过滤器以新的版本号构建完成后再切换 bloom:{entity} 中记录的当前版本，旧过滤器延迟过期，重建期间查询不受影响。
+ * 过滤器不可用（尚未构建、redis 异常）时放行，由空值缓存兜底。
+ * </p>
+ */
+@Component
+@Slf4j
+public class EntityBloomFilters implements ApplicationRunner {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+    public static final String USER = "user";
+
+    // 每次从数据库读取的 id 数
+    private static final int ID_BATCH_SIZE = 5000;
+
+    // 切换版本后旧过滤器的保留时间，需大于 refresh-interval-millis
+    private static final Duration RETIRED_FILTER_TTL = Duration.ofMinutes(5);
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    // 每个过滤器的最小预期元素数，实际取数据量的 2 倍与该值中的较大者
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    // 误判率
+    @Value("${hmdp.bloom.false-probability:0.01}")
+    private double falseProbability;
+
+    // entity -> 当前版本的过滤器
+    private final Map<String, RBloomFilter<Long>> filters = new ConcurrentHashMap<>();
+
+    private Map<String, BaseMapper<?>> mappers() {
+        Map<String, BaseMapper<?>> mappers = new LinkedHashMap<>();
+        mappers.put(SHOP, shopMapper);
+        mappers.put(BLOG, blogMapper);
+        mappers.put(USER, userMapper);
+        return mappers;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        for (String entity : mappers().keySet()) {
+            try {
+                if (!refresh(entity)) {
+                    rebuild(entity);
+                }
+            } catch (Exception e) {
+                log.error("初始化布隆过滤器失败，entity: {}, 错误信息: {}", entity, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * id 是否可能存在
+     * @return false 表示一定不存在
+     */
+    public boolean mightContain(String entity, Long id) {
+        if (!enabled || id == null) {
+            return true;
+        }
+        RBloomFilter<Long> filter = filters.get(entity);
+        if (filter == null) {
+            return true;
+        }
+        try {
+            return filter.contains(id);
+        } catch (Exception e) {
+            log.warn("查询布隆过滤器失败，entity: {}, 错误信息: {}", entity, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 新增数据后写入 id。直接读取 redis 中的当前版本，保证重建切换后不会写入旧过滤器
+     */
+    public void add(String entity, Long id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        try {
+            String name = stringRedisTemplate.opsForValue().get(RedisConstants.BLOOM_FILTER_KEY + entity);
+            if (name != null) {
+                redissonClient.<Long>getBloomFilter(name, LongCodec.INSTANCE).add(id);
+            }
+        } catch (Exception e) {
+            log.error("写入布隆过滤器失败，entity: {}, id: {}, 错误信息: {}", entity, id, e.getMessage());
+        }
+    }
+
+    /**
+     * 定期读取各个过滤器的当前版本，其他节点重建后切换到新的过滤器
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.refresh-interval-millis:30000}",
+            fixedDelayString = "${hmdp.bloom.refresh-interval-millis:30000}")
+    public void refreshAll() {
+        if (!enabled) {
+            return;
+        }
+        mappers().keySet().forEach(this::refresh);
+    }
+
+    /**
+     * @return 过滤器是否已经构建
+     */
+    private boolean refresh(String entity) {
+        String name = stringRedisTemplate.opsForValue().get(RedisConstants.BLOOM_FILTER_KEY + entity);
+        if (name == null) {
+            filters.remove(entity);
+            return false;
+        }
+        RBloomFilter<Long> current = filters.get(entity);
+        if (current == null || !current.getName().equals(name)) {
+            filters.put(entity, redissonClient.getBloomFilter(name, LongCodec.INSTANCE));
+        }
+        return true;
+    }
+
+    /**
+     * 从数据库重建过滤器，同一时间只有一个节点执行
+     * @return 写入的 id 数，其他节点正在重建时返回 -1
+     */
+    public long rebuild(String entity) {
+        BaseMapper<?> mapper = mappers().get(entity);
+        if (mapper == null) {
+            throw new IllegalArgumentException("未知的布隆过滤器: " + entity);
+        }
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_KEY + RedisConstants.BLOOM_FILTER_KEY + entity);
+        if (!lock.tryLock()) {
+            return -1;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Long count = mapper.selectCount(null);
+            long expected = Math.max(expectedInsertions, count == null ? 0 : count * 2);
+            String name = RedisConstants.BLOOM_FILTER_KEY + entity + ":" + begin;
+            RBloomFilter<Long> filter = redissonClient.getBloomFilter(name, LongCodec.INSTANCE);
+            filter.tryInit(expected, falseProbability);
+
+            long[] lastId = {0L};
+            long added = addIds(mapper, filter, lastId);
+
+            // 切换到新版本，旧过滤器延迟过期，其他节点在下次刷新前仍可使用
+            String pointerKey = RedisConstants.BLOOM_FILTER_KEY + entity;
+            String old = stringRedisTemplate.opsForValue().getAndSet(pointerKey, name);
+            if (old != null && !old.equals(name)) {
+                redissonClient.getBloomFilter(old, LongCodec.INSTANCE).expire(RETIRED_FILTER_TTL);
+            }
+            filters.put(entity, filter);
+            // 扫描期间新增、写入了旧过滤器的 id
+            added += addIds(mapper, filter, lastId);
+
+            log.info("布隆过滤器 {} 重建完成，写入 {} 个 id，预期容量 {}，误判率 {}，耗时 {}ms",
+                    name, added, expected, falseProbability, System.currentTimeMillis() - begin);
+            return added;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按 id 分页读取 lastId 之后的全部 id 写入过滤器
+     */
+    private long addIds(BaseMapper<?> mapper, RBloomFilter<Long> filter, long[] lastId) {
+        long added = 0;
+        while (true) {
+            List<Long> ids = selectIds(mapper, lastId[0]);
+            if (ids.isEmpty()) {
+                return added;
+            }
+            filter.add(ids);
+            added += ids.size();
+            lastId[0] = ids.get(ids.size() - 1);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Long> selectIds(BaseMapper mapper, long lastId) {
+        QueryWrapper wrapper = new QueryWrapper<>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + ID_BATCH_SIZE);
+        List<Object> ids = mapper.selectObjs(wrapper);
+        return ids.stream().map(id -> ((Number) id).longValue()).toList();
+    }
+
+    /**
+     * 各个过滤器的当前状态
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        for (String entity : mappers().keySet()) {
+            RBloomFilter<Long> filter = filters.get(entity);
+            if (filter == null) {
+                status.put(entity, null);
+                continue;
+            }
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", filter.getName());
+            info.put("expectedInsertions", filter.getExpectedInsertions());
+            info.put("falseProbability", filter.getFalseProbability());
+            info.put("count", filter.count());
+            status.put(entity, info);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 关注的博文（feed 流）的读取，推拉结合
+ * <p>
+ * 普通作者发布博文时推送到每个粉丝的收件箱 feed:{userId}；粉丝数达到 big-author-followers 的作者（大 V）
+ * 只写入自己的发件箱 feed:outbox:{authorId}，并记录在集合 feed:big-authors 中（见 FeedFanoutWorker）。
+ * 读取时，收件箱与关注的大 V 的发件箱（follow:{userId} 与 feed:big-authors 的交集，关注集合未加载时先从数据库加载）在一个管道中按时间倒序各取一页，
+ * 再多路归并，游标（minTime、offset）的含义与只读收件箱时相同。
+ * 收件箱与发件箱都只保留最近的 inbox-max-size / outbox-max-size 条。
+ * </p>
+ */
+@Component
+public class FeedTimeline {
+
+    // 同一时间戳的博文按 id 的字符串倒序排列，与 ZREVRANGEBYSCORE 的顺序一致
+    private static final Comparator<ZSetOperations.TypedTuple<String>> NEWEST_FIRST =
+            Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore, Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowSetCache followSetCache;
+
+    // 粉丝数达到该值的作者只写发件箱，不推送
+    @Value("${hmdp.feed.big-author-followers:10000}")
+    private long bigAuthorFollowers;
+
+    // 收件箱保留的博文数
+    @Value("${hmdp.feed.inbox-max-size:1000}")
+    private long inboxMaxSize;
+
+    // 发件箱保留的博文数
+    @Value("${hmdp.feed.outbox-max-size:1000}")
+    private long outboxMaxSize;
+
+    public long getBigAuthorFollowers() {
+        return bigAuthorFollowers;
+    }
+
+    public long getInboxMaxSize() {
+        return inboxMaxSize;
+    }
+
+    public long getOutboxMaxSize() {
+        return outboxMaxSize;
+    }
+
+    /**
+     * 按时间倒序读取时间戳不大于 max 的博文，跳过前 offset 条（上一页中时间戳等于 max 的博文）
+     * @return 博文 id 与发布时间
+     */
+    public List<ZSetOperations.TypedTuple<String>> read(Long userId, long max, int offset, int count) {
+        followSetCache.ensureLoaded(userId);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet()
+                .intersect(RedisConstants.FOLLOW_USER_KEY + userId, RedisConstants.FEED_BIG_AUTHORS_KEY);
+        List<String> keys = new ArrayList<>();
+        keys.add(RedisConstants.FEED_KEY + userId);
+        if (bigAuthors != null) {
+            bigAuthors.forEach(authorId -> keys.add(RedisConstants.FEED_OUTBOX_KEY + authorId));
+        }
+        // 每个来源最多取 offset + count 条，归并后的前 offset + count 条一定在其中
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zSetCommands().zRevRangeByScoreWithScores(key.getBytes(StandardCharsets.UTF_8),
+                        0, max, 0, offset + count);
+            }
+            return null;
+        });
+        List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+            sources.add(tuples == null ? List.of() : new ArrayList<>(tuples));
+        }
+        // 按博文 id 去重，同一篇博文只出现一次
+        List<ZSetOperations.TypedTuple<String>> merged = KWayMerge.merge(sources, NEWEST_FIRST,
+                ZSetOperations.TypedTuple::getValue, offset + count);
+        return merged.subList(Math.min(offset, merged.size()), merged.size());
+    }
+}
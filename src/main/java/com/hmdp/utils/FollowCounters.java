@@ -0,0 +1,235 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Follow;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 用户粉丝数、关注数计数
+ * <p>
+ * 计数保存在 hash user:count:fans、user:count:followee 中（field 为用户 id），关注、取关时与关注集合 follow:{userId}
+ * 在同一个 lua 脚本中修改（见 toggleFollow.lua）：只有集合真正发生变化时计数才加减，重复关注、重复取关不会重复计数。
+ * 计数有变化的用户记录在 user:count:dirty 中，由 FollowCountFlusher 批量写入 tb_user_info.fans、followee。
+ * 用户的计数第一次使用前从 tb_user_info 加载（HSETNX），展示个人主页时直接读取计数，不再对 tb_follow 执行 COUNT(*)。
+ * <P></P>
+ * tb_user_info 中的计数落后于 redis（落库是批量的），计数在使用中丢失时不能再从 tb_user_info 加载：
+ * 关注、取关过程中集合或计数失效，以及对账修复了关注集合（计数没有随之加减）时，
+ * 按 tb_follow 重新统计相关用户的计数（见 recount），覆盖 redis 中的值并标记待落库。
+ * 关注、取关修改计数时同时把双方在 user:count:version 中的版本号加一，重新统计只覆盖统计期间版本号没有变化的用户，
+ * 版本号变化的用户重新统计，避免用统计前的 COUNT(*) 覆盖并发的 HINCRBY。
+ * </p>
+ */
+@Component
+@Slf4j
+public class FollowCounters {
+
+    // 版本号一直变化时的最多统计次数
+    private static final int RECOUNT_ATTEMPTS = 3;
+
+    private static final DefaultRedisScript<Long> TOGGLE_FOLLOW_SCRIPT;
+    private static final DefaultRedisScript<List<String>> RECOUNT_SCRIPT;
+
+    static {
+        TOGGLE_FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        TOGGLE_FOLLOW_SCRIPT.setLocation(new ClassPathResource("lua/toggleFollow.lua"));
+        TOGGLE_FOLLOW_SCRIPT.setResultType(Long.class);
+        @SuppressWarnings("unchecked")
+        Class<List<String>> listType = (Class<List<String>>) (Class<?>) List.class;
+        RECOUNT_SCRIPT = new DefaultRedisScript<>();
+        RECOUNT_SCRIPT.setLocation(new ClassPathResource("lua/recountFollow.lua"));
+        RECOUNT_SCRIPT.setResultType(listType);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private FollowSetCache followSetCache;
+
+    // 每条重新统计的 SQL 包含的用户数
+    @Value("${hmdp.follow.load-batch-size:500}")
+    private int recountBatchSize;
+
+    /**
+     * 关注、取关写入数据库之前调用：加载当前用户的关注集合与双方的计数，
+     * 使脚本根据完整的关注集合判断是否变化。写入数据库之后再加载，集合中已包含本次修改，计数会漏加
+     */
+    public void prepare(Long userId, Long followUserId) {
+        followSetCache.ensureLoaded(userId);
+        ensureLoaded(List.of(userId, followUserId));
+    }
+
+    /**
+     * 关注、取关写入数据库之后调用，修改关注集合与计数
+     * @return 1 集合与计数已修改，0 集合没有变化
+     */
+    public long toggle(Long userId, Long followUserId, boolean isFollow) {
+        Long r = executeToggle(userId, followUserId, isFollow);
+        if (r != null && r == -1) {
+            // prepare 之后集合或计数被删除。tb_user_info 可能尚未落库，不能从中重新加载后重试脚本；
+            // 数据库中已包含本次修改，直接修改集合，双方的计数按 tb_follow 重新统计
+            log.warn("关注集合或计数在关注过程中失效，按 tb_follow 重新统计，用户: {}，目标用户: {}", userId, followUserId);
+            followSetCache.ensureLoaded(userId);
+            String followKey = RedisConstants.FOLLOW_USER_KEY + userId;
+            if (isFollow) {
+                stringRedisTemplate.opsForSet().add(followKey, followUserId.toString());
+            } else {
+                stringRedisTemplate.opsForSet().remove(followKey, followUserId.toString());
+            }
+            recount(List.of(userId, followUserId));
+            return 1;
+        }
+        return r == null ? 0 : r;
+    }
+
+    /**
+     * 按 tb_follow 重新统计一批用户的粉丝数、关注数，覆盖 redis 中的计数并标记待落库。
+     * 粉丝数走 idx_follow_user(follow_user_id, user_id)，关注数走 uk_user_follow(user_id, follow_user_id)，只读索引。
+     * 统计前先读取版本号，统计期间被关注、取关修改过计数的用户不覆盖，重新统计
+     */
+    public void recount(Collection<Long> userIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        for (int i = 0; i < ids.size(); i += recountBatchSize) {
+            List<Long> batch = ids.subList(i, Math.min(i + recountBatchSize, ids.size()));
+            for (int attempt = 0; attempt < RECOUNT_ATTEMPTS && !batch.isEmpty(); attempt++) {
+                batch = recountOnce(batch);
+            }
+            if (!batch.isEmpty()) {
+                // 计数一直在被修改，保留当前的计数，由下一次对账重新统计
+                log.warn("重新统计期间计数持续变化，放弃覆盖，用户: {}", batch);
+            }
+        }
+    }
+
+    /**
+     * 统计一次并按版本号覆盖计数
+     * @return 版本号已变化、没有覆盖的用户
+     */
+    private List<Long> recountOnce(List<Long> batch) {
+        List<Object> versions = stringRedisTemplate.opsForHash().multiGet(RedisConstants.USER_COUNT_VERSION_KEY,
+                batch.stream().map(id -> (Object) id.toString()).toList());
+        Map<Long, Long> fans = countBy("follow_user_id", batch);
+        Map<Long, Long> followees = countBy("user_id", batch);
+        List<String> args = new ArrayList<>(batch.size() * 4);
+        for (int i = 0; i < batch.size(); i++) {
+            Long id = batch.get(i);
+            Object version = versions.get(i);
+            args.add(id.toString());
+            args.add(version == null ? "0" : version.toString());
+            args.add(String.valueOf(fans.getOrDefault(id, 0L)));
+            args.add(String.valueOf(followees.getOrDefault(id, 0L)));
+        }
+        List<String> changed = stringRedisTemplate.execute(RECOUNT_SCRIPT,
+                List.of(RedisConstants.USER_FANS_COUNT_KEY, RedisConstants.USER_FOLLOWEE_COUNT_KEY,
+                        RedisConstants.USER_COUNT_VERSION_KEY, RedisConstants.USER_COUNT_DIRTY_KEY),
+                args.toArray());
+        return changed == null ? List.of() : changed.stream().map(Long::valueOf).toList();
+    }
+
+    /**
+     * 确保一批用户的计数已从 tb_user_info 加载，一次管道检查，未加载的用户一条 SQL 查询，没有详情的用户计数为 0
+     */
+    public void ensureLoaded(Collection<Long> userIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                byte[] field = bytes(id.toString());
+                connection.hashCommands().hExists(bytes(RedisConstants.USER_FANS_COUNT_KEY), field);
+                connection.hashCommands().hExists(bytes(RedisConstants.USER_FOLLOWEE_COUNT_KEY), field);
+            }
+            return null;
+        });
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(2 * i)) || !Boolean.TRUE.equals(exists.get(2 * i + 1))) {
+                missing.add(ids.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<Long, UserInfo> infos = userInfoMapper.selectList(Wrappers.<UserInfo>lambdaQuery()
+                        .select(UserInfo::getUserId, UserInfo::getFans, UserInfo::getFollowee)
+                        .in(UserInfo::getUserId, missing))
+                .stream().collect(Collectors.toMap(UserInfo::getUserId, Function.identity()));
+        // HSETNX：加载期间其他节点已加载并修改的计数不会被覆盖
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : missing) {
+                UserInfo info = infos.get(id);
+                byte[] field = bytes(id.toString());
+                connection.hashCommands().hSetNX(bytes(RedisConstants.USER_FANS_COUNT_KEY), field,
+                        bytes(String.valueOf(info == null || info.getFans() == null ? 0 : info.getFans())));
+                connection.hashCommands().hSetNX(bytes(RedisConstants.USER_FOLLOWEE_COUNT_KEY), field,
+                        bytes(String.valueOf(info == null || info.getFollowee() == null ? 0 : info.getFollowee())));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 读取用户的计数
+     * @return {粉丝数, 关注数}，尚未加载时返回 null，此时 tb_user_info 中的值即为最新值
+     */
+    public int[] get(Long userId) {
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] field = bytes(userId.toString());
+            connection.hashCommands().hGet(bytes(RedisConstants.USER_FANS_COUNT_KEY), field);
+            connection.hashCommands().hGet(bytes(RedisConstants.USER_FOLLOWEE_COUNT_KEY), field);
+            return null;
+        });
+        if (counts.get(0) == null || counts.get(1) == null) {
+            return null;
+        }
+        return new int[]{Integer.parseInt(counts.get(0).toString()), Integer.parseInt(counts.get(1).toString())};
+    }
+
+    /**
+     * 按 column 分组统计 tb_follow 的行数
+     */
+    private Map<Long, Long> countBy(String column, List<Long> userIds) {
+        return followMapper.selectMaps(Wrappers.<Follow>query()
+                        .select(column + " AS id", "COUNT(*) AS cnt")
+                        .in(column, userIds)
+                        .groupBy(column))
+                .stream()
+                .collect(Collectors.toMap(row -> ((Number) row.get("id")).longValue(),
+                        row -> ((Number) row.get("cnt")).longValue()));
+    }
+
+    private Long executeToggle(Long userId, Long followUserId, boolean isFollow) {
+        return stringRedisTemplate.execute(TOGGLE_FOLLOW_SCRIPT,
+                List.of(RedisConstants.FOLLOW_USER_KEY + userId, RedisConstants.USER_FANS_COUNT_KEY,
+                        RedisConstants.USER_FOLLOWEE_COUNT_KEY, RedisConstants.USER_COUNT_DIRTY_KEY,
+                        RedisConstants.USER_COUNT_VERSION_KEY),
+                userId.toString(), followUserId.toString(), isFollow ? "1" : "0", FollowSetCache.LOADED_MARKER);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
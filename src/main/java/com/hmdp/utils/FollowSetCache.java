@@ -0,0 +1,319 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 关注集合 follow:{userId} 的加载与对账
+ * <p>
+ * 关注集合原先只在关注、取关时写入，数据库中已有的关注记录不在 redis 中，共同关注、是否关注、feed 流读取大 V 发件箱都会漏掉。
+ * 集合从数据库完整加载后带有标记成员 "0"（用户 id 从 1 开始），有标记的集合是完整的，没有标记的集合（不存在，
+ * 或只有加载前关注、取关写入的成员）在读取前按需加载：先用管道检查一批用户的标记，再用一条 SQL 查询所有未加载用户的关注记录。
+ * 标记在最后写入，加载中途失败时集合仍视为未加载，下次读取时重新加载，SADD 可以重复执行。
+ * <P></P>
+ * 加载与关注、取关并发时，集合可能与数据库不一致（例如加载读到的关注记录随即被取关），由定期对账（FollowSetReconciler）修复。
+ * </p>
+ */
+@Component
+@Slf4j
+public class FollowSetCache implements ApplicationRunner {
+
+    // 已从数据库完整加载的标记
+    public static final String LOADED_MARKER = "0";
+
+    // 每条 SADD 写入的成员数
+    private static final int SADD_BATCH = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    // 每条 SQL 加载的用户数
+    @Value("${hmdp.follow.load-batch-size:500}")
+    private int loadBatchSize;
+
+    // 启动时是否加载所有用户的关注集合
+    @Value("${hmdp.follow.warm-on-startup:false}")
+    private boolean warmOnStartup;
+
+    // 共同关注 SSCAN 每批读取的成员数
+    @Value("${hmdp.follow.scan-count:1000}")
+    private int scanCount;
+
+    public int getLoadBatchSize() {
+        return loadBatchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!warmOnStartup) {
+            return;
+        }
+        try {
+            warmAll();
+        } catch (Exception e) {
+            log.error("关注集合预热失败，改为读取时加载，错误信息: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 确保用户的关注集合已从数据库加载
+     */
+    public void ensureLoaded(Long userId) {
+        ensureLoaded(List.of(userId));
+    }
+
+    /**
+     * 确保一批用户的关注集合已从数据库加载，一次管道检查标记，未加载的用户每 load-batch-size 个一条 SQL
+     */
+    public void ensureLoaded(Collection<Long> userIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Object> loaded = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                connection.setCommands().sIsMember(key(id), LOADED_MARKER.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (!Boolean.TRUE.equals(loaded.get(i))) {
+                missing.add(ids.get(i));
+            }
+        }
+        for (int i = 0; i < missing.size(); i += loadBatchSize) {
+            load(missing.subList(i, Math.min(i + loadBatchSize, missing.size())));
+        }
+    }
+
+    /**
+     * 按 user_id 分页遍历 tb_follow（uk_user_follow 上的松散索引扫描），加载所有有关注记录的用户的关注集合
+     * @return 加载的用户数
+     */
+    public long warmAll() {
+        long begin = System.currentTimeMillis();
+        long lastUserId = 0;
+        long total = 0;
+        while (true) {
+            List<Long> userIds = followMapper.selectObjs(Wrappers.<Follow>query()
+                            .select("DISTINCT user_id")
+                            .gt("user_id", lastUserId)
+                            .orderByAsc("user_id")
+                            .last("LIMIT " + loadBatchSize))
+                    .stream().map(id -> ((Number) id).longValue()).toList();
+            if (userIds.isEmpty()) {
+                break;
+            }
+            ensureLoaded(userIds);
+            total += userIds.size();
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+        log.info("关注集合预热完成，用户数: {}，耗时: {}ms", total, System.currentTimeMillis() - begin);
+        return total;
+    }
+
+    /**
+     * 对账结果
+     * @param members 修复的成员数
+     * @param users 修复涉及的用户：集合的所有者（关注数可能有误）与补上、删除的成员（粉丝数可能有误）
+     */
+    public record Repair(long members, Set<Long> users) {
+        private static final Repair NONE = new Repair(0, Set.of());
+    }
+
+    /**
+     * 对账：把已加载的关注集合与数据库比较，补上缺少的成员、删除多余的成员，未加载的集合不处理。
+     * 先读 redis 再读数据库：关注、取关都是先写数据库再写 redis，读 redis 之前完成的修改在数据库中一定可见
+     * @return 修复的成员数与涉及的用户，调用方据此重新统计这些用户的计数（见 FollowCounters#recount）
+     */
+    public Repair reconcile(List<Long> userIds) {
+        List<Object> members = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : userIds) {
+                connection.setCommands().sMembers(key(id));
+            }
+            return null;
+        });
+        List<Long> loadedIds = new ArrayList<>();
+        List<Set<String>> cached = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Set<String> set = (Set<String>) members.get(i);
+            if (set != null && set.remove(LOADED_MARKER)) {
+                loadedIds.add(userIds.get(i));
+                cached.add(set);
+            }
+        }
+        if (loadedIds.isEmpty()) {
+            return Repair.NONE;
+        }
+        Map<Long, Set<String>> follows = queryFollows(loadedIds);
+        long repaired = 0;
+        Map<Long, List<String>> toAdd = new HashMap<>();
+        Map<Long, List<String>> toRemove = new HashMap<>();
+        for (int i = 0; i < loadedIds.size(); i++) {
+            Long userId = loadedIds.get(i);
+            Set<String> expected = follows.getOrDefault(userId, Set.of());
+            Set<String> actual = cached.get(i);
+            List<String> add = expected.stream().filter(id -> !actual.contains(id)).toList();
+            List<String> remove = actual.stream().filter(id -> !expected.contains(id)).toList();
+            if (!add.isEmpty()) {
+                toAdd.put(userId, add);
+            }
+            if (!remove.isEmpty()) {
+                toRemove.put(userId, remove);
+            }
+            repaired += add.size() + remove.size();
+        }
+        if (repaired == 0) {
+            return Repair.NONE;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            toAdd.forEach((userId, ids) -> sAdd(connection, userId, ids));
+            toRemove.forEach((userId, ids) -> connection.setCommands().sRem(key(userId), bytes(ids)));
+            return null;
+        });
+        Set<Long> owners = new HashSet<>(toAdd.keySet());
+        owners.addAll(toRemove.keySet());
+        Set<Long> users = new HashSet<>(owners);
+        toAdd.values().forEach(ids -> ids.forEach(id -> users.add(Long.valueOf(id))));
+        toRemove.values().forEach(ids -> ids.forEach(id -> users.add(Long.valueOf(id))));
+        log.warn("关注集合与数据库不一致，已修复 {} 个成员，涉及 {} 个用户", repaired, owners.size());
+        return new Repair(repaired, users);
+    }
+
+    /**
+     * 按用户 id 升序分页查询两个用户的共同关注。
+     * 用 SSCAN 遍历较小的集合，每批用 SMISMEMBER 判断是否在另一个集合中，只保留 id 大于 lastId 的最小 count 个，
+     * 不会像 SINTER 那样一条命令返回全部交集，关注数上万的用户也不会长时间阻塞 redis
+     * @param lastId 上一页最后一个用户的 id，第一页传 0
+     * @return 升序排列的用户 id
+     */
+    public List<Long> commonPage(Long userId, Long otherUserId, long lastId, int count) {
+        String key1 = RedisConstants.FOLLOW_USER_KEY + userId;
+        String key2 = RedisConstants.FOLLOW_USER_KEY + otherUserId;
+        Long size1 = stringRedisTemplate.opsForSet().size(key1);
+        Long size2 = stringRedisTemplate.opsForSet().size(key2);
+        boolean firstSmaller = (size1 == null ? 0 : size1) <= (size2 == null ? 0 : size2);
+        String scanKey = firstSmaller ? key1 : key2;
+        String probeKey = firstSmaller ? key2 : key1;
+        // 大顶堆，堆顶为当前保留的最大 id
+        PriorityQueue<Long> heap = new PriorityQueue<>(count + 1, Comparator.reverseOrder());
+        List<String> batch = new ArrayList<>(scanCount);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                .scan(scanKey, ScanOptions.scanOptions().count(scanCount).build())) {
+            while (cursor.hasNext()) {
+                String member = cursor.next();
+                if (LOADED_MARKER.equals(member)) {
+                    continue;
+                }
+                long id = Long.parseLong(member);
+                // 已有 count 个候选时，不小于堆顶的 id 不可能进入本页，不必判断是否共同关注
+                if (id <= lastId || (heap.size() == count && id >= heap.peek())) {
+                    continue;
+                }
+                batch.add(member);
+                if (batch.size() == scanCount) {
+                    probe(probeKey, batch, heap, count);
+                }
+            }
+        }
+        probe(probeKey, batch, heap, count);
+        List<Long> ids = new ArrayList<>(heap);
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * 一次 SMISMEMBER 判断一批成员是否在集合中，共同关注的成员放入堆
+     */
+    private void probe(String key, List<String> batch, PriorityQueue<Long> heap, int count) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Object, Boolean> contains = stringRedisTemplate.opsForSet().isMember(key, batch.toArray());
+        for (String member : batch) {
+            if (contains != null && Boolean.TRUE.equals(contains.get(member))) {
+                heap.add(Long.parseLong(member));
+                if (heap.size() > count) {
+                    heap.poll();
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * 从数据库加载一批用户的关注集合，标记在每个集合的最后一条 SADD 中写入
+     */
+    private void load(List<Long> userIds) {
+        Map<Long, Set<String>> follows = queryFollows(userIds);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : userIds) {
+                List<String> ids = new ArrayList<>(follows.getOrDefault(userId, Set.of()));
+                ids.add(LOADED_MARKER);
+                sAdd(connection, userId, ids);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询一批用户关注的用户 id，uk_user_follow(user_id, follow_user_id) 覆盖该查询
+     */
+    private Map<Long, Set<String>> queryFollows(Collection<Long> userIds) {
+        Map<Long, Set<String>> follows = new HashMap<>();
+        List<Follow> rows = followMapper.selectList(Wrappers.<Follow>lambdaQuery()
+                .select(Follow::getUserId, Follow::getFollowUserId)
+                .in(Follow::getUserId, userIds));
+        for (Follow row : rows) {
+            follows.computeIfAbsent(row.getUserId(), id -> new HashSet<>()).add(row.getFollowUserId().toString());
+        }
+        return follows;
+    }
+
+    private void sAdd(RedisConnection connection, Long userId, List<String> ids) {
+        for (int i = 0; i < ids.size(); i += SADD_BATCH) {
+            connection.setCommands().sAdd(key(userId), bytes(ids.subList(i, Math.min(i + SADD_BATCH, ids.size()))));
+        }
+    }
+
+    private static byte[] key(Long userId) {
+        return (RedisConstants.FOLLOW_USER_KEY + userId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] bytes(List<String> values) {
+        byte[][] result = new byte[values.size()][];
+        for (int i = 0; i < values.size(); i++) {
+            result[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+}
@@ -1,8 +1,11 @@
 package com.hmdp.utils;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
@@ -16,22 +19,35 @@ import java.time.format.DateTimeFormatter;
 @Component
 public class GlobalRedisIdGenerator {
     private static final String ID_COUNTER_PREFIX = "counter:id:";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
     Long startTime = 1735689600L;       // 一个以 second 计数的起始时间戳
 
     @Resource
     private RedisUtil redisUtil;
 
+    // 号段长度
+    @Value("${hmdp.id.segment-step:10000}")
+    private long segmentStep;
+
+    private SegmentIdAllocator allocator;
+
+    @PostConstruct
+    private void init() {
+        allocator = new SegmentIdAllocator((key, step) -> redisUtil.increment(key, step), segmentStep);
+    }
+
     /**
      * 生成 id
      * @param prefix 区分表，避免 id 冲突
      * @return
      */
     public Long nextId(String prefix){
-        long time = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - startTime;
-        String today = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        // 利用  redis 的自增功能的原子性 来生成自增 id。
+        long epochSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        long time = epochSecond - startTime;
+        // 利用  redis 的自增功能的原子性 来生成自增 id，每次自增一个号段，在本地分配。
         // 同时每天  自增 id 的起始值从 0 开始。
-        long sequence = redisUtil.increment(ID_COUNTER_PREFIX + prefix + ":" + today, 1);
+        long sequence = allocator.nextSequence(prefix, Math.floorDiv(epochSecond, 86400),
+                day -> ID_COUNTER_PREFIX + prefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
         return time << 32 | sequence;
     }
 
@@ -0,0 +1,366 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * 热点 key 探测与本地缓存
+ * <p>
+ * RedisUtil 的读操作按 1/sampleRate 的概率采样，采样到的 key 写入滑动窗口的 count-min sketch：
+ * 窗口由 slots 个子窗口组成，每个子窗口一个 sketch，过期的子窗口在下次使用时清零，估计值为窗口内各子窗口之和。
+ * 估计值超过 threshold 的前 topN 个 key 视为热点，其读结果在本地缓存 localTtlMillis，期间不再访问 redis。
+ * 通过 RedisUtil 写入或删除 key 时清除本节点的本地缓存，其他节点依赖较短的本地过期时间。
+ * 已经由 {@link NearCache} 缓存在本地的 key 通过 {@link #bypassLocal(String)} 排除，只计数不缓存，
+ * 否则 NearCache 收到失效通知后重新加载，会从这里读到旧值再放回 L1。
+ * <P></P>
+ * 单个节点的流量可能不足以判定热点，各节点定期把候选 key 的估计值累加到 redis 的 zset hotkey:{时间段} 中，
+ * 上一个时间段的汇总值超过 threshold 的 key 在所有节点上都视为热点。
+ * 热点 key 可通过 actuator 端点 hotkeys 查看。
+ * </p>
+ */
+@Component
+@Slf4j
+public class HotKeyDetector {
+
+    // count-min sketch 的行数与每行的计数器数（2 的幂）
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+
+    // 每行 hash 使用的种子
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    // 汇总到 redis 的候选 key 的最低估计值与 threshold 的比例
+    private static final int CANDIDATE_DIVISOR = 4;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final int sampleRate;
+    private final long slotMillis;
+    private final int topN;
+    private final long threshold;
+    private final LongSupplier clock;
+
+    private final Sketch[] slots;
+
+    // 候选 key -> 最近一次的估计值，只保留估计值达到 threshold / CANDIDATE_DIVISOR 的 key
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+    // 本节点判定的热点 key，以及集群汇总后判定的热点 key
+    private volatile Set<String> localHotKeys = Set.of();
+    private volatile Set<String> clusterHotKeys = Set.of();
+
+    // 上一次重新计算热点 key 的子窗口
+    private final AtomicLong lastRefreshSlot = new AtomicLong(-1);
+
+    // 热点 key 的本地缓存
+    private final Cache<String, byte[]> local;
+
+    // 不使用本地缓存的 key 前缀
+    private final List<String> bypassPrefixes = new CopyOnWriteArrayList<>();
+
+    private Counter localHits;
+
+    @Autowired
+    public HotKeyDetector(@Value("${hmdp.hotkey.enabled:true}") boolean enabled,
+                          @Value("${hmdp.hotkey.sample-rate:8}") int sampleRate,
+                          @Value("${hmdp.hotkey.window-seconds:10}") int windowSeconds,
+                          @Value("${hmdp.hotkey.top-n:50}") int topN,
+                          @Value("${hmdp.hotkey.threshold:1000}") long threshold,
+                          @Value("${hmdp.hotkey.local-ttl-millis:2000}") long localTtlMillis) {
+        this(enabled, sampleRate, TimeUnit.SECONDS.toMillis(windowSeconds), windowSeconds, topN, threshold,
+                localTtlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param sampleRate 每 sampleRate 次读取采样一次
+     * @param windowMillis 滑动窗口长度
+     * @param slots 子窗口数
+     * @param topN 最多的热点 key 数
+     * @param threshold 窗口内读取次数达到该值视为热点
+     * @param localTtlMillis 热点 key 在本地的缓存时间
+     * @param clock 毫秒时钟
+     */
+    public HotKeyDetector(boolean enabled, int sampleRate, long windowMillis, int slots, int topN, long threshold,
+                          long localTtlMillis, LongSupplier clock) {
+        if (sampleRate < 1 || slots < 1 || windowMillis < slots) {
+            throw new IllegalArgumentException("invalid hot key window: sampleRate=" + sampleRate
+                    + ", windowMillis=" + windowMillis + ", slots=" + slots);
+        }
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.slotMillis = windowMillis / slots;
+        this.topN = topN;
+        this.threshold = threshold;
+        this.clock = clock;
+        this.slots = new Sketch[slots];
+        for (int i = 0; i < slots; i++) {
+            this.slots[i] = new Sketch();
+        }
+        this.local = Caffeine.newBuilder()
+                .maximumSize(topN * 2L)
+                .expireAfterWrite(Duration.ofMillis(localTtlMillis))
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        localHits = Counter.builder("hotkey.local.hits").register(meterRegistry);
+        Gauge.builder("hotkey.local.size", local, Cache::estimatedSize).register(meterRegistry);
+    }
+
+    /**
+     * 查询本地缓存的热点 key
+     * @return 不是热点或本地没有缓存时返回 null
+     */
+    public byte[] getLocal(String key) {
+        if (!enabled) {
+            return null;
+        }
+        byte[] value = local.getIfPresent(key);
+        if (value != null && localHits != null) {
+            localHits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 记录一次读取，key 为热点时把读到的值放入本地缓存
+     * @param value 从 redis 读到的值；本地缓存命中时传 null，只计数，不刷新本地缓存
+     */
+    public void record(String key, byte[] value) {
+        if (!enabled) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long slot = now / slotMillis;
+        if (lastRefreshSlot.get() != slot) {
+            refresh(slot);
+        }
+        if (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            Sketch sketch = current(slot);
+            sketch.add(key, sampleRate);
+            long estimate = estimate(key, slot);
+            if (estimate >= threshold / CANDIDATE_DIVISOR) {
+                candidates.put(key, estimate);
+            }
+        }
+        if (value != null && isHot(key) && !isBypassed(key)) {
+            local.put(key, value);
+        }
+    }
+
+    /**
+     * 以 keyPrefix 开头的 key 仍参与热点统计，但不放入本地缓存
+     * <p>
+     * 用于已经有 {@link NearCache} 的数据：NearCache 通过发布订阅在所有节点上失效，这里的本地缓存只在写入的节点上失效。
+     * </p>
+     */
+    public void bypassLocal(String keyPrefix) {
+        bypassPrefixes.add(keyPrefix);
+        local.asMap().keySet().removeIf(key -> key.startsWith(keyPrefix));
+    }
+
+    private boolean isBypassed(String key) {
+        for (String prefix : bypassPrefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写入或删除 key 后清除本地缓存
+     */
+    public void invalidate(String key) {
+        if (enabled) {
+            local.invalidate(key);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return localHotKeys.contains(key) || clusterHotKeys.contains(key);
+    }
+
+    /**
+     * 窗口内的读取次数估计值（count-min sketch 只会高估）
+     */
+    public long estimate(String key) {
+        return estimate(key, clock.getAsLong() / slotMillis);
+    }
+
+    private long estimate(String key, long slot) {
+        long sum = 0;
+        for (int i = 0; i < slots.length; i++) {
+            Sketch sketch = slots[i];
+            // 只统计窗口内的子窗口
+            if (slot - sketch.slot < slots.length) {
+                sum += sketch.estimate(key);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 返回当前子窗口的 sketch，子窗口复用时先清零
+     */
+    private Sketch current(long slot) {
+        Sketch sketch = slots[(int) (slot % slots.length)];
+        if (sketch.slot != slot) {
+            synchronized (sketch) {
+                if (sketch.slot != slot) {
+                    sketch.reset(slot);
+                }
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * 进入新的子窗口时重新计算候选 key 的估计值以及本节点的热点 key
+     */
+    private void refresh(long slot) {
+        long last = lastRefreshSlot.get();
+        if (last == slot || !lastRefreshSlot.compareAndSet(last, slot)) {
+            return;
+        }
+        candidates.replaceAll((key, old) -> estimate(key, slot));
+        candidates.values().removeIf(estimate -> estimate < threshold / CANDIDATE_DIVISOR);
+        if (candidates.size() > topN * CANDIDATE_DIVISOR) {
+            // 只保留估计值最大的候选 key
+            List<String> evicted = candidates.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(candidates.size() - (long) topN * CANDIDATE_DIVISOR)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            evicted.forEach(candidates::remove);
+        }
+        localHotKeys = topCandidates(topN).entrySet().stream()
+                .filter(e -> e.getValue() >= threshold)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * 估计值最大的 n 个候选 key，按估计值降序
+     */
+    public Map<String, Long> topCandidates(int n) {
+        return candidates.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(n)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    public Set<String> getLocalHotKeys() {
+        return localHotKeys;
+    }
+
+    public Set<String> getClusterHotKeys() {
+        return clusterHotKeys;
+    }
+
+    /**
+     * 把本节点的候选 key 累加到当前时间段的 zset，再读取上一个时间段的汇总结果
+     */
+    @Scheduled(fixedDelayString = "${hmdp.hotkey.aggregate-interval-millis:5000}")
+    public void aggregate() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long windowMillis = slotMillis * slots.length;
+            long bucket = clock.getAsLong() / windowMillis;
+            String currentKey = RedisConstants.HOT_KEY_KEY + bucket;
+            Map<String, Long> top = topCandidates(topN);
+            if (!top.isEmpty()) {
+                byte[] rawKey = currentKey.getBytes(StandardCharsets.UTF_8);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    top.forEach((key, estimate) ->
+                            connection.zSetCommands().zIncrBy(rawKey, estimate, key.getBytes(StandardCharsets.UTF_8)));
+                    connection.keyCommands().pExpire(rawKey, windowMillis * 3);
+                    return null;
+                });
+            }
+            Set<ZSetOperations.TypedTuple<String>> previous = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(RedisConstants.HOT_KEY_KEY + (bucket - 1), threshold, Double.MAX_VALUE, 0, topN);
+            clusterHotKeys = previous == null ? Set.of() : previous.stream()
+                    .map(ZSetOperations.TypedTuple::getValue)
+                    .collect(Collectors.toUnmodifiableSet());
+        } catch (Exception e) {
+            log.warn("汇总热点 key 失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 一个子窗口的 count-min sketch
+     */
+    private static final class Sketch {
+        private final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+        private volatile long slot = -1;
+
+        private void add(String key, long delta) {
+            int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                counters.addAndGet(i * WIDTH + index(hash, i), delta);
+            }
+        }
+
+        private long estimate(String key) {
+            int hash = key.hashCode();
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, counters.get(i * WIDTH + index(hash, i)));
+            }
+            return min;
+        }
+
+        private void reset(long slot) {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+            this.slot = slot;
+        }
+
+        private static int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            h *= 0x7FEB352D;
+            h ^= h >>> 15;
+            return h & (WIDTH - 1);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.hmdp.utils;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RAtomicLong;
 import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
@@ -16,10 +17,16 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 @Component
 public class IdGenerator {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
     private final RedissonClient redissonClient;
 
-    public IdGenerator(RedissonClient redissonClient) {
+    // 每次从 redis 租用一个号段，在本地分配
+    private final SegmentIdAllocator allocator;
+
+    public IdGenerator(RedissonClient redissonClient, @Value("${hmdp.id.segment-step:10000}") long segmentStep) {
         this.redissonClient = redissonClient;
+        this.allocator = new SegmentIdAllocator(this::lease, segmentStep);
     }
 
     /**
@@ -28,21 +35,27 @@ public class IdGenerator {
      * @return 生成的唯一ID
      */
     public long nextId(String keyPrefix) {
-        // 1.构建key
-        LocalDate now = LocalDate.now();
-        String date = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        String key = "id:" + keyPrefix + ":" + date;
+        // 按日期构建key，从本地号段中分配
+        return allocator.nextSequence(keyPrefix, LocalDate.now().toEpochDay(),
+                day -> "id:" + keyPrefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+    }
 
-        // 2.获取redisson的RAtomicLong对象，实现原子递增
+    /**
+     * 租用一个号段
+     * @return 号段的最大值
+     */
+    private long lease(String key, long step) {
+        // 1.获取redisson的RAtomicLong对象，实现原子递增
         RAtomicLong atomicLong = redissonClient.getAtomicLong(key);
 
+        // 2.自增一个号段
+        long max = atomicLong.addAndGet(step);
+
         // 3.设置过期时间（为避免长期占用内存，设置为2天后过期）
         if(atomicLong.remainTimeToLive() < 0) {
             atomicLong.expire(2, TimeUnit.DAYS);
         }
-
-        // 4.自增并返回新值
-        return atomicLong.incrementAndGet();
+        return max;
     }
 
     /**
@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import io.jsonwebtoken.Claims;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 登录令牌的签发、校验与注销
+ * <p>
+ * 支持两种模式，由 hmdp.auth.mode 决定登录时签发哪种令牌，校验时两种令牌都接受，便于切换：
+ * session：令牌只携带 tokenId（sub），用户信息保存在 {@link LoginSessionStore} 中；
+ * jwt：令牌携带 UserDTO 的字段（uid、nickName、icon）与过期时间，校验时不访问 redis。
+ * 无状态令牌在过期前无法修改，用户信息的变化在重新登录后才会体现。
+ * <P></P>
+ * 校验通过的令牌按令牌的 SHA-256 缓存在有容量上限的本地缓存中，同一令牌只做一次解析与签名校验。
+ * 无状态令牌注销时，jti 写入 zset login:denylist（score 为令牌的过期时刻，过期后定期清理），
+ * 并通过发布订阅通知所有节点；各节点在本地保存一份注销列表，校验时只查本地，并定期与 redis 全量同步。
+ * </p>
+ */
+@Component
+@Slf4j
+public class JwtAuthenticator {
+
+    // 无状态令牌中的用户信息字段
+    private static final String CLAIM_UID = "uid";
+    private static final String CLAIM_NICK_NAME = "nickName";
+    private static final String CLAIM_ICON = "icon";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private LoginSessionStore loginSessionStore;
+
+    // 登录时签发的令牌类型：session 或 jwt
+    @Value("${hmdp.auth.mode:session}")
+    private String mode;
+
+    // 本地缓存的已校验令牌数
+    @Value("${hmdp.auth.verified-cache-size:10000}")
+    private long verifiedCacheSize;
+
+    private final long ttlMillis = RedisConstants.LOGIN_USER_TTL_TIMEUNIT.toMillis(RedisConstants.LOGIN_USER_TTL);
+
+    // 令牌的 SHA-256 -> 解析后的令牌
+    private Cache<String, VerifiedToken> verified;
+
+    // 本地的注销列表，jti -> 令牌的过期时刻
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    /**
+     * 校验通过的令牌，user 为 null 表示 session 令牌
+     */
+    private static class VerifiedToken {
+        private final String jti;
+        private final String subject;
+        private final UserDTO user;
+        private final long expireAt;
+
+        private VerifiedToken(Claims claims) {
+            this.jti = claims.getId();
+            this.subject = claims.getSubject();
+            this.expireAt = claims.getExpiration() == null ? Long.MAX_VALUE : claims.getExpiration().getTime();
+            Object uid = claims.get(CLAIM_UID);
+            if (uid == null) {
+                this.user = null;
+                return;
+            }
+            this.user = new UserDTO();
+            this.user.setId(((Number) uid).longValue());
+            this.user.setNickName(claims.get(CLAIM_NICK_NAME, String.class));
+            this.user.setIcon(claims.get(CLAIM_ICON, String.class));
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        verified = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .build();
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            // 消息内容为 jti:过期时刻
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int i = body.lastIndexOf(':');
+            revoked.put(body.substring(0, i), Long.parseLong(body.substring(i + 1)));
+        }, new ChannelTopic(RedisConstants.LOGIN_DENYLIST_CHANNEL));
+        syncDenylist();
+    }
+
+    /**
+     * 按当前模式签发令牌
+     */
+    public String issue(UserDTO user) {
+        return "jwt".equalsIgnoreCase(mode) ? issueStateless(user) : issueSession(user);
+    }
+
+    /**
+     * 签发 session 令牌，用户信息保存在 redis 中
+     */
+    public String issueSession(UserDTO user) {
+        String tokenId = UUID.fastUUID().toString();
+        loginSessionStore.save(tokenId, user);
+        return JwtUtil.createJWT(tokenId);
+    }
+
+    /**
+     * 签发携带用户信息的无状态令牌
+     */
+    public String issueStateless(UserDTO user) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLAIM_UID, user.getId());
+        claims.put(CLAIM_NICK_NAME, user.getNickName());
+        claims.put(CLAIM_ICON, user.getIcon());
+        return JwtUtil.createJWT(user.getId().toString(), ttlMillis, claims);
+    }
+
+    /**
+     * 校验令牌并返回用户信息
+     * @return 令牌无效、已过期、已注销或会话不存在时返回 null
+     */
+    public UserDTO authenticate(String jwt) {
+        VerifiedToken token = verify(jwt);
+        if (token == null) {
+            return null;
+        }
+        if (token.user != null) {
+            return revoked.containsKey(token.jti) ? null : token.user;
+        }
+        try {
+            return loginSessionStore.get(token.subject);
+        } catch (Exception e) {
+            log.error("查询登录会话失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 注销令牌
+     * @return 令牌是否有效且未注销
+     */
+    public boolean revoke(String jwt) {
+        VerifiedToken token = verify(jwt);
+        if (token == null) {
+            return false;
+        }
+        if (token.user == null) {
+            return loginSessionStore.remove(token.subject);
+        }
+        if (revoked.putIfAbsent(token.jti, token.expireAt) != null) {
+            return false;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().add(RedisConstants.LOGIN_DENYLIST_KEY, token.jti, token.expireAt);
+            stringRedisTemplate.convertAndSend(RedisConstants.LOGIN_DENYLIST_CHANNEL, token.jti + ":" + token.expireAt);
+        } catch (RuntimeException e) {
+            // 其他节点没有收到注销，撤销本地记录，否则重试时会被当作已注销而不再写入 redis
+            revoked.remove(token.jti, token.expireAt);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 解析并校验令牌，结果缓存在本地
+     */
+    private VerifiedToken verify(String jwt) {
+        if (jwt == null || jwt.isBlank()) {
+            return null;
+        }
+        String hash = DigestUtil.sha256Hex(jwt);
+        VerifiedToken token = verified.getIfPresent(hash);
+        if (token == null) {
+            try {
+                token = new VerifiedToken(JwtUtil.parseJWT(jwt));
+            } catch (Exception e) {
+                log.debug("令牌校验失败: {}", e.getMessage());
+                return null;
+            }
+            verified.put(hash, token);
+        }
+        if (token.expireAt <= System.currentTimeMillis()) {
+            verified.invalidate(hash);
+            return null;
+        }
+        return token;
+    }
+
+    /**
+     * 清理 redis 中已过期的注销记录，并与本地注销列表全量同步，弥补错过的通知
+     */
+    @Scheduled(initialDelayString = "${hmdp.auth.denylist-sync-interval-millis:30000}",
+            fixedDelayString = "${hmdp.auth.denylist-sync-interval-millis:30000}")
+    public void syncDenylist() {
+        long now = System.currentTimeMillis();
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(RedisConstants.LOGIN_DENYLIST_KEY, 0, now);
+            Set<ZSetOperations.TypedTuple<String>> entries = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(RedisConstants.LOGIN_DENYLIST_KEY, now, Double.MAX_VALUE);
+            if (entries != null) {
+                entries.forEach(e -> revoked.put(e.getValue(), e.getScore().longValue()));
+            }
+        } catch (Exception e) {
+            log.error("同步令牌注销列表失败: {}", e.getMessage());
+        }
+        revoked.values().removeIf(expireAt -> expireAt <= now);
+    }
+}
@@ -32,6 +32,9 @@ public class JwtUtil {
     // 签名算法
     public static final String SIGN_ALGORITHM = "HS256";
 
+    // 签名秘钥，只生成一次
+    private static final SecretKey SECRET_KEY = generalKey();
+
 
 
     public static String getUUID() {
@@ -81,7 +84,7 @@ public class JwtUtil {
             case "RS256": signatureAlgorithm = SignatureAlgorithm.RS256; break;
             default: signatureAlgorithm = SignatureAlgorithm.HS256; break;
         }
-        SecretKey secretKey = generalKey();
+        SecretKey secretKey = SECRET_KEY;
         long nowMillis = System.currentTimeMillis();
         Date now = new Date(nowMillis);
         JwtBuilder builder = Jwts.builder()
@@ -94,7 +97,8 @@ public class JwtUtil {
             ttlMillis = JwtUtil.JWT_TTL;
         }
         if (claims != null) {
-            builder.setClaims(claims);
+            // setClaims 会覆盖上面设置的 jti、sub 等标准字段
+            builder.addClaims(claims);
         }
         if (ttlMillis < 0) return builder;  // 如果ttlMillis小于0，则表示设置一个无限大的过期时间
 
@@ -123,14 +127,14 @@ public class JwtUtil {
      */
     public static Claims parseJWT(String jwt) throws Exception{
         try {
-            SecretKey secretKey = generalKey();
             return Jwts.parser()
-                    .setSigningKey(secretKey)
+                    .setSigningKey(SECRET_KEY)
                     .parseClaimsJws(jwt)
                     .getBody();
         } catch (JwtException e) {
             // 可以根据 e.getClass() 判断是签名错误、过期等
-            throw new IllegalArgumentException("JWT: " + jwt + ". JWT 解析失败: " + e.getMessage());
+            // 不在异常信息中带上令牌，避免令牌写入日志
+            throw new IllegalArgumentException("JWT 解析失败: " + e.getMessage());
         }
     }
 
@@ -160,7 +164,7 @@ public class JwtUtil {
         try {
             // 解析 JWT，如果签名不匹配或格式错误会抛异常
             Jws<Claims> jws = Jwts.parser()
-                    .setSigningKey(generalKey())
+                    .setSigningKey(SECRET_KEY)
                     .parseClaimsJws(jwt);
 
             // 获取过期时间
@@ -171,10 +175,10 @@ public class JwtUtil {
             return expiration == null || !new Date().after(expiration);
         } catch (JwtException e) {
             // 捕获各种 JWT 异常，如签名失败、非法格式等
-            log.error("JWT: " + jwt + ". JWT 解析失败: " + e.getMessage());
+            log.error("JWT 解析失败: {}", e.getMessage());
             return false;
         } catch (Exception e) {
-            log.error("JWT: " + jwt + ". JWT 验证出错: " + e.getMessage());
+            log.error("JWT 验证出错: {}", e.getMessage());
             return false;
         }
     }
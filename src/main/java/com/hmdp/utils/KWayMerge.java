@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 多路归并
+ * <p>
+ * 把 k 个已按同一顺序排好的列表合并为一个有序列表，通过大小为 k 的堆每次取出各列表当前元素中最靠前的一个，
+ * 取前 limit 个元素的时间复杂度为 O(limit * log k)。
+ * </p>
+ */
+public class KWayMerge {
+
+    private KWayMerge() {
+    }
+
+    /**
+     * 合并有序列表，并按 key 去重，重复的元素只保留排在最前的一个
+     * @param lists 各自已按 comparator 排好序的列表
+     * @param comparator 排序规则
+     * @param key 去重的依据
+     * @param limit 最多返回的元素数
+     */
+    public static <T> List<T> merge(List<? extends List<T>> lists, Comparator<? super T> comparator,
+                                    Function<? super T, ?> key, int limit) {
+        // 堆中的元素为 {列表下标, 元素下标}
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, lists.size()),
+                (a, b) -> comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                heap.add(new int[]{i, 0});
+            }
+        }
+        List<T> result = new ArrayList<>(Math.min(limit, 16));
+        Set<Object> seen = new HashSet<>();
+        while (!heap.isEmpty() && result.size() < limit) {
+            int[] top = heap.poll();
+            List<T> list = lists.get(top[0]);
+            T element = list.get(top[1]);
+            if (seen.add(key.apply(element))) {
+                result.add(element);
+            }
+            if (top[1] + 1 < list.size()) {
+                heap.add(new int[]{top[0], top[1] + 1});
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,250 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 登录会话存储
+ * <p>
+ * 会话以 hash 保存在 login:token:{tokenId} 中，只包含 UserDTO 的字段（id、nickName、icon），不再保存完整的 User。
+ * 读取时先查本地缓存（NearCache，缓存几秒），未命中时在一个管道中 HGETALL 并读取剩余过期时间，
+ * 因此大部分请求的鉴权不访问 redis。
+ * <P></P>
+ * 滑动过期：会话距离上次续期超过 refresh-interval-minutes 时才需要续期，需要续期的会话先记录在本地，
+ * 由定时任务在一个管道中批量 PEXPIRE，同一会话在一个周期内只续期一次。
+ * 登出时删除 hash，并通过 NearCache 的发布订阅通知所有节点清除本地缓存。
+ * <P></P>
+ * 兼容旧版会话：升级前的会话是同一个 key 下的字符串（完整 User 编码后的值），HGETALL 会返回 WRONGTYPE。
+ * 读取到旧版会话时按原格式解码，并改写为 hash（保留剩余过期时间），已登录的用户升级后不需要重新登录。
+ * </p>
+ */
+@Component
+@Slf4j
+public class LoginSessionStore {
+
+    private static final DefaultRedisScript<Long> MIGRATE_SESSION_SCRIPT;
+
+    static {
+        MIGRATE_SESSION_SCRIPT = new DefaultRedisScript<>();
+        MIGRATE_SESSION_SCRIPT.setLocation(new ClassPathResource("lua/migrateSession.lua"));
+        MIGRATE_SESSION_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisUtil redisUtil;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 本地缓存的最大会话数
+    @Value("${hmdp.session.local-maximum-size:10000}")
+    private long localMaximumSize;
+
+    // 本地缓存的过期时间，登出时会通过发布订阅立即清除
+    @Value("${hmdp.session.local-ttl-seconds:5}")
+    private long localTtlSeconds;
+
+    // 距离上次续期超过该时间才续期
+    @Value("${hmdp.session.refresh-interval-minutes:60}")
+    private long refreshIntervalMinutes;
+
+    private final long ttlMillis = RedisConstants.LOGIN_USER_TTL_TIMEUNIT.toMillis(RedisConstants.LOGIN_USER_TTL);
+
+    private NearCache<Session> sessions;
+
+    // 等待续期的会话 key
+    private final Map<String, Session> pendingRefresh = new ConcurrentHashMap<>();
+
+    /**
+     * 本地缓存的会话，expireAt 为 redis 中会话的过期时刻
+     */
+    private static class Session {
+        private final UserDTO user;
+        private volatile long expireAt;
+
+        private Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        sessions = new NearCache<>("session", localMaximumSize, Duration.ofSeconds(localTtlSeconds),
+                stringRedisTemplate, redisMessageListenerContainer, meterRegistry);
+    }
+
+    /**
+     * 保存会话
+     */
+    public void save(String tokenId, UserDTO user) {
+        byte[] key = bytes(RedisConstants.LOGIN_USER_KEY + tokenId);
+        Map<byte[], byte[]> fields = new HashMap<>();
+        toFields(user).forEach((field, value) -> fields.put(bytes(field), bytes(value)));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMSet(key, fields);
+            connection.keyCommands().pExpire(key, ttlMillis);
+            return null;
+        });
+    }
+
+    /**
+     * 查询会话，需要续期时记录下来，由定时任务批量续期
+     * @return 会话不存在时返回 null
+     */
+    public UserDTO get(String tokenId) {
+        Session session = sessions.get(RedisConstants.LOGIN_USER_KEY + tokenId, this::load);
+        if (session == null) {
+            return null;
+        }
+        if (session.expireAt - System.currentTimeMillis() < ttlMillis - refreshIntervalMinutes * 60_000) {
+            pendingRefresh.putIfAbsent(RedisConstants.LOGIN_USER_KEY + tokenId, session);
+        }
+        return session.user;
+    }
+
+    /**
+     * 删除会话，并清除所有节点的本地缓存
+     * @return 会话是否存在
+     */
+    public boolean remove(String tokenId) {
+        String key = RedisConstants.LOGIN_USER_KEY + tokenId;
+        pendingRefresh.remove(key);
+        boolean deleted = Boolean.TRUE.equals(stringRedisTemplate.delete(key));
+        sessions.invalidate(key);
+        return deleted;
+    }
+
+    /**
+     * 在一个管道中读取会话与剩余过期时间
+     */
+    @SuppressWarnings("unchecked")
+    private Session load(String key) {
+        byte[] rawKey = bytes(key);
+        List<Object> results;
+        try {
+            results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.hashCommands().hGetAll(rawKey);
+                connection.keyCommands().pTtl(rawKey);
+                return null;
+            });
+        } catch (DataAccessException e) {
+            if (stringRedisTemplate.type(key) != DataType.STRING) {
+                throw e;
+            }
+            return loadLegacy(key);
+        }
+        Map<Object, Object> fields = (Map<Object, Object>) results.get(0);
+        Long pttl = (Long) results.get(1);
+        if (fields == null || fields.isEmpty() || pttl == null || pttl == -2) {
+            return null;
+        }
+        UserDTO user = BeanUtil.fillBeanWithMap(fields, new UserDTO(), false);
+        // 没有过期时间的会话视为需要续期
+        long expireAt = pttl < 0 ? 0 : System.currentTimeMillis() + pttl;
+        return new Session(user, expireAt);
+    }
+
+    /**
+     * 读取旧版字符串会话并改写为 hash
+     * @return 会话不存在或无法解码时返回 null
+     */
+    private Session loadLegacy(String key) {
+        byte[] rawKey = bytes(key);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(rawKey);
+            connection.keyCommands().pTtl(rawKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        byte[] value = (byte[]) results.get(0);
+        Long pttl = (Long) results.get(1);
+        if (value == null || value.length == 0 || pttl == null || pttl == -2) {
+            return null;
+        }
+        User legacy = redisUtil.decode(value, objectMapper.constructType(User.class));
+        if (legacy == null) {
+            return null;
+        }
+        UserDTO user = BeanUtil.copyProperties(legacy, UserDTO.class);
+        long remaining = pttl < 0 ? ttlMillis : pttl;
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(remaining));
+        toFields(user).forEach((field, fieldValue) -> {
+            args.add(field);
+            args.add(fieldValue);
+        });
+        stringRedisTemplate.execute(MIGRATE_SESSION_SCRIPT, List.of(key), args.toArray());
+        log.info("旧版会话已改写为 hash，用户: {}", user.getId());
+        return new Session(user, System.currentTimeMillis() + remaining);
+    }
+
+    /**
+     * 批量续期
+     */
+    @Scheduled(fixedDelayString = "${hmdp.session.refresh-flush-interval-millis:1000}")
+    public void flushRefresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        Map<String, Session> batch = new HashMap<>(pendingRefresh);
+        batch.forEach(pendingRefresh::remove);
+        try {
+            long expireAt = System.currentTimeMillis() + ttlMillis;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                // PEXPIRE 对已删除（登出）的 key 不生效，不会复活会话
+                batch.keySet().forEach(key -> connection.keyCommands().pExpire(bytes(key), ttlMillis));
+                return null;
+            });
+            batch.values().forEach(session -> session.expireAt = expireAt);
+        } catch (Exception e) {
+            log.error("会话续期失败，共 {} 个会话，错误信息: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 会话 hash 的字段，忽略空值
+     */
+    private static Map<String, String> toFields(UserDTO user) {
+        Map<String, String> fields = new HashMap<>();
+        BeanUtil.beanToMap(user, false, true).forEach((field, value) -> fields.put(field, value.toString()));
+        return fields;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
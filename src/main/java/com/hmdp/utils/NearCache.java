@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 本地近端缓存（L1），位于 redis 缓存（L2）之前
+ * <p>
+ * L1 为容量有限、按大小淘汰的 Caffeine 缓存，过期时间很短，用于挡住热点 key 对 redis 的重复访问。
+ * 数据更新后调用 {@link #invalidate(String)}，通过 redis 发布订阅通知所有节点清除该 key。
+ * <P></P>
+ * 监控指标：
+ * cache.level.gets{cache, level=l1|l2, result=hit|miss} 各级缓存的命中情况；
+ * cache.level.latency{cache, level=l1|l2} 各级缓存的访问耗时（l2 包含 redis 未命中后加载的耗时）；
+ * 以及 Caffeine 自带的 cache.size、cache.evictions 等指标。
+ * </p>
+ */
+public class NearCache<V> {
+
+    private final String name;
+    private final Cache<String, V> cache;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Counter l1Hit;
+    private final Counter l1Miss;
+    private final Counter l2Hit;
+    private final Counter l2Miss;
+    private final Timer l1Latency;
+    private final Timer l2Latency;
+
+    /**
+     * @param name 缓存名称，同时用于失效通知频道与监控指标
+     * @param maximumSize 本地最多缓存的条目数
+     * @param ttl 本地缓存的过期时间
+     */
+    public NearCache(String name, long maximumSize, Duration ttl,
+                     StringRedisTemplate stringRedisTemplate,
+                     RedisMessageListenerContainer redisMessageListenerContainer,
+                     MeterRegistry meterRegistry) {
+        this.name = name;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+
+        l1Hit = gets(meterRegistry, "l1", "hit");
+        l1Miss = gets(meterRegistry, "l1", "miss");
+        l2Hit = gets(meterRegistry, "l2", "hit");
+        l2Miss = gets(meterRegistry, "l2", "miss");
+        l1Latency = latency(meterRegistry, "l1");
+        l2Latency = latency(meterRegistry, "l2");
+
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> cache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL + name));
+    }
+
+    /**
+     * 先查本地缓存，未命中时通过 loader 查询 redis（以及 redis 未命中后的重建逻辑），非 null 的结果写入本地缓存
+     * @param key 缓存 key
+     * @param loader 二级缓存的查询逻辑
+     */
+    public V get(String key, Function<String, V> loader) {
+        long begin = System.nanoTime();
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            l1Hit.increment();
+            l1Latency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            return value;
+        }
+        l1Miss.increment();
+
+        begin = System.nanoTime();
+        value = loader.apply(key);
+        l2Latency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        if (value == null) {
+            l2Miss.increment();
+            return null;
+        }
+        l2Hit.increment();
+        cache.put(key, value);
+        return value;
+    }
+
+    /**
+     * 清除本节点以及其他所有节点上的 key
+     */
+    public void invalidate(String key) {
+        cache.invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL + name, key);
+    }
+
+    private Counter gets(MeterRegistry meterRegistry, String level, String result) {
+        return Counter.builder("cache.level.gets")
+                .tag("cache", name)
+                .tag("level", level)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Timer latency(MeterRegistry meterRegistry, String level) {
+        return Timer.builder("cache.level.latency")
+                .tag("cache", name)
+                .tag("level", level)
+                .register(meterRegistry);
+    }
+}
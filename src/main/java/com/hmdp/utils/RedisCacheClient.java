@@ -1,16 +1,52 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * 利用 redis 作为缓存，缓解数据库压力。同时实现了实现了如下安全防护功能：
- * 缓存击穿：多次无效查询。-》 缓存短生命周期空对象
+ * 缓存穿透：多次无效查询。-》 缓存短生命周期空对象
  * 缓存雪崩：热点数据同时过期/redis宕机。 -》 随机化TTL / redis 集群（未实现）
  * 缓存击穿：高并发访问、且重建困难的数据失效。  -》 使用互斥锁 / 逻辑过期
+ * <P></P>
+ * 另外，同一节点上对同一个 key 的并发未命中会合并为一次加载（single-flight），其他请求等待并共享结果。
+ * <P></P>
+ * 逻辑过期的重建任务进入有界队列，同一个 key 在本节点同时只会排队一个任务，并且只有拿到 redis 互斥锁的节点才会提交；
+ * 锁由重建任务在完成后释放，因此每个 key 在一个过期周期内只会查询一次数据库。队列满时放弃本次重建，继续返回旧数据。
+ * 监控指标：cache.rebuild{result=submitted|deduplicated|locked|rejected|failed}、cache.rebuild.latency、cache.rebuild.queue.size。
  *
  * 依赖 RedisUtil、RedisData 实现。
  * @author fzy
@@ -19,27 +55,421 @@ import java.util.function.Function;
  */
 
 @Component
+@Slf4j
 public class RedisCacheClient {
 
+    // 空值缓存的内容
+    private static final String NULL_VALUE = "";
+
+    // 未获取到互斥锁时的重试间隔
+    private static final long LOCK_RETRY_MILLIS = 50;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
     @Resource
     RedisUtil redisUtil;
 
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    ObjectMapper objectMapper;
+
+    @Resource
+    MeterRegistry meterRegistry;
+
+    // 逻辑过期重建缓存的线程数
+    @Value("${hmdp.cache.rebuild.threads:4}")
+    private int rebuildThreads;
+
+    // 重建任务队列的容量，队列满时放弃重建
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int rebuildQueueCapacity;
+
+    // 是否使用虚拟线程执行重建任务，Java 21 以下忽略
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // 逻辑过期后异步重建缓存的线程池
+    private ThreadPoolExecutor cacheRebuildExecutor;
+
+    // 本节点上已经提交、尚未完成的重建任务
+    private final Set<String> pendingRebuilds = ConcurrentHashMap.newKeySet();
+
+    private Counter rebuildSubmitted;
+    private Counter rebuildDeduplicated;
+    private Counter rebuildLocked;
+    private Counter rebuildRejected;
+    private Counter rebuildFailed;
+    private Timer rebuildLatency;
+
+    // 本节点上正在进行的加载，key 为缓存 key
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 线程数限制的是同时查询数据库的重建任务数，使用虚拟线程时也保持有界
+        cacheRebuildExecutor = new ThreadPoolExecutor(rebuildThreads, rebuildThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(rebuildQueueCapacity), VirtualThreads.threadFactory("cache-rebuild-", virtualThreads),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        rebuildSubmitted = rebuildCounter("submitted");
+        rebuildDeduplicated = rebuildCounter("deduplicated");
+        rebuildLocked = rebuildCounter("locked");
+        rebuildRejected = rebuildCounter("rejected");
+        rebuildFailed = rebuildCounter("failed");
+        rebuildLatency = Timer.builder("cache.rebuild.latency").register(meterRegistry);
+        Gauge.builder("cache.rebuild.queue.size", cacheRebuildExecutor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        cacheRebuildExecutor.shutdown();
+    }
+
+    /**
+     * 写入缓存，过期时间在 [0.9, 1.1] 倍之间随机，避免大量 key 同时过期
+     */
+    public void set(String key, Object value, long time, TimeUnit unit) {
+        redisUtil.setObject(key, value, jitter(unit.toMillis(time)), TimeUnit.MILLISECONDS);
+    }
+
     /**
-     * 通过互斥锁的方式
-     * @param keyPrefix
-     * @param id
-     * @param type
-     * @param dbFuc
-     * @param time
-     * @param unit
-     * @return
-     * @param <R>
-     * @param <T>
+     * 写入逻辑过期的缓存，redis 中的 key 本身不过期
+     */
+    public void setWithLogicalExpire(String key, Object value, long time, TimeUnit unit) {
+        redisUtil.setObject(key, logicalExpireData(value, time, unit));
+    }
+
+    /**
+     * 包装为逻辑过期的缓存数据，过期时间同样随机化，供批量写入时使用
+     */
+    public <R> RedisData<R> logicalExpireData(R value, long time, TimeUnit unit) {
+        RedisData<R> redisData = new RedisData<>();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(jitter(unit.toMillis(time)))));
+        return redisData;
+    }
+
+    /**
+     * 缓存空值，防止缓存穿透
+     */
+    private void setNull(String key) {
+        redisUtil.set(key, NULL_VALUE, RedisConstants.CACHE_NULL_TTL, RedisConstants.CACHE_NULL_TTL_TIMEUNIT);
+    }
+
+    /**
+     * 缓存空值解决缓存穿透，未命中时直接查询数据库
+     * @param keyPrefix key 前缀
+     * @param id 数据 id
+     * @param type 数据类型
+     * @param dbFallback 数据库查询逻辑
+     * @return 数据不存在时返回 null
+     */
+    public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                          Long time, TimeUnit unit) {
+        return queryWithPassThrough(keyPrefix + id, objectMapper.constructType(type), () -> dbFallback.apply(id), time, unit);
+    }
+
+    public <R> R queryWithPassThrough(String key, JavaType type, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        byte[] raw = redisUtil.getBytes(key);
+        if (raw != null) {
+            return isNull(raw) ? null : redisUtil.decode(raw, type);
+        }
+        return singleFlight(key, () -> loadAndCache(key, dbFallback, time, unit));
+    }
+
+    /**
+     * 批量查询，缓存空值解决缓存穿透
+     * <p>
+     * 一次 MGET 读取全部 key，未命中的 id 通过一次 dbFallback 查询，结果与空值在管道中批量写回。
+     * </p>
+     * @param dbFallback 按 id 批量查询数据库，返回 id -> 数据，不存在的 id 不在结果中
+     * @return id -> 数据，不存在的 id 不在结果中
+     */
+    public <R, ID> Map<ID, R> queryAllWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                      Function<Collection<ID>, Map<ID, R>> dbFallback,
+                                                      Long time, TimeUnit unit) {
+        Map<ID, R> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<ID> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<byte[]> cached = redisUtil.multiGetBytes(distinct.stream().map(id -> keyPrefix + id).toList());
+        JavaType javaType = objectMapper.constructType(type);
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            byte[] raw = cached.get(i);
+            if (raw == null) {
+                misses.add(distinct.get(i));
+            } else if (!isNull(raw)) {
+                R value = redisUtil.decode(raw, javaType);
+                if (value == null) {
+                    misses.add(distinct.get(i));
+                } else {
+                    result.put(distinct.get(i), value);
+                }
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        Map<ID, R> loaded = dbFallback.apply(misses);
+        Map<String, byte[]> values = new HashMap<>();
+        Map<String, byte[]> nulls = new HashMap<>();
+        for (ID id : misses) {
+            R value = loaded.get(id);
+            if (value == null) {
+                nulls.put(keyPrefix + id, new byte[0]);
+            } else {
+                values.put(keyPrefix + id, redisUtil.encode(value));
+                result.put(id, value);
+            }
+        }
+        redisUtil.multiSetBytes(values, jitter(unit.toMillis(time)), TimeUnit.MILLISECONDS);
+        redisUtil.multiSetBytes(nulls, RedisConstants.CACHE_NULL_TTL, RedisConstants.CACHE_NULL_TTL_TIMEUNIT);
+        return result;
+    }
+
+    /**
+     * 通过互斥锁的方式解决缓存击穿，同时缓存空值解决缓存穿透
+     * @param keyPrefix key 前缀
+     * @param id 数据 id
+     * @param type 数据类型
+     * @param dbFuc 数据库查询逻辑
+     * @param time 缓存时间
+     * @param unit 时间单位
+     * @return 数据不存在时返回 null
+     * @param <R> 数据类型
+     * @param <T> id 类型
      */
     public <R,T> R getByIdWithMutex(String keyPrefix, T id, Class<R> type, Function<T, R> dbFuc, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix + id, objectMapper.constructType(type), () -> dbFuc.apply(id), time, unit);
+    }
+
+    public <R> R queryWithMutex(String key, JavaType type, Supplier<R> dbFallback, Long time, TimeUnit unit) {
         // 从redis中查
-        // 尝试获取锁
-        // 获取成功，需要再次查redis，然后
-        return null;
+        byte[] raw = redisUtil.getBytes(key);
+        if (raw != null) {
+            return isNull(raw) ? null : redisUtil.decode(raw, type);
+        }
+        // 同一节点只有一个线程去竞争锁，其他线程等待它的结果
+        return singleFlight(key, () -> {
+            String lockKey = RedisConstants.LOCK_KEY + key;
+            while (true) {
+                // 尝试获取锁
+                String token = tryLock(lockKey);
+                if (token != null) {
+                    try {
+                        // 获取成功，需要再次查redis，其他节点可能已经重建完成
+                        byte[] cached = redisUtil.getBytesDirect(key);
+                        if (cached != null) {
+                            return isNull(cached) ? null : redisUtil.decode(cached, type);
+                        }
+                        return loadAndCache(key, dbFallback, time, unit);
+                    } finally {
+                        unlock(lockKey, token);
+                    }
+                }
+                // 获取失败，等待其他节点重建后再查redis
+                sleep();
+                byte[] cached = redisUtil.getBytesDirect(key);
+                if (cached != null) {
+                    return isNull(cached) ? null : redisUtil.decode(cached, type);
+                }
+            }
+        });
+    }
+
+    /**
+     * 通过逻辑过期的方式解决缓存击穿
+     * <p>
+     * 数据过期后仍然返回旧数据，由获取到锁的线程异步重建，锁在重建完成后才释放；
+     * 缓存中没有数据时（冷启动）同步加载。
+     * </p>
+     * @return 数据不存在时返回 null
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                            Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        JavaType dataType = objectMapper.getTypeFactory().constructParametricType(RedisData.class, type);
+        byte[] raw = redisUtil.getBytes(key);
+        if (raw == null) {
+            // 冷启动，同步加载
+            return singleFlight(key, () -> {
+                byte[] cached = redisUtil.getBytesDirect(key);
+                if (cached != null) {
+                    RedisData<R> data = isNull(cached) ? null : redisUtil.decode(cached, dataType);
+                    return data == null ? null : data.getData();
+                }
+                R value = dbFallback.apply(id);
+                if (value == null) {
+                    setNull(key);
+                } else {
+                    setWithLogicalExpire(key, value, time, unit);
+                }
+                return value;
+            });
+        }
+        if (isNull(raw)) {
+            return null;
+        }
+        RedisData<R> redisData = redisUtil.decode(raw, dataType);
+        if (redisData == null) {
+            return null;
+        }
+        if (redisData.getExpireTime().isBefore(LocalDateTime.now())) {
+            // 已过期，提交异步重建，当前请求返回旧数据
+            submitRebuild(key, () -> {
+                // 拿到锁之前其他节点可能已经重建完成
+                byte[] cached = redisUtil.getBytesDirect(key);
+                RedisData<R> current = cached == null || isNull(cached) ? null : redisUtil.decode(cached, dataType);
+                if (current != null && current.getExpireTime().isAfter(LocalDateTime.now())) {
+                    return;
+                }
+                R value = dbFallback.apply(id);
+                if (value == null) {
+                    setNull(key);
+                } else {
+                    setWithLogicalExpire(key, value, time, unit);
+                }
+            });
+        }
+        // 返回旧数据
+        return redisData.getData();
+    }
+
+    /**
+     * 提交逻辑过期的重建任务：本节点已有该 key 的任务时直接返回；否则获取 redis 互斥锁，
+     * 获取成功才提交，锁在任务执行完成后释放，其他节点在此期间不会重复重建
+     */
+    private void submitRebuild(String key, Runnable rebuild) {
+        if (!pendingRebuilds.add(key)) {
+            rebuildDeduplicated.increment();
+            return;
+        }
+        String lockKey = RedisConstants.LOCK_KEY + key;
+        String token = null;
+        try {
+            token = tryLock(lockKey);
+            if (token == null) {
+                // 其他节点正在重建
+                rebuildLocked.increment();
+                pendingRebuilds.remove(key);
+                return;
+            }
+            long submitTime = System.nanoTime();
+            String lockToken = token;
+            cacheRebuildExecutor.execute(() -> {
+                try {
+                    rebuild.run();
+                } catch (Exception e) {
+                    rebuildFailed.increment();
+                    log.error("重建缓存失败，key: {}, 错误信息: {}", key, e.getMessage());
+                } finally {
+                    pendingRebuilds.remove(key);
+                    unlock(lockKey, lockToken);
+                    rebuildLatency.record(System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
+                }
+            });
+            rebuildSubmitted.increment();
+        } catch (RejectedExecutionException e) {
+            // 队列已满，放弃本次重建，之后的请求会再次尝试
+            rebuildRejected.increment();
+            pendingRebuilds.remove(key);
+            unlock(lockKey, token);
+        } catch (RuntimeException e) {
+            pendingRebuilds.remove(key);
+            if (token != null) {
+                unlock(lockKey, token);
+            }
+            log.error("提交缓存重建任务失败，key: {}, 错误信息: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * 查询数据库并写入缓存，数据不存在时缓存空值
+     */
+    private <R> R loadAndCache(String key, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        R value = dbFallback.get();
+        if (value == null) {
+            setNull(key);
+        } else {
+            set(key, value, time, unit);
+        }
+        return value;
+    }
+
+    /**
+     * 同一个 key 同时只有一个线程执行 loader，其他线程等待并共享其结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, future);
+        if (running != null) {
+            try {
+                return (R) running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        try {
+            R value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * 空值缓存写入的是空字符串，读到的是空字节数组
+     */
+    private static boolean isNull(byte[] cached) {
+        return cached.length == 0;
+    }
+
+    /**
+     * 获取互斥锁，锁的值为本次获取生成的随机标识
+     * @return 获取成功返回标识，释放时传入；失败返回 null
+     */
+    private String tryLock(String lockKey) {
+        String token = IdUtil.fastSimpleUUID();
+        return Boolean.TRUE.equals(redisUtil.setIfAbsent(lockKey, token,
+                RedisConstants.LOCK_SHOP_TTL, RedisConstants.LOCK_SHOP_TTL_TIMEUNIT)) ? token : null;
+    }
+
+    /**
+     * 通过 unlock.lua 释放互斥锁，只有标识一致时才删除：重建超过锁的有效期后，锁可能已被其他节点获取
+     */
+    private void unlock(String lockKey, String token) {
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, List.of(lockKey), token);
+    }
+
+    private Counter rebuildCounter(String result) {
+        return Counter.builder("cache.rebuild").tag("result", result).register(meterRegistry);
+    }
+
+    private static long jitter(long millis) {
+        return (long) (millis * RandomUtil.randomDouble(0.9, 1.1));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(LOCK_RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存重建时被中断", e);
+        }
     }
 }
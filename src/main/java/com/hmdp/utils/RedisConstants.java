@@ -12,6 +12,9 @@ public class RedisConstants {
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 7L;
     public static final TimeUnit LOGIN_USER_TTL_TIMEUNIT = TimeUnit.DAYS;
+    // 已注销的无状态 token（zset，member 为 jti，score 为 token 的过期时刻），以及注销通知频道
+    public static final String LOGIN_DENYLIST_KEY = "login:denylist";
+    public static final String LOGIN_DENYLIST_CHANNEL = "login:denylist:revoked";
 
     // 空值缓存
     public static final Long CACHE_NULL_TTL = 2L;
@@ -31,21 +34,82 @@ public class RedisConstants {
     public static final Long LOCK_SHOP_TTL = 10L;
     public static final TimeUnit LOCK_SHOP_TTL_TIMEUNIT = TimeUnit.SECONDS;
 
+    // 缓存重建互斥锁前缀，后接缓存 key
+    public static final String LOCK_KEY = "lock:";
+
+    // 用户公开信息（UserDTO）缓存
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final TimeUnit CACHE_USER_TTL_TIMEUNIT = TimeUnit.MINUTES;
+
+    // 用户详情（UserInfo）缓存，粉丝数、关注数读取时用 redis 中的计数覆盖
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final Long CACHE_USER_INFO_TTL = 30L;
+    public static final TimeUnit CACHE_USER_INFO_TTL_TIMEUNIT = TimeUnit.MINUTES;
+
+    // 博文缓存
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 10L;
+    public static final TimeUnit CACHE_BLOG_TTL_TIMEUNIT = TimeUnit.MINUTES;
+
+    // 布隆过滤器，bloom:{entity} 中记录当前版本的过滤器名称 bloom:{entity}:{version}
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+
+    // 热点 key 的集群汇总（zset），后接时间段
+    public static final String HOT_KEY_KEY = "hotkey:";
+
     // 逻辑删除
     public static final String CACHE_REDIS_DATA_KEY = "cache:redisData:";
 
+    // 本地缓存失效通知频道前缀，后接缓存名称，消息内容为失效的 key
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate:";
+
     // 秒杀优惠券
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "seckill:order:"; // 新增：秒杀订单KEY
+    // 分段模式下 home 分段库存不足、正在其他分段扣减库存的用户，防止同一用户的并发请求重复扣减，后接 {voucherId:分段}:userId
+    public static final String SECKILL_PENDING_KEY = "seckill:pending:";
+    public static final Long SECKILL_PENDING_TTL = 10L;
+    public static final TimeUnit SECKILL_PENDING_TTL_TIMEUNIT = TimeUnit.SECONDS;
+    // 秒杀券本地状态（售罄、活动时间）的失效通知频道
+    public static final String SECKILL_VOUCHER_STATE_CHANNEL = "seckill:voucher:state";
+
+    // 秒杀订单消息队列（redis stream）及其消费者组
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    // 秒杀订单死信队列，以及处理失败的消息的失败原因（hash，field 为消息 id）
+    public static final String SECKILL_ORDER_DLQ_STREAM = "stream.orders.dlq";
+    public static final String SECKILL_ORDER_FAILURE_KEY = "stream.orders.failure";
 
     // 博客 用户点赞
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    // 博客点赞数（hash，field 为博文 id），点赞数有变化、尚未写入数据库的博文 id，正在写入数据库的博文 id，以及写入失败而停放的博文 id
+    public static final String BLOG_LIKE_COUNT_KEY = "blog:like:count";
+    public static final String BLOG_LIKE_DIRTY_KEY = "blog:like:dirty";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:flushing";
+    public static final String BLOG_LIKE_PARKED_KEY = "blog:like:parked";
+    public static final String BLOG_HOT_KEY = "blog:hot";
 
     // 关注
     public static final String FOLLOW_USER_KEY = "follow:";  // 存储用户和关注用户的关系
+    // 用户粉丝数、关注数（hash，field 为用户 id），计数有变化、尚未写入数据库的用户 id，正在写入数据库的用户 id，以及写入失败而停放的用户 id
+    public static final String USER_FANS_COUNT_KEY = "user:count:fans";
+    public static final String USER_FOLLOWEE_COUNT_KEY = "user:count:followee";
+    public static final String USER_COUNT_DIRTY_KEY = "user:count:dirty";
+    public static final String USER_COUNT_FLUSHING_KEY = "user:count:flushing";
+    public static final String USER_COUNT_PARKED_KEY = "user:count:parked";
+    // 用户计数的版本号（hash，field 为用户 id），关注、取关修改计数时加一，重新统计时用于判断期间是否有并发的修改
+    public static final String USER_COUNT_VERSION_KEY = "user:count:version";
 
     // feed 流。用于缓存接收博文
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_FANOUT_STREAM = "stream.feed.fanout";
+    public static final String FEED_FANOUT_GROUP = "g1";
+    public static final String FEED_FANOUT_CHECKPOINT_KEY = "feed:fanout:checkpoint";
+    public static final String FEED_FANOUT_DLQ_STREAM = "stream.feed.fanout.dlq";
+    public static final String FEED_FANOUT_FAILURE_KEY = "stream.feed.fanout.failure";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big-authors";
 
     // 分类存储商户的位置信息
     public static final String SHOP_GEO_KEY = "shop:geo:";
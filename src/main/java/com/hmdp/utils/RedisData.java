@@ -1,21 +1,19 @@
 package com.hmdp.utils;
 
-import com.fasterxml.jackson.annotation.JsonSubTypes;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.hmdp.entity.Shop;
 import lombok.Data;
 
 import java.time.LocalDateTime;
 
+/**
+ * 带逻辑过期时间的缓存数据
+ * <p>
+ * 通过泛型声明数据类型，读取时传入具体类型（例如 RedisData&lt;Shop&gt;），不再需要在 JSON 中记录类型信息。
+ * 旧数据中的 "@type" 字段会被忽略。
+ * </p>
+ */
 @Data
-public class RedisData {
+public class RedisData<T> {
     private LocalDateTime expireTime;
 
-    @JsonTypeInfo(
-            use = JsonTypeInfo.Id.NAME
-    )
-    @JsonSubTypes({
-            @JsonSubTypes.Type(value = Shop.class, name = "shop"),
-    })
-    private Object data;
+    private T data;
 }
@@ -1,8 +1,10 @@
 package com.hmdp.utils;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
@@ -19,11 +21,18 @@ public class RedisIdWorker {
     public static final long BEGIN_TIMESTAMP = LocalDateTime.of(2025, 1, 1, 0, 0, 0)
             .toEpochSecond(ZoneOffset.UTC);
     public static final int COUNT_BITS = 32; // 序列号占用的位数
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyy:MM:dd");
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    // 序列号通过号段在本地分配，每个号段只访问一次 redis
+    private final SegmentIdAllocator allocator;
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment-step:10000}") long segmentStep) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.allocator = new SegmentIdAllocator(
+                (counterKey, step) -> stringRedisTemplate.opsForValue().increment(counterKey, step), segmentStep);
     }
 
     /**
@@ -34,13 +43,12 @@ public class RedisIdWorker {
      */
     public long nextId(String key) {
         // 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long epochSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long epochSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
         long timeStamp = epochSecond - BEGIN_TIMESTAMP;
 
-        // 通过 redis 生成序号
-        String date = now.format(DateTimeFormatter.ofPattern("yyy:MM:dd"));
-        Long count = stringRedisTemplate.opsForValue().increment("counter:" + key + ":" + date);
+        // 从本地号段中分配序号，计数器仍然按天划分
+        long count = allocator.nextSequence(key, Math.floorDiv(epochSecond, 86400),
+                day -> "counter:" + key + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
 
         return timeStamp << COUNT_BITS | count;
     }
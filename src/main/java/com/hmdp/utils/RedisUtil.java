@@ -1,21 +1,29 @@
 package com.hmdp.utils;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Redis 工具类
- * 封装 StringRedisTemplate，提供更便捷的 Redis 操作方法，包括对象的 JSON 序列化存储。
+ * 封装 StringRedisTemplate，提供更便捷的 Redis 操作方法，包括对象的序列化存储。
+ * 对象值的编码由 {@link RedisValueCodec} 决定（默认 JSON，可切换为 Smile 并压缩），读写对象时按字节访问 redis。
  */
 @Component
 @Slf4j
@@ -25,31 +33,31 @@ public class RedisUtil {
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private ObjectMapper objectMapper; // 用于 JSON 序列化和反序列化
+    private RedisTemplate<String, byte[]> bytesRedisTemplate; // 按字节读写对象值
 
-    // ------------------- Object 类型操作 (JSON序列化) -------------------
+    @Resource
+    private ObjectMapper objectMapper; // 用于构建泛型类型
+
+    @Resource
+    private RedisValueCodec redisValueCodec; // 对象值的编解码
+
+    @Resource
+    private HotKeyDetector hotKeyDetector; // 热点 key 探测，热点 key 的读取走本地缓存
+
+    // ------------------- Object 类型操作 (序列化) -------------------
 
     /**
-     * 存储对象 (JSON序列化)
+     * 存储对象
      *
      * @param key    键
      * @param value  对象
      */
     public <T> void setObject(String key, T value) {
-        if (key == null || value == null) {
-            return;
-        }
-        try {
-            String jsonValue = objectMapper.writeValueAsString(value);
-            stringRedisTemplate.opsForValue().set(key, jsonValue);
-        } catch (JsonProcessingException e) {
-            // 实际项目中应该记录日志或抛出自定义异常
-            throw new RuntimeException("Redis setObject 序列化失败: " + e.getMessage(), e);
-        }
+        setObject(key, value, 0, TimeUnit.SECONDS);
     }
 
     /**
-     * 存储对象并设置过期时间 (JSON序列化)
+     * 存储对象并设置过期时间
      *
      * @param key     键
      * @param value   对象
@@ -60,31 +68,28 @@ public class RedisUtil {
     }
 
     /**
-     * 存储对象并设置过期时间 (JSON序列化)
+     * 存储对象并设置过期时间
      *
      * @param key     键
      * @param value   对象
-     * @param timeout 时间
+     * @param timeout 时间，小于等于 0 时不过期
      * @param unit    时间单位
      */
     public <T> void setObject(String key, T value, long timeout, TimeUnit unit) {
         if (key == null || value == null) {
             return;
         }
-        try {
-            String jsonValue = objectMapper.writeValueAsString(value);
-            if (timeout > 0) {
-                stringRedisTemplate.opsForValue().set(key, jsonValue, timeout, unit);
-            } else {
-                stringRedisTemplate.opsForValue().set(key, jsonValue);
-            }
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Redis setObjectWithExpire 序列化失败: " + e.getMessage(), e);
+        byte[] bytes = redisValueCodec.encode(value);
+        if (timeout > 0) {
+            bytesRedisTemplate.opsForValue().set(key, bytes, timeout, unit);
+        } else {
+            bytesRedisTemplate.opsForValue().set(key, bytes);
         }
+        hotKeyDetector.invalidate(key);
     }
 
     /**
-     * 获取对象 (JSON反序列化)
+     * 获取对象
      *
      * @param key   键
      * @param clazz 对象的Class类型
@@ -94,40 +99,134 @@ public class RedisUtil {
         if (key == null || clazz == null) {
             return null;
         }
-        String jsonValue = stringRedisTemplate.opsForValue().get(key);
-        if (!StringUtils.hasText(jsonValue)) {
+        return getObject(key, objectMapper.constructType(clazz));
+    }
+
+    /**
+     * 获取对象，用于泛型类型，例如 RedisData&lt;Shop&gt;、List&lt;ShopType&gt;
+     *
+     * @param key  键
+     * @param type 对象的类型，可通过 objectMapper.getTypeFactory() 构建
+     * @return 对象实例，如果key不存在或反序列化失败则返回null
+     */
+    public <T> T getObject(String key, JavaType type) {
+        if (key == null || type == null) {
+            return null;
+        }
+        byte[] bytes = getBytes(key);
+        if (bytes == null || bytes.length == 0) {
             return null;
         }
+        return decode(bytes, type);
+    }
+
+    /**
+     * 反序列化对象值
+     *
+     * @return 对象实例，反序列化失败则返回null
+     */
+    public <T> T decode(byte[] bytes, JavaType type) {
         try {
-            return objectMapper.readValue(jsonValue, clazz);
-        } catch (JsonProcessingException e) {
-            log.error("Redis getObject 反序列化失败: {} for key: {} and value: {}", e.getMessage(), key, jsonValue);
+            return redisValueCodec.decode(bytes, type);
+        } catch (IOException e) {
+            log.error("Redis decode 反序列化失败: {} for type: {}", e.getMessage(), type);
             return null;
         }
     }
 
     /**
-     * 获取对象列表 (JSON反序列化)
+     * 获取对象列表
      *
      * @param key   键
      * @param elementClazz 列表中元素的Class类型
-     * @return 对象列表实例，如果key不存在或反序列化失败则返回null或空List
+     * @return 对象列表实例，如果key不存在或反序列化失败则返回null
      */
     public <T> List<T> getList(String key, Class<T> elementClazz) {
         if (key == null || elementClazz == null) {
             return null;
         }
-        String jsonValue = stringRedisTemplate.opsForValue().get(key);
-        if (!StringUtils.hasText(jsonValue)) {
-            return null; // 或者 Collections.emptyList();
+        return getObject(key, objectMapper.getTypeFactory().constructCollectionType(List.class, elementClazz));
+    }
+
+    /**
+     * 按字节读取 key 的值，热点 key 优先从本地缓存读取
+     */
+    public byte[] getBytes(String key) {
+        byte[] value = hotKeyDetector.getLocal(key);
+        if (value != null) {
+            // 本地命中也计入读取次数，否则热点 key 在窗口滑过后会被降级
+            hotKeyDetector.record(key, null);
+            return value;
         }
-        try {
-            // objectMapper.getTypeFactory().constructCollectionType(List.class, elementClazz) 用于构建 List<T> 的类型
-            return objectMapper.readValue(jsonValue, objectMapper.getTypeFactory().constructCollectionType(List.class, elementClazz));
-        } catch (JsonProcessingException e) {
-            log.error("Redis getList 反序列化失败: {} for key: {} and value: {}", e.getMessage(), key, jsonValue);
-            return null; // 或者 Collections.emptyList();
+        value = bytesRedisTemplate.opsForValue().get(key);
+        hotKeyDetector.record(key, value);
+        return value;
+    }
+
+    /**
+     * 直接从 redis 按字节读取，不经过热点 key 的本地缓存，也不计入读取次数
+     * <p>
+     * 用于拿到锁后的再次检查等需要看到 redis 最新值的场景，本地缓存中可能是其他节点重建或删除前的旧值。
+     * </p>
+     */
+    public byte[] getBytesDirect(String key) {
+        return bytesRedisTemplate.opsForValue().get(key);
+    }
+
+    /**
+     * 批量按字节读取（MGET），热点 key 优先从本地缓存读取
+     * @return 与 keys 一一对应，不存在的 key 对应 null
+     */
+    public List<byte[]> multiGetBytes(List<String> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] value = hotKeyDetector.getLocal(keys.get(i));
+            values.add(value);
+            if (value == null) {
+                missIndexes.add(i);
+            } else {
+                hotKeyDetector.record(keys.get(i), null);
+            }
+        }
+        if (missIndexes.isEmpty()) {
+            return values;
         }
+        List<String> missKeys = missIndexes.stream().map(keys::get).toList();
+        List<byte[]> fetched = bytesRedisTemplate.opsForValue().multiGet(missKeys);
+        for (int i = 0; i < missKeys.size(); i++) {
+            byte[] value = fetched == null ? null : fetched.get(i);
+            values.set(missIndexes.get(i), value);
+            hotKeyDetector.record(missKeys.get(i), value);
+        }
+        return values;
+    }
+
+    /**
+     * 在一个管道中批量写入并设置过期时间
+     *
+     * @param values  键 -> 值，值为空数组时写入空字符串
+     * @param timeout 时间
+     * @param unit    时间单位
+     */
+    public void multiSetBytes(Map<String, byte[]> values, long timeout, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Expiration expiration = Expiration.milliseconds(unit.toMillis(timeout));
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands()
+                    .set(key.getBytes(StandardCharsets.UTF_8), value, expiration, RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        values.keySet().forEach(hotKeyDetector::invalidate);
+    }
+
+    /**
+     * 按配置的格式编码对象值，用于批量写入
+     */
+    public byte[] encode(Object value) {
+        return redisValueCodec.encode(value);
     }
 
     // ------------------- 基础操作方法 -------------------
@@ -143,6 +242,7 @@ public class RedisUtil {
      * 删除key
      */
     public Boolean delete(String key) {
+        hotKeyDetector.invalidate(key);
         return stringRedisTemplate.delete(key);
     }
 
@@ -150,6 +250,7 @@ public class RedisUtil {
      * 批量删除key
      */
     public Long delete(Collection<String> keys) {
+        keys.forEach(hotKeyDetector::invalidate);
         return stringRedisTemplate.delete(keys);
     }
 
@@ -157,6 +258,7 @@ public class RedisUtil {
      * 设置过期时间
      */
     public Boolean expire(String key, long timeout, TimeUnit unit) {
+        hotKeyDetector.invalidate(key);
         return stringRedisTemplate.expire(key, timeout, unit);
     }
 
@@ -180,7 +282,8 @@ public class RedisUtil {
      * 普通缓存获取
      */
     public String get(String key) {
-        return stringRedisTemplate.opsForValue().get(key);
+        byte[] value = getBytes(key);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
     }
 
     /**
@@ -188,6 +291,7 @@ public class RedisUtil {
      */
     public void set(String key, String value) {
         stringRedisTemplate.opsForValue().set(key, value);
+        hotKeyDetector.invalidate(key);
     }
 
     /**
@@ -195,33 +299,51 @@ public class RedisUtil {
      */
     public void set(String key, String value, long timeout, TimeUnit unit) {
         stringRedisTemplate.opsForValue().set(key, value, timeout, unit);
+        hotKeyDetector.invalidate(key);
+    }
+
+    /**
+     * key 不存在时放入并设置时间，常用于分布式锁
+     */
+    public Boolean setIfAbsent(String key, String value, long timeout, TimeUnit unit) {
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(key, value, timeout, unit);
+        hotKeyDetector.invalidate(key);
+        return success;
     }
 
     /**
      * 递增
      */
     public Long increment(String key) {
-        return stringRedisTemplate.opsForValue().increment(key);
+        Long result = stringRedisTemplate.opsForValue().increment(key);
+        hotKeyDetector.invalidate(key);
+        return result;
     }
 
     /**
      * 递增指定值
      */
     public Long increment(String key, long delta) {
-        return stringRedisTemplate.opsForValue().increment(key, delta);
+        Long result = stringRedisTemplate.opsForValue().increment(key, delta);
+        hotKeyDetector.invalidate(key);
+        return result;
     }
 
     /**
      * 递减
      */
     public Long decrement(String key) {
-        return stringRedisTemplate.opsForValue().decrement(key);
+        Long result = stringRedisTemplate.opsForValue().decrement(key);
+        hotKeyDetector.invalidate(key);
+        return result;
     }
 
     /**
      * 递减指定值
      */
     public Long decrement(String key, long delta) {
-        return stringRedisTemplate.opsForValue().decrement(key, delta);
+        Long result = stringRedisTemplate.opsForValue().decrement(key, delta);
+        hotKeyDetector.invalidate(key);
+        return result;
     }
 }
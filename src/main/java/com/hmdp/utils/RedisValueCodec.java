@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis 对象值的编解码
+ * <p>
+ * 默认使用 JSON 文本，与原来的格式完全一致；可切换为 Smile（二进制 JSON），并对超过阈值的内容做 Deflate 压缩。
+ * 二进制或压缩后的内容带 4 字节头：0xC0 | 头版本 | 格式 | 标志位（bit0 表示已压缩）。
+ * 0xC0 不会出现在 UTF-8 文本的开头，没有头的内容按 JSON 读取，因此旧数据和未切换格式的节点写入的数据都能正常读取。
+ * <P></P>
+ * 滚动切换格式时，先让所有节点升级到能识别头的版本（格式保持 json），再修改 hmdp.redis.codec.format。
+ * </p>
+ */
+@Component
+public class RedisValueCodec {
+
+    // 头的第一个字节
+    private static final byte MAGIC = (byte) 0xC0;
+    // 头版本，头结构变化时递增
+    private static final byte HEADER_VERSION = 1;
+    private static final int HEADER_LENGTH = 4;
+    private static final byte FLAG_DEFLATE = 1;
+
+    public enum Format {
+        JSON, SMILE
+    }
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper;
+    private final Format format;
+    // 编码后超过该字节数时压缩，小于等于 0 表示不压缩
+    private final int compressThreshold;
+
+    @Autowired
+    public RedisValueCodec(ObjectMapper objectMapper,
+                           @Value("${hmdp.redis.codec.format:json}") String format,
+                           @Value("${hmdp.redis.codec.compress-threshold-bytes:0}") int compressThreshold) {
+        this(objectMapper, Format.valueOf(format.toUpperCase()), compressThreshold);
+    }
+
+    /**
+     * @param objectMapper JSON 的 ObjectMapper，Smile 复用其配置与注册的模块
+     */
+    public RedisValueCodec(ObjectMapper objectMapper, Format format, int compressThreshold) {
+        this.jsonMapper = objectMapper;
+        this.smileMapper = objectMapper.copyWith(new SmileFactory());
+        this.format = format;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 按配置的格式编码，JSON 且未压缩时不带头
+     */
+    public byte[] encode(Object value) {
+        byte[] payload;
+        try {
+            payload = mapper(format).writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Redis 编码失败: " + e.getMessage(), e);
+        }
+        boolean compress = compressThreshold > 0 && payload.length > compressThreshold;
+        if (format == Format.JSON && !compress) {
+            return payload;
+        }
+        if (compress) {
+            payload = deflate(payload);
+        }
+        byte[] result = new byte[HEADER_LENGTH + payload.length];
+        result[0] = MAGIC;
+        result[1] = HEADER_VERSION;
+        result[2] = (byte) format.ordinal();
+        result[3] = compress ? FLAG_DEFLATE : 0;
+        System.arraycopy(payload, 0, result, HEADER_LENGTH, payload.length);
+        return result;
+    }
+
+    /**
+     * 按头中记录的格式解码，与当前配置的格式无关
+     */
+    public <T> T decode(byte[] raw, JavaType type) throws IOException {
+        if (raw.length == 0 || raw[0] != MAGIC) {
+            return jsonMapper.readValue(raw, type);
+        }
+        if (raw.length < HEADER_LENGTH || raw[1] != HEADER_VERSION || raw[2] < 0 || raw[2] >= Format.values().length) {
+            throw new IOException("不支持的 redis 值头: " + Arrays.toString(Arrays.copyOf(raw, Math.min(raw.length, HEADER_LENGTH))));
+        }
+        Format payloadFormat = Format.values()[raw[2]];
+        byte[] payload = Arrays.copyOfRange(raw, HEADER_LENGTH, raw.length);
+        if ((raw[3] & FLAG_DEFLATE) != 0) {
+            payload = inflate(payload);
+        }
+        return mapper(payloadFormat).readValue(payload, type);
+    }
+
+    private ObjectMapper mapper(Format format) {
+        return format == Format.SMILE ? smileMapper : jsonMapper;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("压缩数据不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RAtomicLong;
+import org.redisson.api.RBucket;
 import org.redisson.api.RIdGenerator;
+import org.redisson.api.RScript;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
-import java.net.InetAddress;
+import jakarta.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 基于Redisson的唯一ID生成器工具类
@@ -19,9 +32,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author your-name
  * @since 1.0.0
  */
+@Slf4j
 @Component
 public class RedissonIdGenerator {
 
+    private static final String WORKER_LEASE_KEY = "snowflake:worker:";
+
+    // 仍由自己持有租约时才续期
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0";
+    // 仍由自己持有租约时才释放
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0";
+
     @Autowired
     private RedissonClient redissonClient;
 
@@ -36,30 +59,146 @@ public class RedissonIdGenerator {
     private final ConcurrentHashMap<String, RAtomicLong> atomicLongCache = new ConcurrentHashMap<>();
 
     /**
-     * 工作机器ID（用于雪花算法）
+     * 数据中心ID（用于雪花算法），按部署环境配置
      */
-    private long workerId;
+    @Value("${hmdp.snowflake.datacenter-id:1}")
+    private long datacenterId;
 
     /**
-     * 数据中心ID（用于雪花算法）
+     * 机器ID租约的有效期，每隔三分之一有效期续期一次
      */
-    private long datacenterId;
+    @Value("${hmdp.snowflake.worker-lease-seconds:60}")
+    private long leaseSeconds;
+
+    /**
+     * 本地租约截止时间比 redis 中的过期时间提前的毫秒数，抵消时钟误差与网络延迟
+     */
+    @Value("${hmdp.snowflake.worker-lease-margin-millis:5000}")
+    private long leaseMarginMillis;
+
+    /**
+     * 租约的持有者标识，重启后会重新租用
+     */
+    private final String leaseOwner = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID();
+
+    /**
+     * 工作机器ID（用于雪花算法），从 redis 租用，集群内唯一
+     */
+    private volatile long workerId = -1;
+
+    /**
+     * 本地雪花算法生成器
+     */
+    private volatile SnowflakeIdWorker snowflakeIdWorker;
+
+    /**
+     * 本地租约截止时间（System.nanoTime），由每次成功租用或续期设置为发起请求的时刻 + 有效期 - 安全余量。
+     * 续期失败（redis 不可达）或长时间停顿（GC）错过续期时，超过截止时间后停止生成ID，
+     * 此时 redis 中的租约可能已过期并被其他节点租走
+     */
+    private volatile long leaseDeadline;
+
+    /**
+     * 租约丢失后停用的生成器，重新租用成功前保留
+     */
+    private SnowflakeIdWorker lostWorker;
+
+    private ScheduledExecutorService leaseRenewer;
 
     @PostConstruct
     public void init() {
-        // 初始化工作机器ID和数据中心ID
+        leaseWorkerId(null);
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snowflake-worker-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseSeconds * 1000 / 3);
+        leaseRenewer.scheduleAtFixedRate(this::renewWorkerId, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        leaseRenewer.shutdownNow();
+        redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, RELEASE_SCRIPT,
+                RScript.ReturnType.INTEGER, List.of(WORKER_LEASE_KEY + datacenterId + ":" + workerId), leaseOwner);
+    }
+
+    /**
+     * 从随机位置开始，租用一个空闲的机器ID
+     * @param previous 租约丢失前使用的生成器，重新租到同一个机器ID时继续使用，保证时间戳和序列号连续
+     */
+    private void leaseWorkerId(SnowflakeIdWorker previous) {
+        int start = ThreadLocalRandom.current().nextInt((int) SnowflakeIdWorker.MAX_WORKER_ID + 1);
+        for (int i = 0; i <= SnowflakeIdWorker.MAX_WORKER_ID; i++) {
+            long candidate = (start + i) % (SnowflakeIdWorker.MAX_WORKER_ID + 1);
+            RBucket<String> bucket = redissonClient.getBucket(WORKER_LEASE_KEY + datacenterId + ":" + candidate, StringCodec.INSTANCE);
+            long requestedAt = System.nanoTime();
+            if (bucket.setIfAbsent(leaseOwner, Duration.ofSeconds(leaseSeconds))) {
+                leaseDeadline = deadlineFrom(requestedAt);
+                snowflakeIdWorker = previous != null && candidate == workerId
+                        ? previous : new SnowflakeIdWorker(datacenterId, candidate);
+                workerId = candidate;
+                log.info("租用雪花算法机器ID: datacenterId={}, workerId={}", datacenterId, candidate);
+                return;
+            }
+        }
+        throw new IllegalStateException("数据中心 " + datacenterId + " 的雪花算法机器ID已全部被占用");
+    }
+
+    /**
+     * 续期机器ID的租约。租约已经丢失（例如长时间停顿导致过期），或续期失败且已超过本地租约截止时间时，
+     * 停止使用原机器ID并重新租用
+     */
+    private void renewWorkerId() {
         try {
-            InetAddress addr = InetAddress.getLocalHost();
-            // 使用IP地址最后一段作为机器ID
-            String hostAddress = addr.getHostAddress();
-            this.workerId = Long.parseLong(hostAddress.substring(hostAddress.lastIndexOf(".") + 1));
-            this.datacenterId = 1L; // 可以根据实际部署环境配置
+            long requestedAt = System.nanoTime();
+            Long renewed = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, RENEW_SCRIPT,
+                    RScript.ReturnType.INTEGER, List.of(WORKER_LEASE_KEY + datacenterId + ":" + workerId),
+                    leaseOwner, String.valueOf(leaseSeconds * 1000));
+            if (renewed != null && renewed != 0) {
+                leaseDeadline = deadlineFrom(requestedAt);
+                if (snowflakeIdWorker == null && lostWorker != null) {
+                    // 因续期失败停用期间租约没有被其他节点租走，恢复原生成器
+                    snowflakeIdWorker = lostWorker;
+                    lostWorker = null;
+                    log.info("雪花算法机器ID {} 续期恢复，继续生成ID", workerId);
+                }
+                return;
+            }
+            log.warn("雪花算法机器ID {} 的租约已丢失，重新租用", workerId);
+            releaseWorker();
+            leaseWorkerId(lostWorker);
+            lostWorker = null;
         } catch (Exception e) {
-            this.workerId = 1L;
-            this.datacenterId = 1L;
+            if (isLeaseExpired()) {
+                // 无法确认租约仍由自己持有，停止生成ID，redis 恢复后重新租用（可能租回同一个机器ID）
+                releaseWorker();
+                log.error("续期雪花算法机器ID {} 失败且本地租约已到期，停止生成ID: {}", workerId, e.getMessage());
+            } else {
+                log.error("续期雪花算法机器ID失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 停用当前的生成器，重新租到同一个机器ID时继续使用
+     */
+    private void releaseWorker() {
+        if (snowflakeIdWorker != null) {
+            lostWorker = snowflakeIdWorker;
+            snowflakeIdWorker = null;
         }
     }
 
+    private long deadlineFrom(long requestedAt) {
+        return requestedAt + TimeUnit.SECONDS.toNanos(leaseSeconds) - TimeUnit.MILLISECONDS.toNanos(leaseMarginMillis);
+    }
+
+    private boolean isLeaseExpired() {
+        return System.nanoTime() - leaseDeadline >= 0;
+    }
+
     /**
      * 生成简单的自增ID
      *
@@ -123,24 +262,21 @@ public class RedissonIdGenerator {
 
     /**
      * 生成分布式雪花算法ID
-     * 使用Redis确保workerId的唯一性
+     * 机器ID启动时从Redis租用并定期续期，生成ID本身不访问Redis。
+     * 超过本地租约截止时间仍未续期成功时拒绝生成，避免与租走同一机器ID的节点生成重复ID
      *
-     * @param businessType 业务类型
+     * @param businessType 业务类型，雪花算法ID全局唯一，不需要按业务区分
      * @return 雪花算法生成的ID
      */
     public long generateSnowflakeId(String businessType) {
-        // 使用Redis保证workerId在集群中的唯一性
-        String workerKey = "snowflake:worker:" + businessType;
-        RAtomicLong workerIdCounter = redissonClient.getAtomicLong(workerKey);
-        long currentWorkerId = workerIdCounter.get();
-
-        if (currentWorkerId == 0) {
-            // 首次使用，设置过期时间为1小时，防止workerId泄露
-            currentWorkerId = workerIdCounter.incrementAndGet();
-            workerIdCounter.expire(java.time.Duration.ofHours(1));
+        SnowflakeIdWorker worker = snowflakeIdWorker;
+        if (worker == null) {
+            throw new IllegalStateException("雪花算法机器ID租约已丢失，正在重新租用");
         }
-
-        return generateSnowflakeId(currentWorkerId % 32, datacenterId % 32);
+        if (isLeaseExpired()) {
+            throw new IllegalStateException("雪花算法机器ID租约已到期且未能续期，暂停生成ID");
+        }
+        return worker.nextId();
     }
 
     /**
@@ -203,61 +339,6 @@ public class RedissonIdGenerator {
                 k -> redissonClient.getIdGenerator("id:generator:" + k));
     }
 
-    /**
-     * 雪花算法实现
-     */
-    private long generateSnowflakeId(long workerId, long datacenterId) {
-        // 雪花算法的基本实现
-        long twepoch = 1288834974657L; // 起始时间戳 (2010-11-04)
-        long workerIdBits = 5L;
-        long datacenterIdBits = 5L;
-        long maxWorkerId = -1L ^ (-1L << workerIdBits);
-        long maxDatacenterId = -1L ^ (-1L << datacenterIdBits);
-        long sequenceBits = 12L;
-        long workerIdShift = sequenceBits;
-        long datacenterIdShift = sequenceBits + workerIdBits;
-        long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
-        long sequenceMask = -1L ^ (-1L << sequenceBits);
-
-        if (workerId > maxWorkerId || workerId < 0) {
-            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", maxWorkerId));
-        }
-        if (datacenterId > maxDatacenterId || datacenterId < 0) {
-            throw new IllegalArgumentException(String.format("datacenter Id can't be greater than %d or less than 0", maxDatacenterId));
-        }
-
-        long timestamp = System.currentTimeMillis();
-        long sequence = 0L;
-
-        // 使用Redis保证序列号的原子性
-        String seqKey = "snowflake:seq:" + workerId + ":" + datacenterId + ":" + timestamp;
-        RAtomicLong seqAtomic = redissonClient.getAtomicLong(seqKey);
-        sequence = seqAtomic.incrementAndGet() & sequenceMask;
-
-        // 设置过期时间，防止内存泄露
-        seqAtomic.expire(java.time.Duration.ofSeconds(1));
-
-        if (sequence == 0) {
-            timestamp = tilNextMillis(timestamp);
-        }
-
-        return ((timestamp - twepoch) << timestampLeftShift) |
-                (datacenterId << datacenterIdShift) |
-                (workerId << workerIdShift) |
-                sequence;
-    }
-
-    /**
-     * 等待下一毫秒
-     */
-    private long tilNextMillis(long lastTimestamp) {
-        long timestamp = System.currentTimeMillis();
-        while (timestamp <= lastTimestamp) {
-            timestamp = System.currentTimeMillis();
-        }
-        return timestamp;
-    }
-
     /**
      * 清理缓存，释放资源
      */
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 分段秒杀库存
+ * <p>
+ * 默认情况下一个秒杀券只有一个库存 key 和一个已购用户集合，集群模式下整场秒杀的流量都落在同一个分片上。
+ * 分段模式把库存拆成 K 个子库存 seckill:stock:{voucherId:i}，已购用户集合也按分段拆成 seckill:order:{voucherId:i}，
+ * 不同分段的 hash tag 不同，会分布到不同的 slot 上。
+ * <P></P>
+ * 每个用户按 id 固定归属于一个分段（home），一人一单只需在 home 分段的集合中判断。
+ * home 分段库存不足时，先在 home 分段写入会过期的待定标记挡住同一用户的并发请求，再依次到其他分段扣减库存，
+ * 扣减成功后才把购买资格记在 home 分段上；所有分段都不足时删除待定标记。调用方中途宕机时待定标记自动过期。
+ * K = 1 时退化为原来的 seckill:stock:{voucherId} 与 seckill:order:{voucherId}。
+ * </p>
+ */
+@Component
+public class SeckillStockSegments {
+
+    // 抢购结果，与 validateVoucherOrder.lua 的返回值保持一致
+    public static final int SUCCESS = 0;
+    public static final int OUT_OF_STOCK = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NOT_LOADED = 3;
+    // home 分段库存不足，仅在脚本内部使用
+    private static final int SEGMENT_EMPTY = 4;
+
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT;
+    private static final DefaultRedisScript<Long> DECREMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> CONFIRM_SCRIPT;
+    static {
+        RESERVE_SCRIPT = new DefaultRedisScript<>();
+        RESERVE_SCRIPT.setLocation(new ClassPathResource("lua/reserveSeckillSegment.lua"));
+        RESERVE_SCRIPT.setResultType(Long.class);
+        DECREMENT_SCRIPT = new DefaultRedisScript<>();
+        DECREMENT_SCRIPT.setLocation(new ClassPathResource("lua/decrementSeckillSegment.lua"));
+        DECREMENT_SCRIPT.setResultType(Long.class);
+        CONFIRM_SCRIPT = new DefaultRedisScript<>();
+        CONFIRM_SCRIPT.setLocation(new ClassPathResource("lua/confirmSeckillSegment.lua"));
+        CONFIRM_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 分段数量。修改后需要清除进行中的秒杀券在 redis 中的库存，由 SeckillStockLoader 按新的分段重新加载
+    private final int segments;
+
+    // 是否使用带 hash tag 的分段 key
+    private final boolean hashTagged;
+
+    @Autowired
+    public SeckillStockSegments(StringRedisTemplate stringRedisTemplate,
+                                @Value("${hmdp.seckill.stock.segments:1}") int segments) {
+        this(stringRedisTemplate, segments, segments > 1);
+    }
+
+    /**
+     * @param hashTagged 为 true 时即使只有一个分段也使用带 hash tag 的 key，便于在集群上与多分段对比
+     */
+    public SeckillStockSegments(StringRedisTemplate stringRedisTemplate, int segments, boolean hashTagged) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be positive: " + segments);
+        }
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.segments = segments;
+        this.hashTagged = hashTagged || segments > 1;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * 是否使用分段的 key，为 false 时应使用原来的 validateVoucherOrder.lua 下单
+     */
+    public boolean isSegmented() {
+        return hashTagged;
+    }
+
+    public String stockKey(Long voucherId, int segment) {
+        return isSegmented()
+                ? RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + segment + "}"
+                : RedisConstants.SECKILL_STOCK_KEY + voucherId;
+    }
+
+    public String orderKey(Long voucherId, int segment) {
+        return isSegmented()
+                ? RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + segment + "}"
+                : RedisConstants.SECKILL_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 用户在分段上的待定标记，与该分段的库存、已购用户集合位于同一个 slot
+     */
+    public String pendingKey(Long voucherId, int segment, Long userId) {
+        return RedisConstants.SECKILL_PENDING_KEY + "{" + voucherId + ":" + segment + "}:" + userId;
+    }
+
+    /**
+     * 用户所属的分段
+     */
+    public int homeSegment(Long userId) {
+        // 打散连续的用户 id
+        return Math.floorMod(Long.hashCode(userId * 0x9E3779B97F4A7C15L), segments);
+    }
+
+    /**
+     * 把总库存平均分配到各个分段，余数分给前面的分段
+     */
+    public List<Integer> split(int stock) {
+        List<Integer> parts = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            parts.add(stock / segments + (i < stock % segments ? 1 : 0));
+        }
+        return parts;
+    }
+
+    /**
+     * 写入各个分段的库存
+     * @param onlyIfAbsent 为 true 时已存在的分段不会被覆盖
+     */
+    public void setStock(Long voucherId, int stock, boolean onlyIfAbsent) {
+        List<Integer> parts = split(stock);
+        for (int i = 0; i < segments; i++) {
+            if (onlyIfAbsent) {
+                stringRedisTemplate.opsForValue().setIfAbsent(stockKey(voucherId, i), parts.get(i).toString());
+            } else {
+                stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), parts.get(i).toString());
+            }
+        }
+    }
+
+    /**
+     * 抢购结果
+     * @param result SUCCESS、OUT_OF_STOCK、DUPLICATE 或 NOT_LOADED
+     * @param segment 成功时实际扣减库存的分段，撤销时把库存还给该分段
+     */
+    public record Reservation(int result, int segment) {
+    }
+
+    /**
+     * 抢购：一人一单校验、扣减库存，并记录用户的购买资格。不会发送订单消息
+     */
+    public Reservation reserve(Long voucherId, Long userId) {
+        int home = homeSegment(userId);
+        String user = userId.toString();
+        String pendingKey = pendingKey(voucherId, home, userId);
+        Long result = stringRedisTemplate.execute(RESERVE_SCRIPT,
+                List.of(stockKey(voucherId, home), orderKey(voucherId, home), pendingKey),
+                user, String.valueOf(RedisConstants.SECKILL_PENDING_TTL_TIMEUNIT.toMillis(RedisConstants.SECKILL_PENDING_TTL)));
+        int r = result.intValue();
+        if (r != SEGMENT_EMPTY) {
+            return new Reservation(r, home);
+        }
+        // home 分段库存不足，从随机的分段开始尝试其他分段，避免所有请求都挤到同一个兄弟分段上
+        int offset = segments > 1 ? ThreadLocalRandom.current().nextInt(segments - 1) : 0;
+        boolean notLoaded = false;
+        try {
+            for (int i = 0; i < segments - 1; i++) {
+                int segment = (home + 1 + (offset + i) % (segments - 1)) % segments;
+                Long decremented = stringRedisTemplate.execute(DECREMENT_SCRIPT, List.of(stockKey(voucherId, segment)));
+                if (decremented == SUCCESS) {
+                    confirm(voucherId, home, userId, segment);
+                    return new Reservation(SUCCESS, segment);
+                }
+                notLoaded |= decremented == NOT_LOADED;
+            }
+        } catch (RuntimeException e) {
+            stringRedisTemplate.delete(pendingKey);
+            throw e;
+        }
+        // 其他分段都没有库存，删除待定标记；有分段尚未加载时不能判定为售罄，由调用方加载后重试
+        stringRedisTemplate.delete(pendingKey);
+        return new Reservation(notLoaded ? NOT_LOADED : OUT_OF_STOCK, home);
+    }
+
+    /**
+     * 在其他分段扣减库存成功后，把购买资格记在 home 分段上并删除待定标记；记录失败时归还扣减的库存
+     */
+    private void confirm(Long voucherId, int home, Long userId, int segment) {
+        try {
+            stringRedisTemplate.execute(CONFIRM_SCRIPT,
+                    List.of(orderKey(voucherId, home), pendingKey(voucherId, home, userId)), userId.toString());
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, segment));
+            throw e;
+        }
+    }
+
+    /**
+     * 撤销一次成功的抢购：库存还给实际扣减的分段，购买资格从用户所属的分段中删除
+     */
+    public void release(Long voucherId, Long userId, Reservation reservation) {
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, reservation.segment()));
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, homeSegment(userId)), userId.toString());
+    }
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀券本地状态缓存
+ * <p>
+ * 秒杀券售罄、尚未开始或已经结束后，请求仍然会访问 redis 执行 lua 脚本（异步下单）或者查询数据库（同步下单）。
+ * 本缓存在进程内记录每个秒杀券的活动时间以及是否售罄，这类请求直接在本地拒绝，不再访问 redis 和 mysql。
+ * <P></P>
+ * 活动时间从 tb_seckill_voucher 加载，保存在容量有限的 Caffeine 缓存中，定期过期后重新加载，不存在的秒杀券只缓存 miss-ttl-millis；
+ * 售罄状态由下单结果写入，并设置较短的有效期作为兜底。
+ * 新增秒杀券、库存被补充后，调用 {@link #invalidate(Long)} 通过 redis 发布订阅通知所有节点清除本地状态。
+ * </p>
+ */
+@Component
+@Slf4j
+public class SeckillVoucherStateCache {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 活动时间的本地缓存时间
+    @Value("${hmdp.seckill.state.window-ttl-millis:60000}")
+    private long windowTtlMillis;
+
+    // 售罄状态的本地缓存时间，防止失效通知丢失后一直拒绝请求
+    @Value("${hmdp.seckill.state.sold-out-ttl-millis:10000}")
+    private long soldOutTtlMillis;
+
+    // 不存在的秒杀券的本地缓存时间，较短，新建的秒杀券很快可以下单
+    @Value("${hmdp.seckill.state.miss-ttl-millis:1000}")
+    private long missTtlMillis;
+
+    // 本地最多缓存的秒杀券数量，随机 id 的请求不会让缓存无限增长
+    @Value("${hmdp.seckill.state.max-vouchers:10000}")
+    private long maxVouchers;
+
+    // 秒杀券 id -> 活动时间（加载中的为未完成的 future）
+    private AsyncCache<Long, Window> windows;
+
+    // 秒杀券 id -> 售罄状态的过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 活动时间，beginTime 为 null 表示秒杀券不存在
+     */
+    private record Window(LocalDateTime beginTime, LocalDateTime endTime) {
+    }
+
+    @PostConstruct
+    private void init() {
+        windows = Caffeine.newBuilder()
+                .maximumSize(maxVouchers)
+                .expireAfter(new Expiry<Long, Window>() {
+                    @Override
+                    public long expireAfterCreate(Long id, Window window, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(window.beginTime() == null ? missTtlMillis : windowTtlMillis);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long id, Window window, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, window, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long id, Window window, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .buildAsync();
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String voucherId = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                evict(Long.valueOf(voucherId));
+            } catch (NumberFormatException e) {
+                log.warn("无效的秒杀券状态失效通知: {}", voucherId);
+            }
+        }, new ChannelTopic(RedisConstants.SECKILL_VOUCHER_STATE_CHANNEL));
+    }
+
+    /**
+     * 判断秒杀券当前能否下单
+     * @param voucherId 秒杀券 id
+     * @return 能下单返回 null，否则返回失败原因
+     */
+    public String check(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long soldOutUntil = soldOut.get(voucherId);
+        if (soldOutUntil != null) {
+            if (soldOutUntil > now) {
+                return "库存不足！";
+            }
+            soldOut.remove(voucherId, soldOutUntil);
+        }
+
+        Window window = loadWindow(voucherId);
+        if (window.beginTime() == null) {
+            return "优惠卷不存在";
+        }
+        LocalDateTime time = LocalDateTime.now();
+        if (window.beginTime().isAfter(time)) {
+            return "秒杀尚未开始！";
+        }
+        if (window.endTime().isBefore(time)) {
+            return "秒杀已经结束！";
+        }
+        return null;
+    }
+
+    /**
+     * 记录秒杀券已售罄
+     */
+    public void markSoldOut(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis);
+    }
+
+    /**
+     * 清除所有节点上该秒杀券的本地状态，在补充库存或修改活动时间后调用
+     */
+    public void invalidate(Long voucherId) {
+        evict(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_VOUCHER_STATE_CHANNEL, voucherId.toString());
+    }
+
+    private void evict(Long voucherId) {
+        soldOut.remove(voucherId);
+        windows.synchronous().invalidate(voucherId);
+    }
+
+    /**
+     * 读取活动时间，未缓存时从数据库加载。同一个秒杀券同时只有一个线程查询数据库，其他线程等待同一个 future；
+     * 查询在当前线程执行，不在缓存的 compute 锁内，不会阻塞其他秒杀券，也不会让虚拟线程占住载体线程
+     */
+    private Window loadWindow(Long voucherId) {
+        CompletableFuture<Window> cached = windows.getIfPresent(voucherId);
+        if (cached != null) {
+            return cached.join();
+        }
+        CompletableFuture<Window> future = new CompletableFuture<>();
+        CompletableFuture<Window> loading = windows.asMap().putIfAbsent(voucherId, future);
+        if (loading != null) {
+            return loading.join();
+        }
+        try {
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            future.complete(voucher == null
+                    ? new Window(null, null)
+                    : new Window(voucher.getBeginTime(), voucher.getEndTime()));
+        } catch (RuntimeException e) {
+            // 失败的 future 会被缓存自动移除，下一个请求重新查询
+            future.completeExceptionally(e);
+        }
+        return future.join();
+    }
+}
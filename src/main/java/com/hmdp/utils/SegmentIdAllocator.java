@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+
+/**
+ * 号段模式的序列号分配器（参考美团 Leaf-segment）
+ * <p>
+ * 每次通过 INCRBY 从 redis 租用 step 个连续的序列号，在本地内存中通过 CAS 逐个分配，不再每个 id 访问一次 redis。
+ * 当前号段剩余不足 10% 时异步预取下一个号段（双 buffer），号段用完时直接切换，正常情况下分配过程不会阻塞在网络上。
+ * <P></P>
+ * 序列号按天重置：调用方传入当前日期（epochDay），日期变化后丢弃旧号段、按新日期的 key 重新租用，
+ * 保证与 timestamp 拼接后的 id 不会和新一天的序列号重复。
+ * 节点重启时未用完的号段会被丢弃，序列号不保证连续，只保证唯一、单节点内递增。
+ * </p>
+ */
+@Slf4j
+public class SegmentIdAllocator {
+
+    /**
+     * 租用号段，通常为 redis 的 INCRBY
+     */
+    @FunctionalInterface
+    public interface SegmentLeaser {
+        /**
+         * @param key 计数器 key
+         * @param step 号段长度
+         * @return 自增 step 之后计数器的值，即号段的最大值
+         */
+        long lease(String key, long step);
+    }
+
+    // 所有分配器共用的号段预取线程
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SegmentLeaser leaser;
+    private final long step;
+    // 剩余序列号等于该值时触发预取
+    private final long lowWaterMark;
+
+    // 业务 tag -> 当天的号段
+    private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+
+    public SegmentIdAllocator(SegmentLeaser leaser, long step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("step must be positive: " + step);
+        }
+        this.leaser = leaser;
+        this.step = step;
+        this.lowWaterMark = step / 10;
+    }
+
+    /**
+     * 分配一个序列号
+     * @param tag 业务 tag，不同 tag 的序列号互相独立
+     * @param epochDay 当前日期
+     * @param keyOfDay 根据日期生成计数器 key，只在日期变化时调用
+     * @return 从 1 开始的序列号
+     */
+    public long nextSequence(String tag, long epochDay, LongFunction<String> keyOfDay) {
+        Buffer buffer = buffers.get(tag);
+        if (buffer == null || buffer.epochDay != epochDay) {
+            buffer = buffers.compute(tag, (t, old) ->
+                    old != null && old.epochDay >= epochDay ? old : new Buffer(epochDay, keyOfDay.apply(epochDay)));
+            if (buffer.epochDay != epochDay) {
+                // 跨天时其他线程已经切换到新的一天，当前请求仍属于前一天，为其单独租用序列号
+                return leaser.lease(keyOfDay.apply(epochDay), 1);
+            }
+        }
+        return buffer.next();
+    }
+
+    /**
+     * 号段 [cursor, max]
+     */
+    private static final class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(long max, long step) {
+            this.cursor = new AtomicLong(max - step + 1);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 某个 tag 在某一天的双 buffer
+     */
+    private final class Buffer {
+        private final long epochDay;
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Segment current;
+        private final AtomicReference<CompletableFuture<Segment>> next = new AtomicReference<>();
+
+        private Buffer(long epochDay, String key) {
+            this.epochDay = epochDay;
+            this.key = key;
+        }
+
+        private long next() {
+            while (true) {
+                Segment segment = current;
+                if (segment != null) {
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.max) {
+                        if (segment.max - value == lowWaterMark) {
+                            // 只有恰好拿到水位线序列号的线程会触发预取
+                            prefetch();
+                        }
+                        return value;
+                    }
+                }
+                switchSegment(segment);
+            }
+        }
+
+        /**
+         * 当前号段用完，切换到预取好的号段，没有预取时同步租用
+         */
+        private void switchSegment(Segment exhausted) {
+            lock.lock();
+            try {
+                if (current != exhausted) {
+                    // 其他线程已经切换过了
+                    return;
+                }
+                CompletableFuture<Segment> prefetched = next.getAndSet(null);
+                Segment segment = null;
+                if (prefetched != null) {
+                    try {
+                        segment = prefetched.join();
+                    } catch (CompletionException e) {
+                        log.warn("预取号段失败，改为同步租用: {}", e.getMessage());
+                    }
+                }
+                current = segment != null ? segment : lease();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 异步预取下一个号段，已经有预取好的号段时不再重复租用
+         */
+        private void prefetch() {
+            CompletableFuture<Segment> future = new CompletableFuture<>();
+            if (!next.compareAndSet(null, future)) {
+                return;
+            }
+            PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    future.complete(lease());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+
+        private Segment lease() {
+            return new Segment(leaser.lease(key, step), step);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * 本地雪花算法 id 生成器
+ * <p>
+ * id 结构：1 位符号位 | 41 位毫秒时间戳 | 5 位数据中心 id | 5 位机器 id | 12 位序列号。
+ * 上一次的时间戳和序列号打包在一个 long 中，通过 CAS 更新，生成 id 时不加锁、不访问 redis。
+ * <P></P>
+ * 同一毫秒内序列号用完时自旋到下一毫秒；时钟回拨不超过 maxBackwardMillis 时等待时钟追上，超过时抛出异常。
+ * 机器 id 需要保证集群内唯一，由 {@link RedissonIdGenerator} 通过 redis 租用。
+ * </p>
+ */
+public class SnowflakeIdWorker {
+
+    // 起始时间戳 (2010-11-04)，与原有实现保持一致
+    public static final long TWEPOCH = 1288834974657L;
+    public static final long WORKER_ID_BITS = 5L;
+    public static final long DATACENTER_ID_BITS = 5L;
+    public static final long SEQUENCE_BITS = 12L;
+    public static final long MAX_WORKER_ID = ~(-1L << WORKER_ID_BITS);
+    public static final long MAX_DATACENTER_ID = ~(-1L << DATACENTER_ID_BITS);
+
+    private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
+    private static final long DATACENTER_ID_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
+    private static final long TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS + DATACENTER_ID_BITS;
+    private static final long SEQUENCE_MASK = ~(-1L << SEQUENCE_BITS);
+
+    private final long workerBits;
+    private final long maxBackwardMillis;
+    private final LongSupplier clock;
+
+    // (上一次的时间戳 - TWEPOCH) << SEQUENCE_BITS | 上一次的序列号
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdWorker(long datacenterId, long workerId) {
+        this(datacenterId, workerId, 5, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxBackwardMillis 允许等待的最大时钟回拨
+     * @param clock 毫秒时钟
+     */
+    public SnowflakeIdWorker(long datacenterId, long workerId, long maxBackwardMillis, LongSupplier clock) {
+        if (workerId > MAX_WORKER_ID || workerId < 0) {
+            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", MAX_WORKER_ID));
+        }
+        if (datacenterId > MAX_DATACENTER_ID || datacenterId < 0) {
+            throw new IllegalArgumentException(String.format("datacenter Id can't be greater than %d or less than 0", MAX_DATACENTER_ID));
+        }
+        this.workerBits = datacenterId << DATACENTER_ID_SHIFT | workerId << WORKER_ID_SHIFT;
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.clock = clock;
+    }
+
+    public long nextId() {
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            long timestamp = clock.getAsLong() - TWEPOCH;
+
+            long next;
+            if (timestamp > lastTimestamp) {
+                // 新的一毫秒，序列号从 0 开始
+                next = timestamp << SEQUENCE_BITS;
+            } else if (timestamp == lastTimestamp) {
+                if ((current & SEQUENCE_MASK) == SEQUENCE_MASK) {
+                    // 本毫秒的序列号已用完，自旋到下一毫秒
+                    Thread.onSpinWait();
+                    continue;
+                }
+                next = current + 1;
+            } else {
+                waitForClock(lastTimestamp - timestamp);
+                continue;
+            }
+
+            if (state.compareAndSet(current, next)) {
+                return (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT | workerBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 时钟回拨：在允许范围内等待，否则拒绝生成 id
+     */
+    private void waitForClock(long backwardMillis) {
+        if (backwardMillis > maxBackwardMillis) {
+            throw new IllegalStateException(String.format("时钟回拨 %dms，超过允许的 %dms，拒绝生成 id", backwardMillis, maxBackwardMillis));
+        }
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backwardMillis));
+    }
+}
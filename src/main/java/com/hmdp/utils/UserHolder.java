@@ -2,6 +2,13 @@ package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
 
+/**
+ * 当前请求的登录用户
+ * <p>
+ * 由 JWTInterceptor 在请求开始时写入、请求结束时清除，因此使用虚拟线程（每个请求一个线程）时也不会残留或泄漏；
+ * 不使用 InheritableThreadLocal，异步任务需要用户信息时应显式传递。
+ * </p>
+ */
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
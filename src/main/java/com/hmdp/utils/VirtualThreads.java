@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程支持
+ * <p>
+ * 项目按 Java 17 编译，虚拟线程通过 Spring 的 {@link VirtualThreadTaskExecutor} 创建，运行在 Java 21 上时才可用。
+ * 开关与 Spring Boot 相同，为 spring.threads.virtual.enabled（见 application-virtual.yaml），
+ * 开启后 Tomcat 请求线程、@Scheduled 任务以及本项目自建的线程池（秒杀订单消费者、缓存重建）都使用虚拟线程；
+ * 运行在 Java 21 以下时忽略该开关，仍使用平台线程。
+ * <P></P>
+ * 虚拟线程在 synchronized 块内阻塞时会占住载体线程（pinning），阻塞调用外的同步应使用 ReentrantLock。
+ * </p>
+ */
+@Slf4j
+public class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前 JVM 是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * 创建线程工厂，virtual 为 true 且支持虚拟线程时创建虚拟线程，否则创建守护的平台线程
+     * @param namePrefix 线程名前缀，后接序号
+     */
+    public static ThreadFactory threadFactory(String namePrefix, boolean virtual) {
+        if (virtual && isSupported()) {
+            return new VirtualThreadTaskExecutor(namePrefix).getVirtualThreadFactory();
+        }
+        if (virtual) {
+            log.warn("当前 Java {} 不支持虚拟线程，{} 使用平台线程", Runtime.version().feature(), namePrefix);
+        }
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
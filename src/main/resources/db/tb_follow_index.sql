@@ -0,0 +1,14 @@
+-- ----------------------------
+-- tb_follow 索引迁移（已按 hmdp.sql 建表的库执行一次）
+-- uk_user_follow：isFollow、取关按 (user_id, follow_user_id) 查询，唯一约束同时防止重复关注
+-- idx_follow_user：推送博文时按 follow_user_id 分页读取粉丝，(follow_user_id, user_id) 覆盖该查询
+-- ----------------------------
+
+-- 1.删除重复的关注记录，每对 (user_id, follow_user_id) 只保留 id 最小的一条
+DELETE f1 FROM `tb_follow` f1
+JOIN `tb_follow` f2 ON f1.`user_id` = f2.`user_id` AND f1.`follow_user_id` = f2.`follow_user_id` AND f1.`id` > f2.`id`;
+
+-- 2.添加索引
+ALTER TABLE `tb_follow`
+  ADD UNIQUE INDEX `uk_user_follow`(`user_id`, `follow_user_id`) USING BTREE,
+  ADD INDEX `idx_follow_user`(`follow_user_id`, `user_id`) USING BTREE;
@@ -0,0 +1,14 @@
+-- ----------------------------
+-- tb_user_info 粉丝数、关注数回填（在 tb_follow_index.sql 之后、启用 redis 计数之前执行一次）
+-- 此前 fans、followee 从未维护，按 tb_follow 统计一次写入；之后由 redis 中的计数批量落库（FollowCountFlusher）
+-- 两个 GROUP BY 分别由 idx_follow_user、uk_user_follow 覆盖；没有详情的用户插入一行
+-- redis 中已有 user:count:fans、user:count:followee 时，执行后需删除这两个 hash，使计数重新从 tb_user_info 加载
+-- ----------------------------
+INSERT INTO `tb_user_info` (`user_id`, `fans`, `followee`)
+SELECT c.`user_id`, SUM(c.`fans`), SUM(c.`followee`) FROM (
+  SELECT `follow_user_id` AS `user_id`, COUNT(*) AS `fans`, 0 AS `followee` FROM `tb_follow` GROUP BY `follow_user_id`
+  UNION ALL
+  SELECT `user_id`, 0, COUNT(*) FROM `tb_follow` GROUP BY `user_id`
+) c
+GROUP BY c.`user_id`
+ON DUPLICATE KEY UPDATE `fans` = VALUES(`fans`), `followee` = VALUES(`followee`);
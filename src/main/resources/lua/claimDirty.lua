@@ -0,0 +1,13 @@
+-- 取出待落库的 id：上一轮没有完成（进程崩溃）时继续处理上一轮的集合，否则把待落库集合整体改名为处理中集合
+-- 点赞数（BlogLikeFlusher）与粉丝数、关注数（FollowCountFlusher）的落库任务共用
+-- KEYS[1] 待落库的 id 集合，KEYS[2] 处理中的 id 集合
+local dirtyKey = KEYS[1]
+local flushingKey = KEYS[2]
+
+if(redis.call('exists', flushingKey) == 0) then
+    if(redis.call('exists', dirtyKey) == 0) then
+        return {}
+    end
+    redis.call('rename', dirtyKey, flushingKey)
+end
+return redis.call('smembers', flushingKey)
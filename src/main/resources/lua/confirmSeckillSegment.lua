@@ -0,0 +1,6 @@
+-- 分段库存模式下，在其他分段扣减库存成功后记录购买资格
+-- KEYS[1] home 分段已购用户集合 key，KEYS[2] 用户在 home 分段上的待定标记 key，两者带有相同的 hash tag
+-- ARGV[1] 用户id
+redis.call('sadd', KEYS[1], ARGV[1])
+redis.call('del', KEYS[2])
+return 0
@@ -0,0 +1,13 @@
+-- 分段库存模式下，在其他分段上扣减库存
+-- KEYS[1] 分段库存 key
+local stock = tonumber(redis.call('get', KEYS[1]))
+if(stock == nil) then
+    -- 分段尚未加载，返回3，由调用方加载后重试
+    return 3
+end
+if(stock <= 0) then
+    -- 库存不足，返回1
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+return 0
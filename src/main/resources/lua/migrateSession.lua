@@ -0,0 +1,10 @@
+-- 把旧版字符串会话改写为 hash，保留剩余过期时间
+-- KEYS[1] 会话 key，ARGV[1] 过期时间（毫秒），ARGV[2..] 为 hash 的字段、值交替
+-- 读取旧会话之后已登出（key 已删除）或已被其他节点改写时不做处理，不会复活会话
+if (redis.call('type', KEYS[1]).ok ~= 'string') then
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('hset', KEYS[1], unpack(ARGV, 2))
+redis.call('pexpire', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,21 @@
+-- 用重新统计的结果覆盖用户的粉丝数、关注数，统计期间计数被关注、取关修改过的用户不覆盖
+-- KEYS[1] 粉丝数 hash，KEYS[2] 关注数 hash，KEYS[3] 计数版本号 hash，KEYS[4] 待落库的用户 id 集合
+-- ARGV 每 4 个一组：用户id，统计前读到的版本号，粉丝数，关注数
+-- 返回版本号已变化、需要重新统计的用户 id
+local fansKey = KEYS[1]
+local followeeKey = KEYS[2]
+local versionKey = KEYS[3]
+local dirtyKey = KEYS[4]
+
+local changed = {}
+for i = 1, #ARGV, 4 do
+    local userId = ARGV[i]
+    if((redis.call('hget', versionKey, userId) or '0') ~= ARGV[i + 1]) then
+        table.insert(changed, userId)
+    else
+        redis.call('hset', fansKey, userId, ARGV[i + 2])
+        redis.call('hset', followeeKey, userId, ARGV[i + 3])
+        redis.call('sadd', dirtyKey, userId)
+    end
+end
+return changed
@@ -0,0 +1,28 @@
+-- 分段库存模式下，在用户所属的分段上抢购
+-- KEYS[1] 分段库存 key，KEYS[2] 分段已购用户集合 key，KEYS[3] 用户在该分段上的待定标记 key，三者带有相同的 hash tag，位于同一个 slot
+-- ARGV[1] 用户id，ARGV[2] 待定标记的过期时间（毫秒）
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local pendingKey = KEYS[3]
+local userId = ARGV[1]
+
+-- 1.库存尚未加载到 redis，返回3
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil) then
+    return 3
+end
+-- 2.用户只会落在自己所属的分段上，因此只需检查这一个集合即可判断是否重复下单，返回2；
+-- 同一用户正在其他分段扣减库存的请求同样视为重复下单
+if(redis.call('sismember', orderKey, userId) == 1 or redis.call('exists', pendingKey) == 1) then
+    return 2
+end
+if(stock <= 0) then
+    -- 3.本分段库存不足，只写入会过期的待定标记，返回4，由调用方到其他分段扣减库存后再记录购买资格；
+    -- 调用方中途宕机时标记自动过期，用户不会一直被当作已购
+    redis.call('set', pendingKey, '1', 'PX', ARGV[2])
+    return 4
+end
+-- 4.扣减本分段库存并记录购买资格
+redis.call('incrby', stockKey, -1)
+redis.call('sadd', orderKey, userId)
+return 0
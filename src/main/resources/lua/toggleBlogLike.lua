@@ -0,0 +1,25 @@
+-- 点赞或取消点赞，点赞用户 zset 与点赞数 hash 一起原子地修改，并记录待落库的博文
+-- KEYS[1] 博文点赞用户 zset，KEYS[2] 点赞数 hash，KEYS[3] 待落库的博文 id 集合
+-- ARGV[1] 博文id，ARGV[2] 用户id，ARGV[3] 当前时间戳
+local likedKey = KEYS[1]
+local countKey = KEYS[2]
+local dirtyKey = KEYS[3]
+local blogId = ARGV[1]
+local userId = ARGV[2]
+
+-- 1.点赞数尚未从数据库加载，返回-1，由调用方加载后重试
+if(redis.call('hexists', countKey, blogId) == 0) then
+    return -1
+end
+-- 2.已经点赞，取消点赞，返回0
+if(redis.call('zscore', likedKey, userId)) then
+    redis.call('zrem', likedKey, userId)
+    redis.call('hincrby', countKey, blogId, -1)
+    redis.call('sadd', dirtyKey, blogId)
+    return 0
+end
+-- 3.未点赞，点赞，返回1
+redis.call('zadd', likedKey, ARGV[3], userId)
+redis.call('hincrby', countKey, blogId, 1)
+redis.call('sadd', dirtyKey, blogId)
+return 1
@@ -0,0 +1,36 @@
+-- 关注或取关，关注集合与双方的关注数、粉丝数一起原子地修改，并记录待落库的用户
+-- KEYS[1] 当前用户的关注集合，KEYS[2] 粉丝数 hash，KEYS[3] 关注数 hash，KEYS[4] 待落库的用户 id 集合，KEYS[5] 计数版本号 hash
+-- ARGV[1] 当前用户id，ARGV[2] 目标用户id，ARGV[3] 1 关注 / 0 取关，ARGV[4] 关注集合的已加载标记
+local followKey = KEYS[1]
+local fansKey = KEYS[2]
+local followeeKey = KEYS[3]
+local dirtyKey = KEYS[4]
+local versionKey = KEYS[5]
+local userId = ARGV[1]
+local followUserId = ARGV[2]
+
+-- 1.关注集合或计数尚未从数据库加载，返回-1，由调用方加载后重试
+if(redis.call('sismember', followKey, ARGV[4]) == 0
+        or redis.call('hexists', followeeKey, userId) == 0
+        or redis.call('hexists', fansKey, followUserId) == 0) then
+    return -1
+end
+-- 2.集合没有变化（重复关注、重复取关），计数不变，返回0
+local delta = 1
+local changed
+if(ARGV[3] == '1') then
+    changed = redis.call('sadd', followKey, followUserId)
+else
+    changed = redis.call('srem', followKey, followUserId)
+    delta = -1
+end
+if(changed == 0) then
+    return 0
+end
+-- 3.修改双方的计数与版本号，返回1。版本号变化后，进行中的重新统计不会覆盖本次修改
+redis.call('hincrby', followeeKey, userId, delta)
+redis.call('hincrby', fansKey, followUserId, delta)
+redis.call('hincrby', versionKey, userId, 1)
+redis.call('hincrby', versionKey, followUserId, 1)
+redis.call('sadd', dirtyKey, userId, followUserId)
+return 1
@@ -0,0 +1,14 @@
+-- 更新热门排行中博文的分数，排行不存在（尚未重建或已过期删除）时不写入，避免只含少数博文的排行被当作完整排行
+-- KEYS[1] 排行 key，ARGV[1] 保留的博文数，ARGV[2..] 为分数、博文 id 交替
+local key = KEYS[1]
+local maxSize = tonumber(ARGV[1])
+
+if(redis.call('exists', key) == 0) then
+    return 0
+end
+for i = 2, #ARGV, 2 do
+    redis.call('zadd', key, ARGV[i], ARGV[i + 1])
+end
+-- 删除排在 maxSize 之后的博文
+redis.call('zremrangebyrank', key, 0, -(maxSize + 1))
+return 1
@@ -14,7 +14,12 @@ local orderKey = 'seckill:order:' .. voucherId
 
 -- 3.脚本业务
 -- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil) then
+    -- 库存尚未加载到 redis（例如 redis 被清空后），返回3
+    return 3
+end
+if(stock <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
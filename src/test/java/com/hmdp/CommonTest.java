@@ -1,29 +1,96 @@
 package com.hmdp;
 
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.interceptor.JWTInterceptor;
+import com.hmdp.job.BlogLikeFlusher;
+import com.hmdp.job.FeedFanoutWorker;
+import com.hmdp.job.FollowCountFlusher;
+import com.hmdp.job.FollowSetReconciler;
+import com.hmdp.job.SeckillStockLoader;
+import com.hmdp.job.ShopCacheWarmer;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.EntityBloomFilters;
+import com.hmdp.utils.FeedTimeline;
+import com.hmdp.utils.FollowCounters;
+import com.hmdp.utils.FollowSetCache;
+import com.hmdp.utils.JwtAuthenticator;
+import com.hmdp.utils.JwtUtil;
+import com.hmdp.utils.LoginSessionStore;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherStateCache;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
 import org.springframework.data.geo.Point;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.stereotype.Component;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
@@ -70,6 +137,35 @@ public class CommonTest {
     RedissonClient redissonClient;
 
 
+    /**
+     * 号段模式与每个 id 一次 INCR 的对比
+     */
+    @Test
+    void testIdWorkerThroughput() throws InterruptedException {
+        int threads = 32;
+        int perThread = 2000;
+        for (String mode : new String[]{"incr", "segment"}) {
+            CountDownLatch latch = new CountDownLatch(threads);
+            long begin = System.currentTimeMillis();
+            for (int t = 0; t < threads; t++) {
+                es.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        if ("incr".equals(mode)) {
+                            stringRedisTemplate.opsForValue().increment("counter:bench");
+                        } else {
+                            redisIdWorker.nextId("bench");
+                        }
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            long cost = Math.max(1, System.currentTimeMillis() - begin);
+            System.out.println(mode + "：" + threads * perThread + " 个 id，耗时：" + cost + "ms，吞吐量："
+                    + (threads * perThread * 1000L / cost) + " 个/秒");
+        }
+    }
+
     @Test
     void testRedisson() throws InterruptedException {
         RLock lock = redissonClient.getLock("testLock");
@@ -187,6 +283,1469 @@ public class CommonTest {
         System.out.println("HyperLogLog count: " + stringRedisTemplate.opsForHyperLogLog().size(key));
     }
 
+    @Resource
+    IVoucherService voucherService;
+
+    @Resource
+    IVoucherOrderService voucherOrderService;
+
+    /**
+     * 秒杀订单消费吞吐量测试：直接向 stream.orders 投递订单消息，统计消费者组全部落库所需时间。
+     * 依赖本地 redis 与 mysql（或兼容的替身）。
+     */
+    @Test
+    void testSeckillOrderPipeline() throws InterruptedException {
+        int total = 20000;
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("吞吐量测试券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(200L);
+        voucher.setType(1);
+        voucher.setStock(total);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+
+        // 订单 id 提前生成，通过管道批量投递订单消息，避免投递本身成为瓶颈
+        long baseOrderId = redisIdWorker.nextId("order");
+        long begin = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < total; i++) {
+                connection.streamCommands().xAdd(StreamRecords.newRecord()
+                        .in(RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8))
+                        .ofMap(Map.of(
+                                "id".getBytes(StandardCharsets.UTF_8), String.valueOf(baseOrderId + i).getBytes(StandardCharsets.UTF_8),
+                                "userId".getBytes(StandardCharsets.UTF_8), String.valueOf(1_000_000L + i).getBytes(StandardCharsets.UTF_8),
+                                "voucherId".getBytes(StandardCharsets.UTF_8), voucherId.toString().getBytes(StandardCharsets.UTF_8)
+                        )));
+            }
+            return null;
+        });
+        long produced = System.currentTimeMillis();
+
+        long count = 0;
+        while (count < total && System.currentTimeMillis() - begin < 120_000) {
+            Thread.sleep(100);
+            count = voucherOrderService.lambdaQuery().eq(VoucherOrder::getVoucherId, voucherId).count();
+        }
+        long end = System.currentTimeMillis();
+        System.out.println("投递耗时：" + (produced - begin) + "ms，总耗时：" + (end - begin) + "ms，落库订单：" + count
+                + "，吞吐量：" + (count * 1000 / Math.max(1, end - begin)) + " 单/秒");
+    }
+
+    /**
+     * 分段库存吞吐量测试：在本地 redis 集群上对比不同分段数下的抢购吞吐量。
+     * 通过 -Dhmdp.bench.cluster-nodes=127.0.0.1:17000,127.0.0.1:17001,... 指定集群节点，未指定时跳过。
+     */
+    @Test
+    void testSeckillStockSegments() throws InterruptedException {
+        String nodes = System.getProperty("hmdp.bench.cluster-nodes");
+        Assumptions.assumeTrue(nodes != null, "未指定 redis 集群节点");
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisClusterConfiguration(List.of(nodes.split(","))));
+        factory.afterPropertiesSet();
+        StringRedisTemplate clusterTemplate = new StringRedisTemplate(factory);
+        int total = 50_000;
+        int threads = 64;
+        try {
+            for (int k : new int[]{1, 2, 4, 8, 16}) {
+                SeckillStockSegments segments = new SeckillStockSegments(clusterTemplate, k, true);
+                long voucherId = System.nanoTime();
+                // 库存与请求数相同，尾部会触发到其他分段扣减库存的逻辑
+                segments.setStock(voucherId, total, false);
+
+                AtomicInteger success = new AtomicInteger();
+                AtomicLong nextUser = new AtomicLong();
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                CountDownLatch latch = new CountDownLatch(threads);
+                long begin = System.currentTimeMillis();
+                for (int t = 0; t < threads; t++) {
+                    pool.submit(() -> {
+                        long userId;
+                        while ((userId = nextUser.incrementAndGet()) <= total) {
+                            if (segments.reserve(voucherId, userId).result() == SeckillStockSegments.SUCCESS) {
+                                success.incrementAndGet();
+                            }
+                        }
+                        latch.countDown();
+                    });
+                }
+                latch.await();
+                long cost = Math.max(1, System.currentTimeMillis() - begin);
+                pool.shutdown();
+
+                long buyers = 0;
+                for (int i = 0; i < k; i++) {
+                    buyers += clusterTemplate.opsForSet().size(segments.orderKey(voucherId, i));
+                    clusterTemplate.delete(List.of(segments.stockKey(voucherId, i), segments.orderKey(voucherId, i)));
+                }
+                System.out.println("分段数：" + k + "，成功：" + success.get() + "，已购用户：" + buyers
+                        + "，耗时：" + cost + "ms，吞吐量：" + (total * 1000L / cost) + " 次/秒");
+            }
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    /**
+     * 分段库存：其他分段尚未加载时返回 NOT_LOADED 而不是售罄；撤销抢购时库存还给实际扣减的分段
+     */
+    @Test
+    void testSeckillSegmentReservation() {
+        SeckillStockSegments segments = new SeckillStockSegments(stringRedisTemplate, 2, true);
+        long voucherId = System.nanoTime();
+        long userId = 1L;
+        int home = segments.homeSegment(userId);
+        int other = 1 - home;
+        List<String> keys = List.of(segments.stockKey(voucherId, 0), segments.stockKey(voucherId, 1),
+                segments.orderKey(voucherId, 0), segments.orderKey(voucherId, 1), segments.pendingKey(voucherId, home, userId));
+        try {
+            stringRedisTemplate.opsForValue().set(segments.stockKey(voucherId, home), "0");
+            SeckillStockSegments.Reservation reservation = segments.reserve(voucherId, userId);
+            Assertions.assertEquals(SeckillStockSegments.NOT_LOADED, reservation.result());
+            Assertions.assertEquals(false, stringRedisTemplate.opsForSet()
+                    .isMember(segments.orderKey(voucherId, home), String.valueOf(userId)));
+            Assertions.assertEquals(false, stringRedisTemplate.hasKey(segments.pendingKey(voucherId, home, userId)));
+
+            stringRedisTemplate.opsForValue().set(segments.stockKey(voucherId, other), "1");
+            // 同一用户正在其他分段扣减库存时，并发的请求视为重复下单
+            stringRedisTemplate.opsForValue().set(segments.pendingKey(voucherId, home, userId), "1");
+            Assertions.assertEquals(SeckillStockSegments.DUPLICATE, segments.reserve(voucherId, userId).result());
+            stringRedisTemplate.delete(segments.pendingKey(voucherId, home, userId));
+
+            reservation = segments.reserve(voucherId, userId);
+            Assertions.assertEquals(SeckillStockSegments.SUCCESS, reservation.result());
+            Assertions.assertEquals(other, reservation.segment());
+            Assertions.assertEquals("0", stringRedisTemplate.opsForValue().get(segments.stockKey(voucherId, other)));
+            Assertions.assertEquals(true, stringRedisTemplate.opsForSet()
+                    .isMember(segments.orderKey(voucherId, home), String.valueOf(userId)));
+            Assertions.assertEquals(false, stringRedisTemplate.hasKey(segments.pendingKey(voucherId, home, userId)));
+
+            segments.release(voucherId, userId, reservation);
+            Assertions.assertEquals("0", stringRedisTemplate.opsForValue().get(segments.stockKey(voucherId, home)));
+            Assertions.assertEquals("1", stringRedisTemplate.opsForValue().get(segments.stockKey(voucherId, other)));
+            Assertions.assertEquals(false, stringRedisTemplate.opsForSet()
+                    .isMember(segments.orderKey(voucherId, home), String.valueOf(userId)));
+        } finally {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    @Resource
+    SeckillStockLoader seckillStockLoader;
+
+    /**
+     * redis 中的库存丢失后，并发的下单请求只触发一次加载，其余请求等待同一次加载的结果
+     */
+    @Test
+    void testSeckillStockLoadMerged() throws InterruptedException {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("库存加载测试券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(200L);
+        voucher.setType(1);
+        voucher.setStock(100);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+        stringRedisTemplate.delete(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+
+        double loadedBefore = meterRegistry.counter("seckill.stock.loaded").count();
+        int threads = 50;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger active = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            es.submit(() -> {
+                try {
+                    start.await();
+                    if (seckillStockLoader.loadVoucher(voucherId)) {
+                        active.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        Assertions.assertEquals(threads, active.get());
+        Assertions.assertEquals(1, meterRegistry.counter("seckill.stock.loaded").count() - loadedBefore);
+        Assertions.assertEquals("100", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+    }
+
+    /**
+     * 对账时删除已不在进行中的秒杀券的库存偏差指标
+     */
+    @Test
+    void testSeckillDriftGaugeRemoved() {
+        // 不存在的秒杀券 id，不会出现在进行中的秒杀券里
+        ReflectionTestUtils.invokeMethod(seckillStockLoader, "driftGauge", -1L);
+        Assertions.assertNotNull(meterRegistry.find("seckill.stock.drift").tag("voucherId", "-1").gauge());
+
+        seckillStockLoader.reconcile();
+        Assertions.assertNull(meterRegistry.find("seckill.stock.drift").tag("voucherId", "-1").gauge());
+    }
+
+    @Resource
+    SeckillVoucherStateCache seckillVoucherStateCache;
+
+    /**
+     * 秒杀券本地状态缓存：售罄后的请求在本地拒绝，并通过发布订阅恢复
+     */
+    @Test
+    void testSeckillVoucherStateCache() throws InterruptedException {
+        // 新建之前探测下一个 id，缓存的"不存在"在新建时被清除
+        Long nextId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) + 1 FROM tb_voucher", Long.class);
+        Assertions.assertEquals("优惠卷不存在", seckillVoucherStateCache.check(nextId));
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("售罄测试券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(200L);
+        voucher.setType(1);
+        voucher.setStock(1);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+
+        Assertions.assertNull(seckillVoucherStateCache.check(voucherId));
+        Assertions.assertEquals("优惠卷不存在", seckillVoucherStateCache.check(-1L));
+
+        // 同一批不存在的 id 的并发请求共用加载结果，都返回不存在
+        CountDownLatch probes = new CountDownLatch(1000);
+        AtomicInteger wrong = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            long id = -2L - i % 10;
+            es.submit(() -> {
+                try {
+                    if (!"优惠卷不存在".equals(seckillVoucherStateCache.check(id))) {
+                        wrong.incrementAndGet();
+                    }
+                } finally {
+                    probes.countDown();
+                }
+            });
+        }
+        probes.await();
+        Assertions.assertEquals(0, wrong.get());
+
+        seckillVoucherStateCache.markSoldOut(voucherId);
+        int times = 1_000_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            Assertions.assertNotNull(seckillVoucherStateCache.check(voucherId));
+        }
+        System.out.println("售罄判断平均耗时：" + (System.nanoTime() - begin) / times + "ns");
+
+        // 其他节点补充库存后发出的失效通知
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_VOUCHER_STATE_CHANNEL, voucherId.toString());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (seckillVoucherStateCache.check(voucherId) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(seckillVoucherStateCache.check(voucherId));
+    }
+
+    @Resource
+    MeterRegistry meterRegistry;
+
+    /**
+     * 商铺两级缓存：本地缓存命中率与更新后的失效
+     */
+    @Test
+    void testShopNearCache() throws InterruptedException {
+        long shopId = 1L;
+        // 逻辑过期的缓存首次未命中时异步重建
+        Shop shop = shopService.cachedGetById(shopId);
+        for (int i = 0; shop == null && i < 50; i++) {
+            Thread.sleep(100);
+            shop = shopService.cachedGetById(shopId);
+        }
+        Assertions.assertNotNull(shop);
+
+        int times = 100_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            shopService.cachedGetById(shopId);
+        }
+        System.out.println("商铺详情平均耗时：" + (System.nanoTime() - begin) / times + "ns");
+
+        // 更新后本地缓存与 redis 缓存都被清除
+        shopService.cachedUpdateById(shop);
+        double l1MissBefore = meterRegistry.get("cache.level.gets").tags("cache", "shop", "level", "l1", "result", "miss").counter().count();
+        shopService.cachedGetById(shopId);
+        double l1MissAfter = meterRegistry.get("cache.level.gets").tags("cache", "shop", "level", "l1", "result", "miss").counter().count();
+        Assertions.assertEquals(l1MissBefore + 1, l1MissAfter);
+        meterRegistry.find("cache.level.gets").counters().forEach(c -> System.out.println(c.getId() + " = " + c.count()));
+        meterRegistry.find("cache.level.latency").timers().forEach(t -> System.out.println(t.getId() + " mean = " + t.mean(TimeUnit.MICROSECONDS) + "us"));
+    }
+
+    @Resource
+    EntityBloomFilters entityBloomFilters;
+
+    /**
+     * 布隆过滤器：已有 id 一定放行，不存在的 id 绝大部分被拒绝，新增后放行
+     */
+    @Test
+    void testEntityBloomFilters() {
+        Assertions.assertTrue(entityBloomFilters.rebuild(EntityBloomFilters.SHOP) > 0);
+        shopService.list().forEach(shop ->
+                Assertions.assertTrue(entityBloomFilters.mightContain(EntityBloomFilters.SHOP, shop.getId())));
+
+        int times = 10_000;
+        int passed = 0;
+        for (int i = 0; i < times; i++) {
+            if (entityBloomFilters.mightContain(EntityBloomFilters.SHOP, 1_000_000_000L + i)) {
+                passed++;
+            }
+        }
+        System.out.println("不存在的 id 误判率：" + (double) passed / times);
+        Assertions.assertTrue(passed < times * 0.05);
+        Assertions.assertNull(shopService.cachedGetById(1_000_000_000L));
+
+        Shop shop = shopService.getById(1L);
+        shop.setId(null);
+        shopService.save(shop);
+        try {
+            Assertions.assertTrue(entityBloomFilters.mightContain(EntityBloomFilters.SHOP, shop.getId()));
+        } finally {
+            shopService.removeById(shop.getId());
+        }
+        System.out.println(entityBloomFilters.status());
+    }
+
+    @Resource
+    ShopCacheWarmer shopCacheWarmer;
+
+    /**
+     * 商铺缓存预热：清空后重新预热，详情缓存与 geo 集合都被写入
+     */
+    @Test
+    void testShopCacheWarmer() {
+        Shop shop = shopService.getById(1L);
+        String key = RedisConstants.CACHE_REDIS_DATA_KEY + RedisConstants.CACHE_SHOP_KEY + shop.getId();
+        String geoKey = RedisConstants.SHOP_GEO_KEY + shop.getTypeId();
+        stringRedisTemplate.delete(List.of(key, geoKey));
+
+        shopCacheWarmer.run(null);
+
+        Assertions.assertNotNull(stringRedisTemplate.opsForValue().get(key));
+        Assertions.assertNotNull(stringRedisTemplate.opsForGeo().position(geoKey, shop.getId().toString()).get(0));
+        Assertions.assertEquals(1.0, meterRegistry.get("cache.warmup.progress").tag("cache", "shop").gauge().value());
+        System.out.println("预热耗时：" + meterRegistry.get("cache.warmup.duration").timer().totalTime(TimeUnit.MILLISECONDS) + "ms");
+    }
+
+    @Resource
+    LoginSessionStore loginSessionStore;
+
+    /**
+     * 登录会话：读取命中本地缓存，需要续期的会话由定时任务批量续期，登出后读取不到
+     */
+    @Test
+    void testLoginSessionStore() {
+        String tokenId = UUID.randomUUID().toString();
+        String key = RedisConstants.LOGIN_USER_KEY + tokenId;
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("session");
+        loginSessionStore.save(tokenId, user);
+        Assertions.assertEquals("session", stringRedisTemplate.opsForHash().get(key, "nickName"));
+
+        // 模拟很久没有续期的会话
+        stringRedisTemplate.expire(key, 1, TimeUnit.DAYS);
+        for (int i = 0; i < 10_000; i++) {
+            Assertions.assertEquals(1L, loginSessionStore.get(tokenId).getId());
+        }
+        loginSessionStore.flushRefresh();
+        Assertions.assertTrue(stringRedisTemplate.getExpire(key, TimeUnit.DAYS) >= RedisConstants.LOGIN_USER_TTL - 1);
+
+        Assertions.assertTrue(loginSessionStore.remove(tokenId));
+        Assertions.assertNull(loginSessionStore.get(tokenId));
+        Assertions.assertFalse(stringRedisTemplate.hasKey(key));
+    }
+
+    /**
+     * 升级前的字符串会话：读取一次后改写为 hash，保留剩余过期时间
+     */
+    @Test
+    void testLoginSessionStoreLegacySession() {
+        String tokenId = UUID.randomUUID().toString();
+        String key = RedisConstants.LOGIN_USER_KEY + tokenId;
+        User legacy = new User();
+        legacy.setId(2L);
+        legacy.setPhone("13800000000");
+        legacy.setNickName("legacy");
+        redisUtil.setObject(key, legacy, 3, TimeUnit.DAYS);
+
+        UserDTO user = loginSessionStore.get(tokenId);
+        Assertions.assertEquals(2L, user.getId());
+        Assertions.assertEquals("legacy", user.getNickName());
+        Assertions.assertEquals(DataType.HASH, stringRedisTemplate.type(key));
+        Assertions.assertEquals("legacy", stringRedisTemplate.opsForHash().get(key, "nickName"));
+        Assertions.assertNull(stringRedisTemplate.opsForHash().get(key, "phone"));
+        long ttlHours = stringRedisTemplate.getExpire(key, TimeUnit.HOURS);
+        Assertions.assertTrue(ttlHours > 70 && ttlHours <= 72, "ttl: " + ttlHours);
+
+        Assertions.assertTrue(loginSessionStore.remove(tokenId));
+        Assertions.assertNull(loginSessionStore.get(tokenId));
+    }
+
+    @Resource
+    JwtAuthenticator jwtAuthenticator;
+
+    @Resource
+    JWTInterceptor jwtInterceptor;
+
+    @Resource
+    RedisUtil redisUtil;
+
+    /**
+     * 鉴权拦截器每个请求的耗时：原来的两次解析 + redis 读取与续期，会话令牌，无状态令牌；以及无状态令牌的注销
+     */
+    @Test
+    void testAuthModes() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("auth");
+
+        // 原来的实现：isValid 与 getSubject 各解析一次令牌，再 GET 完整的 User 并 EXPIRE
+        String tokenId = UUID.randomUUID().toString();
+        User entity = BeanUtil.copyProperties(user, User.class);
+        redisUtil.setObject(RedisConstants.LOGIN_USER_KEY + tokenId, entity, RedisConstants.LOGIN_USER_TTL, RedisConstants.LOGIN_USER_TTL_TIMEUNIT);
+        String legacyToken = JwtUtil.createJWT(tokenId);
+        int rounds = 2_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Assertions.assertTrue(JwtUtil.isValid(legacyToken));
+            try {
+                String subject = JwtUtil.getSubject(legacyToken);
+                Assertions.assertNotNull(redisUtil.getObject(RedisConstants.LOGIN_USER_KEY + subject, User.class));
+                redisUtil.expire(RedisConstants.LOGIN_USER_KEY + subject, RedisConstants.LOGIN_USER_TTL, RedisConstants.LOGIN_USER_TTL_TIMEUNIT);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        System.out.println("原实现：" + (System.nanoTime() - begin) / rounds + " ns/请求");
+        redisUtil.delete(RedisConstants.LOGIN_USER_KEY + tokenId);
+
+        String sessionToken = jwtAuthenticator.issueSession(user);
+        String statelessToken = jwtAuthenticator.issueStateless(user);
+        rounds = 100_000;
+        for (String token : List.of(sessionToken, statelessToken)) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader(JwtUtil.JWT_HEADER_FIELD, token);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                jwtInterceptor.preHandle(request, response, null);
+                Assertions.assertEquals(1L, UserHolder.getUser().getId());
+                UserHolder.removeUser();
+            }
+            System.out.println((token == sessionToken ? "会话令牌：" : "无状态令牌：") + (System.nanoTime() - begin) / rounds + " ns/请求");
+        }
+
+        Assertions.assertTrue(jwtAuthenticator.revoke(statelessToken));
+        Assertions.assertFalse(jwtAuthenticator.revoke(statelessToken));
+        Assertions.assertNull(jwtAuthenticator.authenticate(statelessToken));
+        Assertions.assertTrue(jwtAuthenticator.revoke(sessionToken));
+        Assertions.assertNull(jwtAuthenticator.authenticate(sessionToken));
+        // 登出只依赖 revoke 的返回值：缺失、格式错误的令牌返回 false
+        Assertions.assertFalse(jwtAuthenticator.revoke(null));
+        Assertions.assertFalse(jwtAuthenticator.revoke("not-a-jwt"));
+    }
+
+    /**
+     * 注销写入 redis 失败时撤销本地记录，重试时仍会写入 redis
+     */
+    @Test
+    void testRevokeRetriesAfterRedisFailure() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("auth");
+        String token = jwtAuthenticator.issueStateless(user);
+
+        StringRedisTemplate failing = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(failing.opsForZSet()).thenThrow(new RedisConnectionFailureException("redis unreachable"));
+        ReflectionTestUtils.setField(jwtAuthenticator, "stringRedisTemplate", failing);
+        try {
+            Assertions.assertThrows(RedisConnectionFailureException.class, () -> jwtAuthenticator.revoke(token));
+        } finally {
+            ReflectionTestUtils.setField(jwtAuthenticator, "stringRedisTemplate", stringRedisTemplate);
+        }
+        Assertions.assertNotNull(jwtAuthenticator.authenticate(token));
+
+        Assertions.assertTrue(jwtAuthenticator.revoke(token));
+        Assertions.assertNull(jwtAuthenticator.authenticate(token));
+    }
+
+    @Resource
+    IBlogService blogService;
+
+    @Resource
+    IUserService userService;
+
+    /**
+     * 博文列表填充作者与点赞状态：逐篇查询（每篇一次用户查询与一次 ZSCORE）与批量填充的延迟对比
+     */
+    @Test
+    void testEnrichBlogs() {
+        List<Blog> all = blogService.list();
+        Assumptions.assumeFalse(all.isEmpty(), "没有博文数据");
+        UserDTO current = new UserDTO();
+        current.setId(all.get(0).getUserId());
+        UserHolder.saveUser(current);
+        try {
+            // 一页 10 篇博文
+            List<Blog> page = new ArrayList<>();
+            for (int i = 0; i < SystemConstants.MAX_PAGE_SIZE; i++) {
+                page.add(all.get(i % all.size()));
+            }
+            int rounds = 500;
+            long[] perBlog = new long[rounds];
+            long[] batch = new long[rounds];
+            for (int r = 0; r < rounds; r++) {
+                List<Blog> blogs = page.stream().map(blog -> BeanUtil.copyProperties(blog, Blog.class)).toList();
+                long begin = System.nanoTime();
+                for (Blog blog : blogs) {
+                    User user = userService.getById(blog.getUserId());
+                    blog.setName(user.getNickName());
+                    blog.setIcon(user.getIcon());
+                    blog.setIsLike(stringRedisTemplate.opsForZSet().score(RedisConstants.BLOG_LIKED_KEY + blog.getId(),
+                            current.getId().toString()) != null);
+                }
+                perBlog[r] = System.nanoTime() - begin;
+
+                List<Blog> enriched = page.stream().map(blog -> BeanUtil.copyProperties(blog, Blog.class)).toList();
+                begin = System.nanoTime();
+                blogService.enrichBlogs(enriched);
+                batch[r] = System.nanoTime() - begin;
+
+                for (int i = 0; i < blogs.size(); i++) {
+                    Assertions.assertEquals(blogs.get(i).getName(), enriched.get(i).getName());
+                    Assertions.assertEquals(blogs.get(i).getIsLike(), enriched.get(i).getIsLike());
+                }
+            }
+            Arrays.sort(perBlog);
+            Arrays.sort(batch);
+            System.out.println("逐篇查询：p50 " + perBlog[rounds / 2] / 1000 + "us，p99 " + perBlog[rounds * 99 / 100] / 1000 + "us");
+            System.out.println("批量填充：p50 " + batch[rounds / 2] / 1000 + "us，p99 " + batch[rounds * 99 / 100] / 1000 + "us");
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    @Resource
+    BlogLikeFlusher blogLikeFlusher;
+
+    /**
+     * 多个用户并发点赞同一篇博文：点赞用户数与 redis 中的点赞数一致，落库后数据库与 redis 一致；
+     * 随后全部取消点赞，点赞数恢复原值
+     */
+    @Test
+    void testBlogLikeWriteBehind() throws InterruptedException {
+        List<Blog> all = blogService.list();
+        Assumptions.assumeFalse(all.isEmpty(), "没有博文数据");
+        Long blogId = all.get(0).getId();
+        String likedKey = RedisConstants.BLOG_LIKED_KEY + blogId;
+        int users = 200;
+        // 使用不存在的用户 id，不影响已有的点赞记录
+        long firstUserId = 9_000_000L;
+
+        // 取消上次中断的测试留下的点赞
+        for (int i = 0; i < users; i++) {
+            long userId = firstUserId + i;
+            if (stringRedisTemplate.opsForZSet().score(likedKey, String.valueOf(userId)) != null) {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                blogService.likeBlog(blogId);
+                UserHolder.removeUser();
+            }
+        }
+        // 与 likeBlog 一样从数据库加载点赞数，并先把已有的变化落库
+        stringRedisTemplate.opsForHash().putIfAbsent(RedisConstants.BLOG_LIKE_COUNT_KEY, blogId.toString(),
+                String.valueOf(all.get(0).getLiked()));
+        blogLikeFlusher.flush();
+        long base = countOf(blogId);
+        long baseCard = stringRedisTemplate.opsForZSet().zCard(likedKey);
+
+        for (boolean like : new boolean[]{true, false}) {
+            ExecutorService executor = Executors.newFixedThreadPool(32);
+            CountDownLatch latch = new CountDownLatch(users);
+            AtomicInteger succeeded = new AtomicInteger();
+            long begin = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                long userId = firstUserId + i;
+                executor.submit(() -> {
+                    UserDTO user = new UserDTO();
+                    user.setId(userId);
+                    UserHolder.saveUser(user);
+                    try {
+                        String expected = like ? "点赞成功" : "取消点赞成功";
+                        if (expected.equals(blogService.likeBlog(blogId).getData())) {
+                            succeeded.incrementAndGet();
+                        }
+                    } finally {
+                        UserHolder.removeUser();
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            System.out.println((like ? "点赞" : "取消点赞") + " " + users + " 次，耗时 " + (System.nanoTime() - begin) / 1_000_000 + "ms");
+            Assertions.assertEquals(users, succeeded.get());
+
+            long delta = like ? users : 0;
+            Assertions.assertEquals(baseCard + delta, stringRedisTemplate.opsForZSet().zCard(likedKey));
+            Assertions.assertEquals(base + delta, countOf(blogId));
+
+            // 定时任务可能正在落库，等待它完成
+            for (int i = 0; i < 50 && !flushed(blogId); i++) {
+                blogLikeFlusher.flush();
+                Thread.sleep(100);
+            }
+            Assertions.assertTrue(flushed(blogId));
+            Assertions.assertEquals(base + delta, blogService.getById(blogId).getLiked().longValue());
+        }
+    }
+
+    /**
+     * 落库失败的批次移入停放集合，不阻塞后续落库；停放的博文逐条重试，写入的点赞数不小于 0
+     */
+    @Test
+    void testBlogLikeFlushParksFailedBatch() {
+        List<Blog> all = blogService.list();
+        Assumptions.assumeFalse(all.isEmpty(), "没有博文数据");
+        Blog blog = all.get(0);
+        String blogId = blog.getId().toString();
+        // 无法解析的 id 使整批写入失败
+        String poison = "poison";
+        try {
+            stringRedisTemplate.opsForHash().put(RedisConstants.BLOG_LIKE_COUNT_KEY, poison, "1");
+            stringRedisTemplate.opsForHash().put(RedisConstants.BLOG_LIKE_COUNT_KEY, blogId, "-5");
+            stringRedisTemplate.opsForSet().add(RedisConstants.BLOG_LIKE_DIRTY_KEY, blogId, poison);
+            blogLikeFlusher.flush();
+            Assertions.assertFalse(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKE_FLUSHING_KEY));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.BLOG_LIKE_PARKED_KEY, poison));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.BLOG_LIKE_PARKED_KEY, blogId));
+
+            // 停放期间新的变化照常落库
+            stringRedisTemplate.opsForSet().add(RedisConstants.BLOG_LIKE_DIRTY_KEY, blogId);
+            blogLikeFlusher.flush();
+            Assertions.assertTrue(flushed(blog.getId()));
+            Assertions.assertEquals(0, blogService.getById(blogId).getLiked());
+
+            blogLikeFlusher.retryParked();
+            Assertions.assertEquals(Set.of(poison), stringRedisTemplate.opsForSet().members(RedisConstants.BLOG_LIKE_PARKED_KEY));
+        } finally {
+            stringRedisTemplate.opsForSet().remove(RedisConstants.BLOG_LIKE_PARKED_KEY, poison, blogId);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.BLOG_LIKE_COUNT_KEY, poison);
+            stringRedisTemplate.opsForHash().put(RedisConstants.BLOG_LIKE_COUNT_KEY, blogId, String.valueOf(blog.getLiked()));
+            stringRedisTemplate.opsForSet().add(RedisConstants.BLOG_LIKE_DIRTY_KEY, blogId);
+            blogLikeFlusher.flush();
+        }
+        Assertions.assertEquals(blog.getLiked(), blogService.getById(blogId).getLiked());
+    }
+
+    private boolean flushed(Long blogId) {
+        return !stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKE_FLUSHING_KEY)
+                && !stringRedisTemplate.opsForSet().isMember(RedisConstants.BLOG_LIKE_DIRTY_KEY, blogId.toString());
+    }
+
+    private long countOf(Long blogId) {
+        Object count = stringRedisTemplate.opsForHash().get(RedisConstants.BLOG_LIKE_COUNT_KEY, blogId.toString());
+        return count == null ? -1 : Long.parseLong(count.toString());
+    }
+
+    @Resource
+    BlogHotRanking blogHotRanking;
+
+    @Resource
+    JdbcTemplate jdbcTemplate;
+
+    @Resource
+    RedisCacheClient redisCacheClient;
+
+    /**
+     * 排行丢失后，分页查询与更新分数都会触发后台重建；更新分数不会生成只含一篇博文的排行
+     */
+    @Test
+    void testBlogHotRankingRebuildWhenMissing() throws InterruptedException {
+        List<Blog> all = blogService.list();
+        Assumptions.assumeFalse(all.isEmpty(), "没有博文数据");
+        long expected = Math.min(all.size(), 10000);
+
+        stringRedisTemplate.delete(RedisConstants.BLOG_HOT_KEY);
+        Assertions.assertNull(blogHotRanking.page(1, SystemConstants.MAX_PAGE_SIZE));
+        Assertions.assertTrue(waitForRanking(expected));
+        Assertions.assertFalse(blogHotRanking.page(1, SystemConstants.MAX_PAGE_SIZE).isEmpty());
+
+        stringRedisTemplate.delete(RedisConstants.BLOG_HOT_KEY);
+        Blog blog = all.get(0);
+        blogHotRanking.update(List.of(new Blog().setId(blog.getId()).setLiked(blog.getLiked()).setCreateTime(blog.getCreateTime())));
+        Long size = stringRedisTemplate.opsForZSet().zCard(RedisConstants.BLOG_HOT_KEY);
+        Assertions.assertTrue(size == null || size == 0 || size == expected, "size: " + size);
+        Assertions.assertTrue(waitForRanking(expected));
+    }
+
+    private boolean waitForRanking(long expected) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Long size = stringRedisTemplate.opsForZSet().zCard(RedisConstants.BLOG_HOT_KEY);
+            if (size != null && size == expected) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    /**
+     * 热门博文分页对比：在 tb_blog_bench 中生成 hmdp.bench.hot-blogs（如 1000000）篇博文，
+     * 分别以 ORDER BY liked + COUNT(*)（原来的分页方式）与排行 zset + 博文缓存查询随机的前 20 页。
+     * 通过 -Dhmdp.bench.hot-blogs=1000000 指定博文数，未指定时跳过；结束后删除测试表与 redis 数据。
+     */
+    @Test
+    void testHotBlogRanking() {
+        Integer total = Integer.getInteger("hmdp.bench.hot-blogs");
+        Assumptions.assumeTrue(total != null, "未指定博文数");
+        String table = "tb_blog_bench";
+        String rankingKey = RedisConstants.BLOG_HOT_KEY + ":bench";
+        String cachePrefix = RedisConstants.CACHE_BLOG_KEY + "bench:";
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+        jdbcTemplate.execute("CREATE TABLE " + table + " LIKE tb_blog");
+        try {
+            long begin = System.currentTimeMillis();
+            Random random = new Random(42);
+            LocalDateTime now = LocalDateTime.now().withNano(0);
+            int batch = 5000;
+            for (int i = 0; i < total; i += batch) {
+                StringBuilder sql = new StringBuilder("INSERT INTO " + table
+                        + " (shop_id, user_id, title, images, content, liked, comments, create_time) VALUES ");
+                for (int j = 0; j < Math.min(batch, total - i); j++) {
+                    // 点赞数呈长尾分布
+                    int liked = (int) (Math.pow(random.nextDouble(), 8) * 100_000);
+                    sql.append(j == 0 ? "" : ",").append("(1, 1, 'bench', '', 'bench', ").append(liked).append(", 0, '")
+                            .append(now.minusSeconds(random.nextInt(365 * 24 * 3600)).toString().replace('T', ' ')).append("')");
+                }
+                jdbcTemplate.execute(sql.toString());
+            }
+            System.out.println("生成 " + total + " 篇博文，耗时 " + (System.currentTimeMillis() - begin) + "ms");
+
+            // 与 BlogHotRanking.rebuild 相同：按主键分页读取，写入 zset 并只保留前 10000 篇
+            begin = System.currentTimeMillis();
+            byte[] rawKey = rankingKey.getBytes(StandardCharsets.UTF_8);
+            long lastId = 0;
+            while (true) {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT id, liked, create_time FROM " + table
+                        + " WHERE id > ? ORDER BY id LIMIT ?", lastId, batch);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Map<String, Object> row : rows) {
+                        double score = blogHotRanking.score(((Number) row.get("liked")).longValue(),
+                                ((Timestamp) row.get("create_time")).toLocalDateTime());
+                        connection.zSetCommands().zAdd(rawKey, score, row.get("id").toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                    connection.zSetCommands().zRemRange(rawKey, 0, -10_001);
+                    return null;
+                });
+                lastId = ((Number) rows.get(rows.size() - 1).get("id")).longValue();
+            }
+            System.out.println("重建排行耗时 " + (System.currentTimeMillis() - begin) + "ms");
+
+            int rounds = 50;
+            long[] sqlNanos = new long[rounds];
+            long[] rankingNanos = new long[rounds];
+            for (int r = 0; r < rounds; r++) {
+                int current = random.nextInt(20) + 1;
+                long start = System.nanoTime();
+                List<Blog> bySql = jdbcTemplate.query("SELECT * FROM " + table + " ORDER BY liked DESC LIMIT ?, ?",
+                        new BeanPropertyRowMapper<>(Blog.class), (current - 1) * pageSize, pageSize);
+                jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+                sqlNanos[r] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<Long> ids = stringRedisTemplate.opsForZSet()
+                        .reverseRange(rankingKey, (long) (current - 1) * pageSize, (long) current * pageSize - 1)
+                        .stream().map(Long::valueOf).toList();
+                Map<Long, Blog> blogs = redisCacheClient.queryAllWithPassThrough(cachePrefix, ids, Blog.class,
+                        misses -> jdbcTemplate.query("SELECT * FROM " + table + " WHERE id IN ("
+                                        + misses.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")",
+                                new BeanPropertyRowMapper<>(Blog.class)).stream().collect(Collectors.toMap(Blog::getId, b -> b)),
+                        RedisConstants.CACHE_BLOG_TTL, RedisConstants.CACHE_BLOG_TTL_TIMEUNIT);
+                rankingNanos[r] = System.nanoTime() - start;
+
+                Assertions.assertEquals(pageSize, bySql.size());
+                Assertions.assertEquals(pageSize, blogs.size());
+            }
+            Arrays.sort(sqlNanos);
+            Arrays.sort(rankingNanos);
+            System.out.println("ORDER BY liked：p50 " + sqlNanos[rounds / 2] / 1000 + "us，p99 " + sqlNanos[rounds * 99 / 100] / 1000 + "us");
+            System.out.println("排行 zset：p50 " + rankingNanos[rounds / 2] / 1000 + "us，p99 " + rankingNanos[rounds * 99 / 100] / 1000 + "us");
+        } finally {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+            stringRedisTemplate.delete(rankingKey);
+            Set<String> cacheKeys = stringRedisTemplate.keys(cachePrefix + "*");
+            if (cacheKeys != null && !cacheKeys.isEmpty()) {
+                stringRedisTemplate.delete(cacheKeys);
+            }
+        }
+    }
+
+    @Resource
+    FeedFanoutWorker feedFanoutWorker;
+
+    /**
+     * 异步推送：为一个作者生成 hmdp.bench.followers（默认比大 V 的阈值少一个）个粉丝，
+     * 1. 从断点继续推送时，只推送断点之后的粉丝；
+     * 2. 发布耗时与粉丝数无关，推送由后台消费者完成；
+     * 3. 粉丝数达到阈值后，博文只写入作者的发件箱。
+     */
+    @Test
+    void testFeedFanout() throws InterruptedException {
+        int followers = Integer.getInteger("hmdp.bench.followers", (int) feedTimeline.getBigAuthorFollowers() - 1);
+        long authorId = 8_000_000L;
+        long firstFollowerId = 8_100_000L;
+        jdbcTemplate.update("DELETE FROM tb_follow WHERE follow_user_id = ?", authorId);
+        stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(authorId));
+        for (int i = 0; i < followers; i += 5000) {
+            StringBuilder sql = new StringBuilder("INSERT INTO tb_follow (user_id, follow_user_id) VALUES ");
+            for (int j = i; j < Math.min(i + 5000, followers); j++) {
+                sql.append(j == i ? "" : ",").append("(").append(firstFollowerId + j).append(", ").append(authorId).append(")");
+            }
+            jdbcTemplate.execute(sql.toString());
+        }
+        long middleFollowerId = firstFollowerId + followers / 2;
+        try {
+            // 1.模拟推送到一半时崩溃：断点之前的粉丝不再推送
+            long blogId = 9_000_001L;
+            String messageId = "1-1";
+            stringRedisTemplate.opsForHash().put(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, messageId, String.valueOf(middleFollowerId));
+            feedFanoutWorker.fanout(StreamRecords.newRecord()
+                    .in(RedisConstants.FEED_FANOUT_STREAM)
+                    .withId(RecordId.of(messageId))
+                    .ofMap(Map.<Object, Object>of("blogId", String.valueOf(blogId), "authorId", String.valueOf(authorId),
+                            "time", String.valueOf(System.currentTimeMillis()))), "test");
+            Assertions.assertNull(stringRedisTemplate.opsForZSet().score(RedisConstants.FEED_KEY + middleFollowerId, String.valueOf(blogId)));
+            Assertions.assertNotNull(stringRedisTemplate.opsForZSet().score(RedisConstants.FEED_KEY + (middleFollowerId + 1), String.valueOf(blogId)));
+            Assertions.assertNotNull(stringRedisTemplate.opsForZSet().score(RedisConstants.FEED_KEY + (firstFollowerId + followers - 1), String.valueOf(blogId)));
+            Assertions.assertFalse(stringRedisTemplate.opsForHash().hasKey(RedisConstants.FEED_FANOUT_CHECKPOINT_KEY, messageId));
+
+            // 2.发布只发送一条消息，由后台消费者推送给全部粉丝
+            blogId = 9_000_002L;
+            long begin = System.nanoTime();
+            feedFanoutWorker.publish(blogId, authorId, System.currentTimeMillis());
+            long publishMicros = (System.nanoTime() - begin) / 1000;
+            String lastFeedKey = RedisConstants.FEED_KEY + (firstFollowerId + followers - 1);
+            for (int i = 0; i < 600 && stringRedisTemplate.opsForZSet().score(lastFeedKey, String.valueOf(blogId)) == null; i++) {
+                Thread.sleep(50);
+            }
+            long fanoutMillis = (System.nanoTime() - begin) / 1_000_000;
+            Assertions.assertNotNull(stringRedisTemplate.opsForZSet().score(lastFeedKey, String.valueOf(blogId)));
+            Assertions.assertNotNull(stringRedisTemplate.opsForZSet().score(RedisConstants.FEED_KEY + firstFollowerId, String.valueOf(blogId)));
+            System.out.println(followers + " 个粉丝：发布耗时 " + publishMicros + "us，推送完成耗时 " + fanoutMillis + "ms");
+
+            // 3.再增加一个粉丝后成为大 V，博文只写入发件箱
+            jdbcTemplate.update("INSERT INTO tb_follow (user_id, follow_user_id) VALUES (?, ?)", firstFollowerId + followers, authorId);
+            blogId = 9_000_003L;
+            feedFanoutWorker.publish(blogId, authorId, System.currentTimeMillis());
+            String outboxKey = RedisConstants.FEED_OUTBOX_KEY + authorId;
+            for (int i = 0; i < 100 && stringRedisTemplate.opsForZSet().score(outboxKey, String.valueOf(blogId)) == null; i++) {
+                Thread.sleep(50);
+            }
+            Assertions.assertNotNull(stringRedisTemplate.opsForZSet().score(outboxKey, String.valueOf(blogId)));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(authorId)));
+            Assertions.assertNull(stringRedisTemplate.opsForZSet().score(RedisConstants.FEED_KEY + firstFollowerId, String.valueOf(blogId)));
+        } finally {
+            stringRedisTemplate.delete(RedisConstants.FEED_OUTBOX_KEY + authorId);
+            stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(authorId));
+            jdbcTemplate.update("DELETE FROM tb_follow WHERE follow_user_id = ?", authorId);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < followers; i++) {
+                    connection.keyCommands().del((RedisConstants.FEED_KEY + (firstFollowerId + i)).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 一直推送失败的消息：投递次数达到上限后转入死信队列 stream.feed.fanout.dlq，附带失败原因，并从 stream 中删除
+     */
+    @Test
+    void testFeedFanoutDeadLetter() throws InterruptedException {
+        Object idleMillis = ReflectionTestUtils.getField(feedFanoutWorker, "idleMillis");
+        Object maxDeliveries = ReflectionTestUtils.getField(feedFanoutWorker, "maxDeliveries");
+        ReflectionTestUtils.setField(feedFanoutWorker, "idleMillis", 0L);
+        ReflectionTestUtils.setField(feedFanoutWorker, "maxDeliveries", 2);
+        // 无法解析的博文 id，每次推送都失败
+        RecordId id = stringRedisTemplate.opsForStream().add(RedisConstants.FEED_FANOUT_STREAM, Map.of(
+                "blogId", "poison", "authorId", "1", "time", String.valueOf(System.currentTimeMillis())));
+        try {
+            MapRecord<String, Object, Object> deadLetter = null;
+            for (int i = 0; i < 100 && deadLetter == null; i++) {
+                feedFanoutWorker.reclaim();
+                deadLetter = stringRedisTemplate.opsForStream().range(RedisConstants.FEED_FANOUT_DLQ_STREAM, Range.unbounded())
+                        .stream()
+                        .filter(record -> id.getValue().equals(record.getValue().get("originId")))
+                        .findFirst()
+                        .orElse(null);
+                Thread.sleep(100);
+            }
+            Assertions.assertNotNull(deadLetter);
+            Assertions.assertTrue(deadLetter.getValue().get("reason").toString().contains("NumberFormatException"));
+            Assertions.assertEquals("poison", deadLetter.getValue().get("blogId"));
+            Assertions.assertTrue(stringRedisTemplate.opsForStream().range(RedisConstants.FEED_FANOUT_STREAM,
+                    Range.closed(id.getValue(), id.getValue())).isEmpty());
+            Assertions.assertFalse(stringRedisTemplate.opsForHash().hasKey(RedisConstants.FEED_FANOUT_FAILURE_KEY, id.getValue()));
+            stringRedisTemplate.opsForStream().delete(RedisConstants.FEED_FANOUT_DLQ_STREAM, deadLetter.getId());
+        } finally {
+            ReflectionTestUtils.setField(feedFanoutWorker, "idleMillis", idleMillis);
+            ReflectionTestUtils.setField(feedFanoutWorker, "maxDeliveries", maxDeliveries);
+        }
+    }
+
+    @Resource
+    FeedTimeline feedTimeline;
+
+    /**
+     * 推拉结合的 feed 流：
+     * 1. 写放大：按不同的粉丝数分布，计算每发布一篇博文需要写入的 zset 次数（纯推送与推拉结合）；
+     * 2. 读延迟：收件箱 1000 条，分别关注 0、10、50、200 个大 V（发件箱各 1000 条）时读取一页的耗时；
+     * 3. 正确性：按游标连续翻页，结果与把所有来源合并排序后的结果一致。
+     */
+    @Test
+    void testHybridFeed() {
+        Random random = new Random(11);
+        int authors = 100_000;
+        Map<String, long[]> distributions = new java.util.LinkedHashMap<>();
+        distributions.put("均匀（每人 200 粉丝）", random.longs(authors, 200, 201).toArray());
+        // zipf：第 i 名作者的粉丝数为 1000000 / i
+        distributions.put("zipf（最多 100 万粉丝）", java.util.stream.LongStream.rangeClosed(1, authors).map(i -> 1_000_000 / i).toArray());
+        distributions.put("两极（1% 作者 50 万粉丝）", java.util.stream.IntStream.range(0, authors)
+                .mapToLong(i -> i % 100 == 0 ? 500_000 : 50).toArray());
+        for (Map.Entry<String, long[]> e : distributions.entrySet()) {
+            long push = Arrays.stream(e.getValue()).sum();
+            StringBuilder line = new StringBuilder(e.getKey() + "：纯推送 " + push / authors + " 次/篇");
+            for (long threshold : new long[]{1_000, 10_000, 100_000}) {
+                long hybrid = Arrays.stream(e.getValue()).map(f -> f >= threshold ? 1 : f).sum();
+                line.append("，阈值 ").append(threshold).append(" 时 ").append(hybrid / authors).append(" 次/篇");
+            }
+            System.out.println(line);
+        }
+
+        long readerId = 7_000_000L;
+        long firstAuthorId = 7_100_000L;
+        String inbox = RedisConstants.FEED_KEY + readerId;
+        String followKey = RedisConstants.FOLLOW_USER_KEY + readerId;
+        List<String> keys = new ArrayList<>(List.of(inbox, followKey));
+        long now = System.currentTimeMillis();
+        AtomicLong blogIds = new AtomicLong(1_000_000);
+        // 时间戳取到 10ms，制造同一时间戳的多篇博文
+        java.util.function.Consumer<String> fill = key -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < 1000; i++) {
+                connection.zSetCommands().zAdd(key.getBytes(StandardCharsets.UTF_8), now - random.nextInt(1_000_000) / 10 * 10,
+                        String.valueOf(blogIds.incrementAndGet()).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        try {
+            stringRedisTemplate.delete(List.of(inbox, followKey));
+            fill.accept(inbox);
+            int added = 0;
+            for (int bigAuthors : new int[]{0, 10, 50, 200}) {
+                for (; added < bigAuthors; added++) {
+                    String authorId = String.valueOf(firstAuthorId + added);
+                    keys.add(RedisConstants.FEED_OUTBOX_KEY + authorId);
+                    fill.accept(RedisConstants.FEED_OUTBOX_KEY + authorId);
+                    stringRedisTemplate.opsForSet().add(followKey, authorId);
+                    stringRedisTemplate.opsForSet().add(RedisConstants.FEED_BIG_AUTHORS_KEY, authorId);
+                }
+                int rounds = 200;
+                long[] nanos = new long[rounds];
+                for (int r = 0; r < rounds; r++) {
+                    long max = now - random.nextInt(1_000_000);
+                    long begin = System.nanoTime();
+                    feedTimeline.read(readerId, max, 0, 10);
+                    nanos[r] = System.nanoTime() - begin;
+                }
+                Arrays.sort(nanos);
+                System.out.println("关注 " + bigAuthors + " 个大 V：读取一页 p50 " + nanos[rounds / 2] / 1000
+                        + "us，p99 " + nanos[rounds * 99 / 100] / 1000 + "us");
+            }
+
+            // 按游标翻页，与全部来源合并排序的结果比较
+            List<ZSetOperations.TypedTuple<String>> expected = new ArrayList<>();
+            for (String key : keys) {
+                if (!key.equals(followKey)) {
+                    expected.addAll(stringRedisTemplate.opsForZSet().reverseRangeWithScores(key, 0, -1));
+                }
+            }
+            expected.sort(Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore, Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder()));
+            List<String> scrolled = new ArrayList<>();
+            long max = Long.MAX_VALUE;
+            int offset = 0;
+            while (scrolled.size() < 500) {
+                List<ZSetOperations.TypedTuple<String>> page = feedTimeline.read(readerId, max, offset, 7);
+                if (page.isEmpty()) {
+                    break;
+                }
+                // 与 queryBlogOfFollow 相同的游标计算
+                long minTime = 0;
+                int os = 1;
+                for (ZSetOperations.TypedTuple<String> tuple : page) {
+                    scrolled.add(tuple.getValue());
+                    long time = tuple.getScore().longValue();
+                    if (time == minTime) {
+                        os++;
+                    } else {
+                        minTime = time;
+                        os = 1;
+                    }
+                }
+                offset = minTime == max ? os + offset : os;
+                max = minTime;
+            }
+            Assertions.assertEquals(expected.subList(0, scrolled.size()).stream().map(ZSetOperations.TypedTuple::getValue).toList(), scrolled);
+        } finally {
+            stringRedisTemplate.delete(keys);
+            for (int i = 0; i < 200; i++) {
+                stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(firstAuthorId + i));
+            }
+        }
+    }
+
+    /**
+     * tb_follow 索引对比：在 tb_follow_bench 中生成 hmdp.bench.follow-edges（如 10000000）条关注关系（每个用户关注 10 人），
+     * 分别在执行 db/tb_follow_index.sql 中的 ALTER TABLE 前后查询是否关注、按 follow_user_id 分页读取粉丝。
+     * 通过 -Dhmdp.bench.follow-edges=10000000 指定关注关系数，未指定时跳过；结束后删除测试表。
+     */
+    @Test
+    void testFollowIndexes() throws IOException {
+        Long edges = Long.getLong("hmdp.bench.follow-edges");
+        Assumptions.assumeTrue(edges != null, "未指定关注关系数");
+        String table = "tb_follow_bench";
+        int perUser = 10;
+        long users = edges / perUser;
+        int authors = 100_000;
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+        jdbcTemplate.execute("CREATE TABLE " + table + " (id bigint NOT NULL AUTO_INCREMENT, user_id bigint UNSIGNED NOT NULL, "
+                + "follow_user_id bigint UNSIGNED NOT NULL, create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (id))");
+        try {
+            long begin = System.currentTimeMillis();
+            int batch = 10_000;
+            StringBuilder sql = new StringBuilder();
+            for (long u = 1; u <= users; u++) {
+                for (int j = 0; j < perUser; j++) {
+                    // 7919 与 authors 互质，同一用户关注的 10 个作者互不相同
+                    sql.append(sql.length() == 0 ? "INSERT INTO " + table + " (user_id, follow_user_id) VALUES " : ",")
+                            .append("(").append(u).append(",").append((u + j * 7919L) % authors + 1).append(")");
+                }
+                if (u % (batch / perUser) == 0 || u == users) {
+                    jdbcTemplate.execute(sql.toString());
+                    sql.setLength(0);
+                }
+            }
+            System.out.println("生成 " + users * perUser + " 条关注关系，耗时 " + (System.currentTimeMillis() - begin) + "ms");
+
+            Random random = new Random(3);
+            followQueries(table, users, authors, random, 3, "无索引");
+
+            String migration = new String(new ClassPathResource("db/tb_follow_index.sql").getInputStream().readAllBytes(),
+                    StandardCharsets.UTF_8);
+            begin = System.currentTimeMillis();
+            for (String statement : migration.split(";")) {
+                String sqlText = Arrays.stream(statement.split("\n")).filter(line -> !line.startsWith("--"))
+                        .collect(Collectors.joining("\n")).trim();
+                // 测试数据没有重复的关注记录，只执行添加索引的语句
+                if (sqlText.startsWith("ALTER TABLE")) {
+                    jdbcTemplate.execute(sqlText.replace("`tb_follow`", table));
+                }
+            }
+            System.out.println("添加索引耗时 " + (System.currentTimeMillis() - begin) + "ms");
+            followQueries(table, users, authors, random, 200, "有索引");
+        } finally {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+        }
+    }
+
+    private void followQueries(String table, long users, int authors, Random random, int rounds, String label) {
+        long[] isFollow = new long[rounds];
+        long[] followers = new long[rounds];
+        for (int r = 0; r < rounds; r++) {
+            long userId = random.nextLong(users) + 1;
+            long authorId = random.nextInt(authors) + 1;
+            long begin = System.nanoTime();
+            jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE user_id = ? AND follow_user_id = ? LIMIT 1",
+                    userId, authorId);
+            isFollow[r] = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            List<Long> page = jdbcTemplate.queryForList("SELECT user_id FROM " + table
+                    + " WHERE follow_user_id = ? AND user_id > ? ORDER BY user_id LIMIT 2000", Long.class, authorId, 0);
+            followers[r] = System.nanoTime() - begin;
+            Assertions.assertFalse(page.isEmpty());
+        }
+        Arrays.sort(isFollow);
+        Arrays.sort(followers);
+        System.out.println(label + "：是否关注 p50 " + isFollow[rounds / 2] / 1000 + "us，p99 " + isFollow[rounds * 99 / 100] / 1000
+                + "us；读取一页粉丝 p50 " + followers[rounds / 2] / 1000 + "us，p99 " + followers[rounds * 99 / 100] / 1000 + "us");
+    }
+
+    @Resource
+    IFollowService followService;
+
+    @Resource
+    FollowSetCache followSetCache;
+
+    /**
+     * 关注集合的加载、对账与共同关注分页：数据库中已有的关注记录在读取前加载到 follow:{userId}，
+     * 没有关注记录的用户只写入标记；对账修复加载前残留和加载后丢失的成员；共同关注逐页读取的结果与交集一致，用户信息批量查询
+     */
+    @Test
+    void testFollowSetCache() {
+        long userA = 9_600_000L;
+        long userB = userA + 1;
+        long userC = userA + 2;
+        long firstTarget = 9_700_000L;
+        List<Long> realUsers = jdbcTemplate.queryForList("SELECT id FROM tb_user ORDER BY id LIMIT 3", Long.class);
+        Assumptions.assumeFalse(realUsers.isEmpty(), "没有用户数据");
+        List<Long> users = List.of(userA, userB, userC);
+        Runnable cleanup = () -> {
+            jdbcTemplate.update("DELETE FROM tb_follow WHERE user_id IN (?, ?, ?)", userA, userB, userC);
+            stringRedisTemplate.delete(users.stream().map(id -> RedisConstants.FOLLOW_USER_KEY + id).toList());
+        };
+        cleanup.run();
+        try {
+            // A 关注 3000 个用户，B 关注其中 id 为 3 的倍数的 1000 个和另外 1000 个；两人都关注几个真实用户
+            List<Object[]> rows = new ArrayList<>();
+            List<Long> expected = new ArrayList<>(realUsers);
+            for (int i = 0; i < 3000; i++) {
+                rows.add(new Object[]{userA, firstTarget + i});
+                if (i % 3 == 0) {
+                    rows.add(new Object[]{userB, firstTarget + i});
+                    expected.add(firstTarget + i);
+                }
+            }
+            for (int i = 3000; i < 4000; i++) {
+                rows.add(new Object[]{userB, firstTarget + i});
+            }
+            for (Long id : realUsers) {
+                rows.add(new Object[]{userA, id});
+                rows.add(new Object[]{userB, id});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO tb_follow (user_id, follow_user_id) VALUES (?, ?)", rows);
+            // 加载前残留在集合中、数据库中没有的成员
+            stringRedisTemplate.opsForSet().add(RedisConstants.FOLLOW_USER_KEY + userA, "123");
+
+            long begin = System.currentTimeMillis();
+            followSetCache.ensureLoaded(users);
+            System.out.println("加载 3 个用户的关注集合耗时 " + (System.currentTimeMillis() - begin) + "ms");
+            Assertions.assertEquals(3000 + realUsers.size() + 2,
+                    stringRedisTemplate.opsForSet().size(RedisConstants.FOLLOW_USER_KEY + userA));
+            Assertions.assertEquals(Set.of(FollowSetCache.LOADED_MARKER),
+                    stringRedisTemplate.opsForSet().members(RedisConstants.FOLLOW_USER_KEY + userC));
+
+            UserDTO current = new UserDTO();
+            current.setId(userA);
+            UserHolder.saveUser(current);
+            try {
+                Assertions.assertEquals(true, followService.isFollow(firstTarget).getData());
+                Assertions.assertEquals(false, followService.isFollow(firstTarget + 3000).getData());
+                @SuppressWarnings("unchecked")
+                List<UserDTO> firstPage = (List<UserDTO>) followService.commonFollow(userB, null).getData();
+                // 第一页按 id 升序，真实用户排在最前，不存在的测试用户不在结果中
+                Assertions.assertEquals(realUsers, firstPage.stream().map(UserDTO::getId).toList());
+            } finally {
+                UserHolder.removeUser();
+            }
+
+            begin = System.currentTimeMillis();
+            List<Long> common = new ArrayList<>();
+            long lastId = 0;
+            while (true) {
+                List<Long> page = followSetCache.commonPage(userA, userB, lastId, 100);
+                if (page.isEmpty()) {
+                    break;
+                }
+                common.addAll(page);
+                lastId = page.get(page.size() - 1);
+            }
+            System.out.println("逐页读取 " + common.size() + " 个共同关注耗时 " + (System.currentTimeMillis() - begin) + "ms");
+            expected.sort(null);
+            Assertions.assertEquals(expected, common);
+
+            // 加载后丢失的成员
+            stringRedisTemplate.opsForSet().remove(RedisConstants.FOLLOW_USER_KEY + userB, String.valueOf(firstTarget + 3999));
+            Assertions.assertEquals(2, followSetCache.reconcile(users).members());
+            Assertions.assertEquals(false, stringRedisTemplate.opsForSet().isMember(RedisConstants.FOLLOW_USER_KEY + userA, "123"));
+            Assertions.assertEquals(true, stringRedisTemplate.opsForSet()
+                    .isMember(RedisConstants.FOLLOW_USER_KEY + userB, String.valueOf(firstTarget + 3999)));
+            Assertions.assertEquals(0, followSetCache.reconcile(users).members());
+        } finally {
+            cleanup.run();
+        }
+    }
+
+    @Resource
+    IUserInfoService userInfoService;
+
+    @Resource
+    FollowCountFlusher followCountFlusher;
+
+    /**
+     * 粉丝数、关注数计数：50 个用户并发关注同一作者（每人重复关注一次），其中 10 人取关，
+     * 作者的粉丝数从 tb_user_info 中原有的值开始加减，重复关注、取关不重复计数；详情接口读到实时计数，落库后写入 tb_user_info
+     */
+    @Test
+    void testFollowCounters() throws InterruptedException {
+        long authorId = 9_800_100L;
+        long firstFollowerId = 9_800_000L;
+        int followers = 50;
+        int unfollowers = 10;
+        List<Long> users = new ArrayList<>();
+        for (int i = 0; i < followers; i++) {
+            users.add(firstFollowerId + i);
+        }
+        users.add(authorId);
+        Runnable cleanup = () -> {
+            jdbcTemplate.update("DELETE FROM tb_follow WHERE follow_user_id = ?", authorId);
+            jdbcTemplate.update("DELETE FROM tb_user_info WHERE user_id BETWEEN ? AND ?", firstFollowerId, authorId);
+            Object[] fields = users.stream().map(String::valueOf).toArray();
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FANS_COUNT_KEY, fields);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FOLLOWEE_COUNT_KEY, fields);
+            stringRedisTemplate.delete(users.stream().map(id -> RedisConstants.FOLLOW_USER_KEY + id).toList());
+            stringRedisTemplate.delete(RedisConstants.CACHE_USER_INFO_KEY + authorId);
+        };
+        cleanup.run();
+        try {
+            // 作者原有 5 个粉丝（已落库的计数）
+            jdbcTemplate.update("INSERT INTO tb_user_info (user_id, fans, followee) VALUES (?, 5, 0)", authorId);
+            Assertions.assertEquals(5, userInfoService.cachedGetUserInfoById(authorId).getFans());
+
+            CountDownLatch latch = new CountDownLatch(followers);
+            AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < followers; i++) {
+                long userId = firstFollowerId + i;
+                boolean unfollow = i < unfollowers;
+                es.submit(() -> {
+                    UserDTO user = new UserDTO();
+                    user.setId(userId);
+                    UserHolder.saveUser(user);
+                    try {
+                        followService.follow(authorId, true);
+                        followService.follow(authorId, true);
+                        if (unfollow) {
+                            followService.follow(authorId, false);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        e.printStackTrace();
+                    } finally {
+                        UserHolder.removeUser();
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            Assertions.assertEquals(0, failures.get());
+            int expectedFans = 5 + followers - unfollowers;
+            // 详情缓存中仍是 5，读取时由实时计数覆盖
+            UserInfo info = userInfoService.cachedGetUserInfoById(authorId);
+            Assertions.assertEquals(expectedFans, info.getFans());
+            Assertions.assertEquals(1, userInfoService.cachedGetUserInfoById(firstFollowerId + unfollowers).getFollowee());
+            Assertions.assertEquals(0, userInfoService.cachedGetUserInfoById(firstFollowerId).getFollowee());
+
+            // 等待落库，定时任务可能正持有锁
+            for (int i = 0; i < 50; i++) {
+                followCountFlusher.flush();
+                Integer fans = jdbcTemplate.queryForObject("SELECT fans FROM tb_user_info WHERE user_id = ?", Integer.class, authorId);
+                Integer followee = jdbcTemplate.queryForList("SELECT followee FROM tb_user_info WHERE user_id = ?",
+                        Integer.class, firstFollowerId + unfollowers).stream().findFirst().orElse(null);
+                if (fans != null && fans == expectedFans && followee != null && followee == 1) {
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            Assertions.assertEquals(expectedFans,
+                    jdbcTemplate.queryForObject("SELECT fans FROM tb_user_info WHERE user_id = ?", Integer.class, authorId));
+            // 没有详情的用户在落库时插入一行
+            Assertions.assertEquals(1, jdbcTemplate.queryForObject("SELECT followee FROM tb_user_info WHERE user_id = ?",
+                    Integer.class, firstFollowerId + unfollowers));
+        } finally {
+            cleanup.run();
+        }
+    }
+
+    @Resource
+    FollowCounters followCounters;
+
+    @Resource
+    FollowSetReconciler followSetReconciler;
+
+    /**
+     * 计数按 tb_follow 重新统计，而不是从尚未落库的 tb_user_info 加载：
+     * 1. 对账补上关注集合中丢失的成员后，集合所有者的关注数与被关注者的粉丝数一起修正，并标记待落库；
+     * 2. 关注过程中计数失效时，双方的计数按 tb_follow 重新统计
+     */
+    @Test
+    void testFollowCountsRecount() {
+        long authorId = 9_800_300L;
+        long firstFollowerId = 9_800_200L;
+        List<Long> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            users.add(firstFollowerId + i);
+        }
+        users.add(authorId);
+        Runnable cleanup = () -> {
+            jdbcTemplate.update("DELETE FROM tb_follow WHERE follow_user_id = ?", authorId);
+            jdbcTemplate.update("DELETE FROM tb_user_info WHERE user_id BETWEEN ? AND ?", firstFollowerId, authorId);
+            Object[] fields = users.stream().map(String::valueOf).toArray();
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FANS_COUNT_KEY, fields);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FOLLOWEE_COUNT_KEY, fields);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_COUNT_VERSION_KEY, fields);
+            stringRedisTemplate.opsForSet().remove(RedisConstants.USER_COUNT_DIRTY_KEY, fields);
+            stringRedisTemplate.delete(users.stream().map(id -> RedisConstants.FOLLOW_USER_KEY + id).toList());
+        };
+        cleanup.run();
+        try {
+            // tb_user_info 中的粉丝数落后：数据库已有 3 个粉丝，落库的值为 1
+            jdbcTemplate.update("INSERT INTO tb_user_info (user_id, fans, followee) VALUES (?, 1, 0)", authorId);
+            for (int i = 0; i < 3; i++) {
+                jdbcTemplate.update("INSERT INTO tb_follow (user_id, follow_user_id) VALUES (?, ?)", firstFollowerId + i, authorId);
+            }
+            followSetCache.ensureLoaded(users);
+            followCounters.ensureLoaded(users);
+            // 1.第 3 个粉丝关注后写 redis 失败：集合中没有作者，计数也没有加
+            long lost = firstFollowerId + 2;
+            stringRedisTemplate.opsForSet().remove(RedisConstants.FOLLOW_USER_KEY + lost, String.valueOf(authorId));
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FANS_COUNT_KEY, String.valueOf(authorId), "2");
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FOLLOWEE_COUNT_KEY, String.valueOf(lost), "0");
+            followSetReconciler.reconcile();
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.FOLLOW_USER_KEY + lost, String.valueOf(authorId)));
+            Assertions.assertArrayEquals(new int[]{3, 0}, followCounters.get(authorId));
+            Assertions.assertArrayEquals(new int[]{0, 1}, followCounters.get(lost));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.USER_COUNT_DIRTY_KEY, String.valueOf(authorId)));
+
+            // 2.第 4 个粉丝关注，写入数据库之前作者的计数失效
+            long follower = firstFollowerId + 3;
+            followCounters.prepare(follower, authorId);
+            jdbcTemplate.update("INSERT INTO tb_follow (user_id, follow_user_id) VALUES (?, ?)", follower, authorId);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FANS_COUNT_KEY, String.valueOf(authorId));
+            Assertions.assertEquals(1, followCounters.toggle(follower, authorId, true));
+            Assertions.assertArrayEquals(new int[]{4, 0}, followCounters.get(authorId));
+            Assertions.assertArrayEquals(new int[]{0, 1}, followCounters.get(follower));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.FOLLOW_USER_KEY + follower, String.valueOf(authorId)));
+
+            // 3.正常取关时双方的版本号加一，之后的重新统计仍与 tb_follow 一致
+            followCounters.prepare(follower, authorId);
+            jdbcTemplate.update("DELETE FROM tb_follow WHERE user_id = ? AND follow_user_id = ?", follower, authorId);
+            Assertions.assertEquals(1, followCounters.toggle(follower, authorId, false));
+            Assertions.assertEquals("1", stringRedisTemplate.opsForHash().get(RedisConstants.USER_COUNT_VERSION_KEY, String.valueOf(authorId)));
+            Assertions.assertEquals("1", stringRedisTemplate.opsForHash().get(RedisConstants.USER_COUNT_VERSION_KEY, String.valueOf(follower)));
+            followCounters.recount(users);
+            Assertions.assertArrayEquals(new int[]{3, 0}, followCounters.get(authorId));
+            Assertions.assertArrayEquals(new int[]{0, 0}, followCounters.get(follower));
+        } finally {
+            cleanup.run();
+        }
+    }
+
+    /**
+     * 计数落库失败的批次移入 user:count:parked，不阻塞后续落库；停放的用户逐条重试，写入的计数不小于 0
+     */
+    @Test
+    void testFollowCountFlushParksFailedBatch() {
+        long userId = 9_800_400L;
+        String field = String.valueOf(userId);
+        String poison = "poison";
+        Runnable cleanup = () -> {
+            jdbcTemplate.update("DELETE FROM tb_user_info WHERE user_id = ?", userId);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FANS_COUNT_KEY, field, poison);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.USER_FOLLOWEE_COUNT_KEY, field, poison);
+            stringRedisTemplate.opsForSet().remove(RedisConstants.USER_COUNT_PARKED_KEY, field, poison);
+        };
+        cleanup.run();
+        try {
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FANS_COUNT_KEY, field, "-3");
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FOLLOWEE_COUNT_KEY, field, "2");
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FANS_COUNT_KEY, poison, "1");
+            stringRedisTemplate.opsForHash().put(RedisConstants.USER_FOLLOWEE_COUNT_KEY, poison, "1");
+            stringRedisTemplate.opsForSet().add(RedisConstants.USER_COUNT_DIRTY_KEY, field, poison);
+            followCountFlusher.flush();
+            Assertions.assertFalse(stringRedisTemplate.hasKey(RedisConstants.USER_COUNT_FLUSHING_KEY));
+            Assertions.assertTrue(stringRedisTemplate.opsForSet().isMember(RedisConstants.USER_COUNT_PARKED_KEY, poison));
+
+            followCountFlusher.retryParked();
+            Assertions.assertEquals(Set.of(poison), stringRedisTemplate.opsForSet().members(RedisConstants.USER_COUNT_PARKED_KEY));
+            Assertions.assertEquals(0, jdbcTemplate.queryForObject("SELECT fans FROM tb_user_info WHERE user_id = ?", Integer.class, userId));
+            Assertions.assertEquals(2, jdbcTemplate.queryForObject("SELECT followee FROM tb_user_info WHERE user_id = ?", Integer.class, userId));
+        } finally {
+            cleanup.run();
+        }
+    }
+
+    /**
+     * 并发连接压测：对已启动的服务保持 hmdp.bench.connections（默认 10000）个并发请求，持续 hmdp.bench.seconds 秒，
+     * 分别以平台线程（默认）与虚拟线程（Java 21，--spring.profiles.active=virtual）启动服务后运行，对比吞吐量。
+     * 通过 -Dhmdp.bench.load-url=http://127.0.0.1:8081/shop/1 指定压测地址，未指定时跳过。
+     * 操作系统的文件描述符上限（ulimit -n）需大于并发连接数。
+     */
+    @Test
+    void testConcurrentConnections() throws InterruptedException {
+        String url = System.getProperty("hmdp.bench.load-url");
+        Assumptions.assumeTrue(url != null, "未指定压测地址");
+        int connections = Integer.getInteger("hmdp.bench.connections", 10_000);
+        long seconds = Long.getLong("hmdp.bench.seconds", 30L);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30)).build();
+        AtomicLong ok = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + seconds * 1000;
+        CountDownLatch done = new CountDownLatch(connections);
+        long begin = System.currentTimeMillis();
+        // 每个"连接"完成一次请求后立即发起下一次，直到时间结束
+        for (int i = 0; i < connections; i++) {
+            sendUntil(client, request, deadline, ok, failed, done);
+        }
+        done.await();
+        long elapsed = System.currentTimeMillis() - begin;
+        System.out.println("并发连接：" + connections + "，成功：" + ok.get() + "，失败：" + failed.get()
+                + "，吞吐量：" + ok.get() * 1000 / Math.max(1, elapsed) + " 请求/秒");
+    }
+
+    /**
+     * 模拟一个连接：完成一次请求后立即发起下一次，直到时间结束
+     */
+    private void sendUntil(HttpClient client, HttpRequest request, long deadline,
+                           AtomicLong ok, AtomicLong failed, CountDownLatch done) {
+        if (System.currentTimeMillis() >= deadline) {
+            done.countDown();
+            return;
+        }
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e == null && response.statusCode() == 200) {
+                ok.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            sendUntil(client, request, deadline, ok, failed, done);
+        });
+    }
+
     Long time;
 
     @BeforeEach
@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import com.hmdp.utils.HotKeyDetector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点 key 探测测试，使用可控的时钟
+ */
+public class HotKeyDetectorTest {
+
+    private static final byte[] HOT = "hot".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COLD = "cold".getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    // 10 秒窗口、10 个子窗口，窗口内读取 1000 次视为热点
+    private HotKeyDetector newDetector(int sampleRate) {
+        return new HotKeyDetector(true, sampleRate, 10_000, 10, 10, 1000, 60_000, now::get);
+    }
+
+    @Test
+    void testPromoteHotKey() {
+        HotKeyDetector detector = newDetector(1);
+        for (int i = 0; i < 2000; i++) {
+            detector.record("cache:shop:1", HOT);
+            detector.record("cache:shop:" + (i + 100), COLD);
+        }
+        // 进入下一个子窗口时重新计算热点 key
+        now.addAndGet(1000);
+        detector.record("cache:shop:1", HOT);
+
+        Assertions.assertTrue(detector.isHot("cache:shop:1"));
+        Assertions.assertArrayEquals(HOT, detector.getLocal("cache:shop:1"));
+        Assertions.assertFalse(detector.isHot("cache:shop:100"));
+        Assertions.assertNull(detector.getLocal("cache:shop:100"));
+
+        // 写入后清除本地缓存
+        detector.invalidate("cache:shop:1");
+        Assertions.assertNull(detector.getLocal("cache:shop:1"));
+    }
+
+    @Test
+    void testSampledEstimate() {
+        HotKeyDetector detector = newDetector(8);
+        for (int i = 0; i < 80_000; i++) {
+            detector.record("cache:shop:1", HOT);
+        }
+        long estimate = detector.estimate("cache:shop:1");
+        // 采样后按 sampleRate 放大，误差应在 10% 以内
+        Assertions.assertTrue(Math.abs(estimate - 80_000) < 8_000, "estimate: " + estimate);
+    }
+
+    @Test
+    void testSlidingWindow() {
+        HotKeyDetector detector = newDetector(1);
+        for (int i = 0; i < 2000; i++) {
+            detector.record("cache:shop:1", HOT);
+        }
+        now.addAndGet(1000);
+        detector.record("cache:shop:2", COLD);
+        Assertions.assertTrue(detector.isHot("cache:shop:1"));
+
+        // 超过窗口长度后计数过期，不再是热点
+        now.addAndGet(10_000);
+        detector.record("cache:shop:2", COLD);
+        Assertions.assertEquals(0, detector.estimate("cache:shop:1"));
+        Assertions.assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    @Test
+    void testLocalHitsKeepKeyHot() {
+        HotKeyDetector detector = newDetector(1);
+        for (int i = 0; i < 2000; i++) {
+            detector.record("cache:shop:1", HOT);
+        }
+        now.addAndGet(1000);
+        detector.record("cache:shop:1", HOT);
+        Assertions.assertTrue(detector.isHot("cache:shop:1"));
+
+        // 之后的读取都命中本地缓存（与 RedisUtil#getBytes 相同，命中时 record 传 null），超过窗口长度后仍是热点
+        for (int second = 0; second < 15; second++) {
+            now.addAndGet(1000);
+            for (int i = 0; i < 200; i++) {
+                Assertions.assertArrayEquals(HOT, detector.getLocal("cache:shop:1"));
+                detector.record("cache:shop:1", null);
+            }
+        }
+        Assertions.assertTrue(detector.isHot("cache:shop:1"));
+        Assertions.assertArrayEquals(HOT, detector.getLocal("cache:shop:1"));
+    }
+
+    @Test
+    void testBypassLocalPrefix() {
+        HotKeyDetector detector = newDetector(1);
+        detector.bypassLocal("cache:redisData:");
+        for (int i = 0; i < 2000; i++) {
+            detector.record("cache:redisData:cache:shop:1", HOT);
+            detector.record("cache:shop:1", HOT);
+        }
+        now.addAndGet(1000);
+        detector.record("cache:redisData:cache:shop:1", HOT);
+        detector.record("cache:shop:1", HOT);
+
+        // 仍判定为热点，但不放入本地缓存
+        Assertions.assertTrue(detector.isHot("cache:redisData:cache:shop:1"));
+        Assertions.assertNull(detector.getLocal("cache:redisData:cache:shop:1"));
+        Assertions.assertArrayEquals(HOT, detector.getLocal("cache:shop:1"));
+    }
+}
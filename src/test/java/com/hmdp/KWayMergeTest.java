@@ -0,0 +1,68 @@
+package com.hmdp;
+
+import com.hmdp.utils.KWayMerge;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * 多路归并测试
+ */
+public class KWayMergeTest {
+
+    @Test
+    void testMergeSorted() {
+        List<List<Integer>> lists = List.of(
+                List.of(9, 6, 3),
+                List.of(8, 5, 2),
+                List.of(),
+                List.of(7, 4, 1));
+        Assertions.assertEquals(List.of(9, 8, 7, 6, 5, 4, 3, 2, 1),
+                KWayMerge.merge(lists, Comparator.reverseOrder(), Function.identity(), 100));
+        Assertions.assertEquals(List.of(9, 8, 7, 6),
+                KWayMerge.merge(lists, Comparator.reverseOrder(), Function.identity(), 4));
+        Assertions.assertEquals(List.of(),
+                KWayMerge.merge(List.<List<Integer>>of(), Comparator.reverseOrder(), Function.identity(), 4));
+    }
+
+    @Test
+    void testDistinctKeepsFirst() {
+        // {id, score}，同一个 id 出现在多个列表中时保留分数最高的
+        List<List<long[]>> lists = List.of(
+                List.of(new long[]{1, 30}, new long[]{2, 10}),
+                List.of(new long[]{3, 25}, new long[]{1, 20}, new long[]{4, 5}));
+        List<long[]> merged = KWayMerge.merge(lists, Comparator.comparingLong((long[] e) -> e[1]).reversed(),
+                e -> e[0], 10);
+        Assertions.assertEquals(List.of(1L, 3L, 2L, 4L), merged.stream().map(e -> e[0]).toList());
+        Assertions.assertEquals(30, merged.get(0)[1]);
+    }
+
+    @Test
+    void testRandomAgainstSort() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            int k = random.nextInt(10);
+            List<List<Integer>> lists = new ArrayList<>();
+            List<Integer> all = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                List<Integer> list = new ArrayList<>();
+                for (int j = random.nextInt(20); j > 0; j--) {
+                    list.add(random.nextInt(50));
+                }
+                list.sort(Comparator.reverseOrder());
+                lists.add(list);
+                all.addAll(list);
+            }
+            all.sort(Comparator.reverseOrder());
+            int limit = random.nextInt(30);
+            List<Integer> expected = new ArrayList<>(new LinkedHashSet<>(all)).stream().limit(limit).toList();
+            Assertions.assertEquals(expected, KWayMerge.merge(lists, Comparator.reverseOrder(), Function.identity(), limit));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.hmdp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.RedisValueCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 缓存客户端并发测试，用内存 map 代替 redis
+ */
+public class RedisCacheClientTest {
+
+    private static final int THREADS = 500;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // 所有客户端共用的 "redis"
+    private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+
+    // 每个 id 的数据库查询次数
+    private final Map<Long, AtomicInteger> dbHits = new ConcurrentHashMap<>();
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Shop loadShop(Long id) {
+        dbHits.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+        try {
+            // 模拟较慢的数据库查询，保证并发请求都在加载过程中到达
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (id < 0) {
+            return null;
+        }
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("shop-" + id);
+        return shop;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisCacheClient newClient() {
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        Mockito.when(template.opsForValue()).thenReturn(ops);
+        Mockito.doAnswer(i -> redis.put(i.getArgument(0), bytes(i.getArgument(1))))
+                .when(ops).set(Mockito.anyString(), Mockito.anyString());
+        Mockito.doAnswer(i -> redis.put(i.getArgument(0), bytes(i.getArgument(1))))
+                .when(ops).set(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any(TimeUnit.class));
+        Mockito.when(ops.setIfAbsent(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any(TimeUnit.class)))
+                .thenAnswer(i -> redis.putIfAbsent(i.getArgument(0), bytes(i.getArgument(1))) == null);
+        Mockito.when(template.delete(Mockito.anyString())).thenAnswer(i -> redis.remove(i.<String>getArgument(0)) != null);
+        // unlock.lua：值与标识一致时才删除
+        Mockito.when(template.execute(Mockito.<RedisScript<Long>>any(), Mockito.anyList(), Mockito.<Object>any()))
+                .thenAnswer(i -> {
+                    String key = i.<List<String>>getArgument(1).get(0);
+                    byte[] token = bytes(i.getArgument(2));
+                    return redis.computeIfPresent(key, (k, v) -> Arrays.equals(v, token) ? null : v) == null ? 1L : 0L;
+                });
+
+        RedisTemplate<String, byte[]> bytesTemplate = Mockito.mock(RedisTemplate.class);
+        ValueOperations<String, byte[]> bytesOps = Mockito.mock(ValueOperations.class);
+        Mockito.when(bytesTemplate.opsForValue()).thenReturn(bytesOps);
+        Mockito.when(bytesOps.get(Mockito.anyString())).thenAnswer(i -> redis.get(i.<String>getArgument(0)));
+        Mockito.doAnswer(i -> redis.put(i.getArgument(0), i.getArgument(1)))
+                .when(bytesOps).set(Mockito.anyString(), Mockito.any(byte[].class));
+        Mockito.doAnswer(i -> redis.put(i.getArgument(0), i.getArgument(1)))
+                .when(bytesOps).set(Mockito.anyString(), Mockito.any(byte[].class), Mockito.anyLong(), Mockito.any(TimeUnit.class));
+
+        RedisUtil redisUtil = new RedisUtil();
+        ReflectionTestUtils.setField(redisUtil, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(redisUtil, "bytesRedisTemplate", bytesTemplate);
+        ReflectionTestUtils.setField(redisUtil, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(redisUtil, "redisValueCodec",
+                new RedisValueCodec(objectMapper, RedisValueCodec.Format.JSON, 0));
+        ReflectionTestUtils.setField(redisUtil, "hotKeyDetector",
+                new HotKeyDetector(false, 1, 10_000, 10, 10, 1000, 1000, System::currentTimeMillis));
+        RedisCacheClient client = new RedisCacheClient();
+        ReflectionTestUtils.setField(client, "redisUtil", redisUtil);
+        ReflectionTestUtils.setField(client, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(client, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(client, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(client, "rebuildThreads", 4);
+        ReflectionTestUtils.setField(client, "rebuildQueueCapacity", 100);
+        ReflectionTestUtils.invokeMethod(client, "init");
+        return client;
+    }
+
+    /**
+     * 500 个线程同时发起查询，query 的参数为线程序号，返回每个线程拿到的结果
+     */
+    private List<Shop> concurrently(Function<Integer, Shop> query) throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Shop>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int n = i;
+            futures.add(es.submit(() -> {
+                start.await();
+                return query.apply(n);
+            }));
+        }
+        start.countDown();
+        List<Shop> results = new ArrayList<>();
+        for (Future<Shop> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        es.shutdown();
+        return results;
+    }
+
+    @Test
+    void testMutexSingleDbHitPerKey() throws Exception {
+        RedisCacheClient client = newClient();
+        List<Shop> results = concurrently(n -> client.getByIdWithMutex("cache:shop:", (long) (n % 10), Shop.class,
+                this::loadShop, 30L, TimeUnit.MINUTES));
+
+        for (int i = 0; i < THREADS; i++) {
+            Assertions.assertEquals((long) (i % 10), results.get(i).getId());
+        }
+        Assertions.assertEquals(10, dbHits.size());
+        dbHits.forEach((id, hits) -> Assertions.assertEquals(1, hits.get(), "id: " + id));
+    }
+
+    @Test
+    void testMutexSingleDbHitAcrossNodes() throws Exception {
+        // 两个客户端模拟两个节点，节点之间通过 redis 互斥锁保证只有一个节点查询数据库
+        RedisCacheClient node1 = newClient();
+        RedisCacheClient node2 = newClient();
+        List<Shop> results = concurrently(n -> (n % 2 == 0 ? node1 : node2)
+                .getByIdWithMutex("cache:shop:", 1L, Shop.class, this::loadShop, 30L, TimeUnit.MINUTES));
+
+        results.forEach(shop -> Assertions.assertEquals("shop-1", shop.getName()));
+        Assertions.assertEquals(1, dbHits.get(1L).get());
+    }
+
+    @Test
+    void testMutexKeepsLockTakenOverByOtherNode() {
+        // 重建超过锁的有效期，锁过期后被其他节点获取，本节点重建完成时不能删除其他节点的锁
+        RedisCacheClient client = newClient();
+        Shop shop = client.getByIdWithMutex("cache:shop:", 1L, Shop.class, id -> {
+            redis.put("lock:cache:shop:1", bytes("other-node"));
+            return loadShop(id);
+        }, 30L, TimeUnit.MINUTES);
+        Assertions.assertEquals("shop-1", shop.getName());
+        Assertions.assertArrayEquals(bytes("other-node"), redis.get("lock:cache:shop:1"));
+    }
+
+    @Test
+    void testLogicalExpireColdMissSingleDbHit() throws Exception {
+        RedisCacheClient client = newClient();
+        List<Shop> results = concurrently(n -> client.queryWithLogicalExpire("cache:shop:", 1L, Shop.class,
+                this::loadShop, 30L, TimeUnit.MINUTES));
+
+        results.forEach(shop -> Assertions.assertEquals("shop-1", shop.getName()));
+        Assertions.assertEquals(1, dbHits.get(1L).get());
+    }
+
+    @Test
+    void testNullValueCached() throws Exception {
+        RedisCacheClient client = newClient();
+        List<Shop> results = concurrently(n -> client.queryWithPassThrough("cache:shop:", -1L, Shop.class,
+                this::loadShop, 30L, TimeUnit.MINUTES));
+        results.forEach(Assertions::assertNull);
+        Assertions.assertEquals(0, redis.get("cache:shop:-1").length);
+
+        // 空值缓存命中，不再查询数据库
+        Assertions.assertNull(client.queryWithPassThrough("cache:shop:", -1L, Shop.class, this::loadShop, 30L, TimeUnit.MINUTES));
+        Assertions.assertEquals(1, dbHits.get(-1L).get());
+    }
+
+    @Test
+    void testLogicalExpireSingleRebuildAcrossNodes() throws Exception {
+        // 缓存中是已经过期的旧数据
+        Shop stale = new Shop();
+        stale.setId(1L);
+        stale.setName("stale");
+        RedisData<Shop> redisData = new RedisData<>();
+        redisData.setData(stale);
+        redisData.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        redis.put("cache:shop:1", objectMapper.writeValueAsBytes(redisData));
+
+        RedisCacheClient node1 = newClient();
+        RedisCacheClient node2 = newClient();
+        List<Shop> results = concurrently(n -> (n % 2 == 0 ? node1 : node2)
+                .queryWithLogicalExpire("cache:shop:", 1L, Shop.class, this::loadShop, 30L, TimeUnit.MINUTES));
+        // 重建完成前返回旧数据，不等待重建
+        results.forEach(shop -> Assertions.assertTrue(Set.of("stale", "shop-1").contains(shop.getName())));
+
+        // 重建完成后锁被释放，返回新数据，并且只查询了一次数据库
+        long deadline = System.currentTimeMillis() + 5000;
+        while (redis.containsKey("lock:cache:shop:1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals("shop-1", node2.queryWithLogicalExpire("cache:shop:", 1L, Shop.class,
+                this::loadShop, 30L, TimeUnit.MINUTES).getName());
+        Assertions.assertEquals(1, dbHits.get(1L).get());
+    }
+}
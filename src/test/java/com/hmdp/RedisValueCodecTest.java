@@ -0,0 +1,168 @@
+package com.hmdp;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisValueCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * redis 对象值编解码测试，数据来自 hmdp.sql 中的商铺
+ */
+public class RedisValueCodecTest {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final JavaType dataType = objectMapper.getTypeFactory().constructParametricType(RedisData.class, Shop.class);
+
+    /**
+     * 读取 hmdp.sql 中 tb_shop 的数据，包装为逻辑过期的缓存数据
+     */
+    private List<RedisData<Shop>> loadShops() throws IOException {
+        String prefix = "INSERT INTO `tb_shop` VALUES (";
+        List<RedisData<Shop>> shops = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of("src/main/resources/db/hmdp.sql"))) {
+            if (!line.startsWith(prefix)) {
+                continue;
+            }
+            List<String> v = splitValues(line.substring(prefix.length(), line.lastIndexOf(')')));
+            Shop shop = new Shop();
+            shop.setId(Long.parseLong(v.get(0)));
+            shop.setName(v.get(1));
+            shop.setTypeId(Long.parseLong(v.get(2)));
+            shop.setImages(v.get(3));
+            shop.setArea(v.get(4));
+            shop.setAddress(v.get(5));
+            shop.setX(Double.parseDouble(v.get(6)));
+            shop.setY(Double.parseDouble(v.get(7)));
+            shop.setAvgPrice(Long.parseLong(v.get(8)));
+            shop.setSold(Integer.parseInt(v.get(9)));
+            shop.setComments(Integer.parseInt(v.get(10)));
+            shop.setScore(Integer.parseInt(v.get(11)));
+            shop.setOpenHours(v.get(12));
+            shop.setCreateTime(LocalDateTime.parse(v.get(13), TIME_FORMAT));
+            shop.setUpdateTime(LocalDateTime.parse(v.get(14), TIME_FORMAT));
+            RedisData<Shop> redisData = new RedisData<>();
+            redisData.setData(shop);
+            redisData.setExpireTime(LocalDateTime.now().withNano(0));
+            shops.add(redisData);
+        }
+        return shops;
+    }
+
+    /**
+     * 按逗号拆分 VALUES 中的字段，忽略引号内的逗号并去掉引号
+     */
+    private static List<String> splitValues(String values) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < values.length(); i++) {
+            char c = values.charAt(i);
+            if (c == '\\' && quoted && i + 1 < values.length()) {
+                current.append(values.charAt(++i));
+            } else if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                result.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        result.add(current.toString().trim());
+        return result;
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        List<RedisData<Shop>> shops = loadShops();
+        Assertions.assertFalse(shops.isEmpty());
+        for (RedisValueCodec.Format format : RedisValueCodec.Format.values()) {
+            for (int threshold : new int[]{0, 1}) {
+                RedisValueCodec codec = new RedisValueCodec(objectMapper, format, threshold);
+                for (RedisData<Shop> shop : shops) {
+                    RedisData<Shop> decoded = codec.decode(codec.encode(shop), dataType);
+                    Assertions.assertEquals(shop.getData(), decoded.getData(), format + ", threshold: " + threshold);
+                    Assertions.assertEquals(shop.getExpireTime(), decoded.getExpireTime());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReadAcrossFormats() throws IOException {
+        RedisData<Shop> shop = loadShops().get(0);
+        RedisValueCodec json = new RedisValueCodec(objectMapper, RedisValueCodec.Format.JSON, 0);
+        RedisValueCodec smile = new RedisValueCodec(objectMapper, RedisValueCodec.Format.SMILE, 256);
+
+        // 未压缩的 JSON 不带头，与原来 writeValueAsString 写入的内容一致
+        Assertions.assertArrayEquals(objectMapper.writeValueAsString(shop).getBytes(StandardCharsets.UTF_8), json.encode(shop));
+
+        // 格式切换期间，任一节点都能读取另一种格式写入的数据
+        RedisData<Shop> fromSmile = json.decode(smile.encode(shop), dataType);
+        RedisData<Shop> fromJson = smile.decode(json.encode(shop), dataType);
+        Assertions.assertEquals(shop.getData(), fromSmile.getData());
+        Assertions.assertEquals(shop.getData(), fromJson.getData());
+    }
+
+    @Test
+    void testUnknownHeaderVersion() {
+        RedisValueCodec codec = new RedisValueCodec(objectMapper, RedisValueCodec.Format.SMILE, 0);
+        byte[] encoded = codec.encode("value");
+        encoded[1] = 99;
+        Assertions.assertThrows(IOException.class, () -> codec.decode(encoded, objectMapper.constructType(String.class)));
+    }
+
+    /**
+     * 比较各格式的体积与编解码耗时
+     */
+    @Test
+    void testBenchmark() throws IOException {
+        List<RedisData<Shop>> shops = loadShops();
+        int rounds = 20_000;
+        for (RedisValueCodec.Format format : RedisValueCodec.Format.values()) {
+            for (int threshold : new int[]{0, 256}) {
+                RedisValueCodec codec = new RedisValueCodec(objectMapper, format, threshold);
+                List<byte[]> encoded = new ArrayList<>();
+                long bytes = 0;
+                for (RedisData<Shop> shop : shops) {
+                    byte[] value = codec.encode(shop);
+                    encoded.add(value);
+                    bytes += value.length;
+                }
+                // 预热
+                for (int i = 0; i < rounds; i++) {
+                    codec.encode(shops.get(i % shops.size()));
+                    codec.decode(encoded.get(i % shops.size()), dataType);
+                }
+                long begin = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    codec.encode(shops.get(i % shops.size()));
+                }
+                long encodeNanos = (System.nanoTime() - begin) / rounds;
+                begin = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    codec.decode(encoded.get(i % shops.size()), dataType);
+                }
+                long decodeNanos = (System.nanoTime() - begin) / rounds;
+                System.out.printf("%-5s 压缩阈值 %-3d 平均 %d 字节/条，编码 %d ns/op，解码 %d ns/op%n",
+                        format, threshold, bytes / shops.size(), encodeNanos, decodeNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedissonIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RBucket;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisConnectionException;
+import org.redisson.client.codec.Codec;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 雪花算法机器ID租约测试，使用 mock 的 RedissonClient
+ */
+public class RedissonIdGeneratorTest {
+
+    // 续期脚本的返回值，为 null 时抛出连接异常
+    private final AtomicReference<Long> renewResult = new AtomicReference<>(1L);
+
+    private RedissonIdGenerator generator;
+
+    @SuppressWarnings("unchecked")
+    private RedissonIdGenerator newGenerator() {
+        RedissonClient client = Mockito.mock(RedissonClient.class);
+        RBucket<Object> bucket = Mockito.mock(RBucket.class);
+        Mockito.when(bucket.setIfAbsent(Mockito.any(), Mockito.any(Duration.class))).thenReturn(true);
+        Mockito.when(client.getBucket(Mockito.anyString(), Mockito.any(Codec.class))).thenReturn(bucket);
+        RScript script = Mockito.mock(RScript.class);
+        Mockito.when(script.eval(Mockito.any(RScript.Mode.class), Mockito.anyString(), Mockito.any(RScript.ReturnType.class),
+                Mockito.anyList(), Mockito.any(), Mockito.any())).thenAnswer(i -> {
+            Long result = renewResult.get();
+            if (result == null) {
+                throw new RedisConnectionException("redis unreachable");
+            }
+            return result;
+        });
+        Mockito.when(client.getScript(Mockito.any(Codec.class))).thenReturn(script);
+
+        RedissonIdGenerator generator = new RedissonIdGenerator();
+        ReflectionTestUtils.setField(generator, "redissonClient", client);
+        ReflectionTestUtils.setField(generator, "datacenterId", 1L);
+        ReflectionTestUtils.setField(generator, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(generator, "leaseMarginMillis", 5000L);
+        generator.init();
+        return generator;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (generator != null) {
+            renewResult.set(1L);
+            generator.destroy();
+        }
+    }
+
+    @Test
+    void testRefuseAfterLeaseDeadline() {
+        generator = newGenerator();
+        Assertions.assertTrue(generator.generateSnowflakeId("order") > 0);
+
+        // 模拟长时间停顿错过续期：本地租约到期后拒绝生成
+        ReflectionTestUtils.setField(generator, "leaseDeadline", System.nanoTime() - 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> generator.generateSnowflakeId("order"));
+
+        // 续期成功后恢复
+        ReflectionTestUtils.invokeMethod(generator, "renewWorkerId");
+        Assertions.assertTrue(generator.generateSnowflakeId("order") > 0);
+    }
+
+    @Test
+    void testStopWhenRenewalFailsPastDeadline() {
+        generator = newGenerator();
+        long first = generator.generateSnowflakeId("order");
+
+        // 租约未到期时续期失败，继续生成
+        renewResult.set(null);
+        ReflectionTestUtils.invokeMethod(generator, "renewWorkerId");
+        Assertions.assertTrue(generator.generateSnowflakeId("order") > first);
+
+        // 租约到期后续期仍然失败，停用生成器
+        ReflectionTestUtils.setField(generator, "leaseDeadline", System.nanoTime() - 1);
+        ReflectionTestUtils.invokeMethod(generator, "renewWorkerId");
+        Assertions.assertNull(ReflectionTestUtils.getField(generator, "snowflakeIdWorker"));
+        Assertions.assertThrows(IllegalStateException.class, () -> generator.generateSnowflakeId("order"));
+
+        // redis 恢复且租约仍由自己持有，继续使用原生成器，ID 保持递增
+        renewResult.set(1L);
+        ReflectionTestUtils.invokeMethod(generator, "renewWorkerId");
+        Assertions.assertTrue(generator.generateSnowflakeId("order") > first);
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp;
+
+import com.hmdp.utils.SegmentIdAllocator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 号段分配器测试，用内存计数器代替 redis
+ */
+public class SegmentIdAllocatorTest {
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger leases = new AtomicInteger();
+
+    private long lease(String key, long step) {
+        leases.incrementAndGet();
+        return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(step);
+    }
+
+    @Test
+    void testUniqueAcrossNodes() throws InterruptedException {
+        // 两个分配器模拟两个节点，共用同一个计数器
+        SegmentIdAllocator node1 = new SegmentIdAllocator(this::lease, 1000);
+        SegmentIdAllocator node2 = new SegmentIdAllocator(this::lease, 1000);
+        int threads = 16;
+        int perThread = 20000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            SegmentIdAllocator allocator = t % 2 == 0 ? node1 : node2;
+            es.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ids.add(allocator.nextSequence("order", 1, day -> "counter:order:" + day));
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        es.shutdown();
+
+        Assertions.assertEquals(threads * perThread, ids.size());
+        // 每个号段访问一次计数器，预取最多多租用每个节点一个号段
+        Assertions.assertTrue(leases.get() <= threads * perThread / 1000 + 2, "leases: " + leases.get());
+    }
+
+    @Test
+    void testMonotonicWithinNode() {
+        SegmentIdAllocator allocator = new SegmentIdAllocator(this::lease, 100);
+        long last = 0;
+        for (int i = 0; i < 10000; i++) {
+            long sequence = allocator.nextSequence("order", 1, day -> "counter:order:" + day);
+            Assertions.assertTrue(sequence > last);
+            last = sequence;
+        }
+    }
+
+    @Test
+    void testResetOnNewDay() {
+        SegmentIdAllocator allocator = new SegmentIdAllocator(this::lease, 100);
+        for (int i = 0; i < 150; i++) {
+            allocator.nextSequence("order", 1, day -> "counter:order:" + day);
+        }
+        // 新的一天从新的计数器开始
+        Assertions.assertEquals(1, allocator.nextSequence("order", 2, day -> "counter:order:" + day));
+        // 仍属于前一天的请求不会复用新一天的号段
+        Assertions.assertEquals(201, allocator.nextSequence("order", 1, day -> "counter:order:" + day));
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp;
+
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法生成器测试
+ */
+public class SnowflakeIdWorkerTest {
+
+    @Test
+    void testUniqueAcrossNodes() throws InterruptedException {
+        // 4 个机器ID模拟 4 个节点，每个节点 4 个线程并发生成
+        List<SnowflakeIdWorker> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            nodes.add(new SnowflakeIdWorker(1, i));
+        }
+        int threads = 16;
+        int perThread = 200_000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threads * perThread);
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            SnowflakeIdWorker worker = nodes.get(t % nodes.size());
+            es.submit(() -> {
+                long[] local = new long[perThread];
+                for (int i = 0; i < perThread; i++) {
+                    local[i] = worker.nextId();
+                }
+                for (long id : local) {
+                    ids.add(id);
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        es.shutdown();
+        System.out.println("生成 " + threads * perThread + " 个 id，耗时：" + (System.nanoTime() - begin) / 1_000_000 + "ms");
+        Assertions.assertEquals(threads * perThread, ids.size());
+    }
+
+    @Test
+    void testThroughput() {
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 1);
+        int count = 2_000_000;
+        long last = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long id = worker.nextId();
+            Assertions.assertTrue(id > last);
+            last = id;
+        }
+        long cost = Math.max(1, (System.nanoTime() - begin) / 1_000_000);
+        System.out.println("单线程吞吐量：" + count * 1000L / cost + " 个/秒");
+    }
+
+    @Test
+    void testSequenceExhausted() {
+        // 时钟每调用 5000 次才前进 1ms，同一毫秒内的 4096 个序列号会被用完
+        AtomicLong calls = new AtomicLong();
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 1, 5,
+                () -> SnowflakeIdWorker.TWEPOCH + 1000 + calls.incrementAndGet() / 5000);
+        long last = 0;
+        for (int i = 0; i < 10000; i++) {
+            long id = worker.nextId();
+            Assertions.assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    void testClockBackward() {
+        AtomicLong now = new AtomicLong(SnowflakeIdWorker.TWEPOCH + 1000);
+        AtomicLong waits = new AtomicLong();
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 1, 5, () -> {
+            long time = now.get();
+            if (time < SnowflakeIdWorker.TWEPOCH + 1000) {
+                // 模拟等待期间时钟追上
+                waits.incrementAndGet();
+                now.set(SnowflakeIdWorker.TWEPOCH + 1001);
+            }
+            return time;
+        });
+        long first = worker.nextId();
+
+        // 回拨 3ms，在允许范围内，等待时钟追上后继续生成
+        now.set(SnowflakeIdWorker.TWEPOCH + 997);
+        long second = worker.nextId();
+        Assertions.assertTrue(second > first);
+        Assertions.assertEquals(1, waits.get());
+
+        // 回拨 100ms，拒绝生成
+        SnowflakeIdWorker skewed = new SnowflakeIdWorker(1, 2, 5, now::get);
+        skewed.nextId();
+        now.addAndGet(-100);
+        Assertions.assertThrows(IllegalStateException.class, skewed::nextId);
+    }
+}